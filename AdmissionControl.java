@@ -0,0 +1,220 @@
+/*
+ * AdmissionControl.java
+ *
+ * Author: Shreyas Jayanna
+ *
+ */
+
+// import Statements
+import java.net.*;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Class AdmissionControl
+ * This class decides at the listening port which requests get a session. The
+ * session table is bounded: a request that finds it full waits in a queue until
+ * a session ends, and is turned away with an error packet if none ends before
+ * its deadline. A client may only hold a number of sessions, running and
+ * waiting, at once; the requests beyond them are turned away at once, so one
+ * client flooding the server cannot fill the queue for the others. A full
+ * queue turns requests away at once too.
+ * A client that times out while it waits sends its request again, the copy is
+ * dropped and the client keeps its place in the queue. Turning requests away
+ * early keeps the latency of the admitted transfers stable under overload,
+ * instead of every transfer slowing down until all of them time out.
+ * Both engines hand their requests to it and start the transfers it admits
+ * through a Listener. A multicast request that joins a running session needs no
+ * session of its own; one that starts a session is admitted like any other
+ * request, and the session holds its slot until it ends
+ */
+class AdmissionControl {
+
+	/**
+	 * Interface Listener
+	 * The engine behind the listening port
+	 */
+	interface Listener {
+
+		/**
+		 * start method
+		 * This method starts the session of an admitted transfer
+		 *
+		 * @param transfer The transfer
+		 *
+		 * @throws IOException
+		 */
+		void start(TftpTransfer transfer) throws IOException;
+
+		/**
+		 * reject method
+		 * This method turns a request away with an error packet from the listening port
+		 *
+		 * @param transfer The transfer of the request
+		 * @param message  The error message
+		 *
+		 * @throws IOException
+		 */
+		void reject(TftpTransfer transfer, String message) throws IOException;
+	}
+
+	/**
+	 * Class Waiting
+	 * A transfer in the queue
+	 */
+	static class Waiting {
+		TftpTransfer transfer;		// The transfer of the request
+		Future<?> expiry;		// Turns the request away at its deadline
+	}
+
+	int maxSessions = 4096;			// Sessions running at most
+	int maxPerClient = 0;			// Sessions running and waiting per client IP address, 0 for no limit
+	int maxQueued = 1024;			// Requests waiting at most, 0 to turn them away at once
+	long queueWait = 2000;			// How long a request waits for a session, in ms
+
+	Listener listener;			// Starts and turns away the transfers
+	TftpMetrics metrics;			// The counters of the server
+
+	int active;				// Sessions running
+	LinkedHashMap<InetSocketAddress,Waiting> queue;	// The requests waiting by client TID, oldest first
+	HashMap<InetAddress,Integer> clients;	// Sessions running and waiting by client IP address
+	ScheduledExecutorService timer;		// Runs the deadlines of the queue, created with the first waiting request
+
+	/**
+	 * AdmissionControl method
+	 * This is the constructor of the class
+	 *
+	 * @param metrics The counters of the server
+	 */
+	AdmissionControl(TftpMetrics metrics) {
+		this.metrics = metrics;
+		this.queue = new LinkedHashMap<InetSocketAddress,Waiting>();
+		this.clients = new HashMap<InetAddress,Integer>();
+	}
+
+	/**
+	 * admit method
+	 * This method starts the transfer of a request if a session is free, queues it
+	 * if the table is full, or turns it away
+	 *
+	 * @param transfer The transfer of the request
+	 */
+	void admit(TftpTransfer transfer) {
+		InetSocketAddress tid = new InetSocketAddress(transfer.address,transfer.port);
+		String rejection = null;
+		synchronized(this) {
+			// The request was sent again while it waits
+			if(this.queue.containsKey(tid))
+				return;
+
+			int sessions = this.clients.getOrDefault(transfer.address,0);
+			if((this.maxPerClient > 0) && (sessions >= this.maxPerClient)) {
+				rejection = "Too many transfers from this client";
+			} else if(this.active < this.maxSessions) {
+				++this.active;
+				this.clients.put(transfer.address,sessions + 1);
+			} else if(this.queue.size() < this.maxQueued) {
+				Waiting waiting = new Waiting();
+				waiting.transfer = transfer;
+				if(this.timer == null) {
+					this.timer = Executors.newSingleThreadScheduledExecutor(task -> {
+						Thread thread = new Thread(task,"tftp-admission");
+						thread.setDaemon(true);
+						return thread;
+					});
+				}
+				waiting.expiry = this.timer.schedule(() -> this.expire(tid),this.queueWait,TimeUnit.MILLISECONDS);
+				this.queue.put(tid,waiting);
+				this.clients.put(transfer.address,sessions + 1);
+				this.metrics.queued(1);
+				return;
+			} else {
+				rejection = "Server busy, try again later";
+			}
+		}
+
+		if(rejection != null)
+			this.reject(transfer,rejection);
+		else
+			this.start(transfer);
+	}
+
+	/**
+	 * release method
+	 * This method is called by an engine once an admitted transfer is closed, the
+	 * oldest waiting request takes its session
+	 *
+	 * @param transfer The transfer
+	 */
+	void release(TftpTransfer transfer) {
+		TftpTransfer next = null;
+		synchronized(this) {
+			--this.active;
+			this.leave(transfer.address);
+			Iterator<Waiting> oldest = this.queue.values().iterator();
+			if(oldest.hasNext()) {
+				Waiting waiting = oldest.next();
+				oldest.remove();
+				waiting.expiry.cancel(false);
+				this.metrics.queued(-1);
+				++this.active;
+				next = waiting.transfer;
+			}
+		}
+		if(next != null)
+			this.start(next);
+	}
+
+	/**
+	 * expire method
+	 * This method turns a request away once its deadline is reached
+	 *
+	 * @param tid The client TID of the request
+	 */
+	private void expire(InetSocketAddress tid) {
+		Waiting waiting;
+		synchronized(this) {
+			waiting = this.queue.remove(tid);
+			if(waiting == null)
+				return;
+			this.leave(waiting.transfer.address);
+			this.metrics.queued(-1);
+		}
+		this.reject(waiting.transfer,"Server busy, try again later");
+	}
+
+	/**
+	 * leave method
+	 * This method counts a session of a client as gone, the caller holds the lock
+	 *
+	 * @param address The IP Address of the client
+	 */
+	private void leave(InetAddress address) {
+		int sessions = this.clients.getOrDefault(address,0);
+		if(sessions <= 1)
+			this.clients.remove(address);
+		else
+			this.clients.put(address,sessions - 1);
+	}
+
+	private void start(TftpTransfer transfer) {
+		try {
+			// An admitted multicast request starts the session of its file, or is served unicast
+			if(!TftpMulticastTransfer.create(transfer))
+				this.listener.start(transfer);
+		} catch(IOException e) {
+			System.out.println("Cannot start transfer of " + transfer.filename + ": " + e.getMessage());
+			this.release(transfer);
+		}
+	}
+
+	private void reject(TftpTransfer transfer, String message) {
+		this.metrics.rejected();
+		try {
+			this.listener.reject(transfer,message);
+		} catch(IOException e) {
+			// The client asks again or gives up
+		}
+	}
+}
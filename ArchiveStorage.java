@@ -0,0 +1,414 @@
+/*
+ * ArchiveStorage.java
+ *
+ * Author: Shreyas Jayanna
+ *
+ */
+
+// import Statements
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * Class ArchiveStorage
+ * This class serves the files of a ZIP or tar archive without unpacking it, so a
+ * whole boot tree can be served from one image file. The archive is indexed once
+ * when the server starts, opening a file is a lookup of its name.
+ * The members of a plain tar archive are stored as they are: they are sent as
+ * views of a mapping of the archive, or read by position if it is larger than a
+ * mapping can be. The members of a ZIP or a compressed tar archive are inflated
+ * as they are sent, in blocks of CHUNK bytes kept in a BlockCache shared by all
+ * transfers, so a window sent again, and the same file sent to many clients,
+ * are inflated once. A block that is no longer cached is inflated again from the
+ * start of the member.
+ * The archive is read only, uploads are refused
+ */
+class ArchiveStorage implements Storage {
+
+	static final int CHUNK = 64 * 1024;	// The size of the inflated blocks cached
+
+	/**
+	 * Class Member
+	 * A file of the archive
+	 */
+	static class Member {
+		int id;				// Numbers the members, for the keys of the block cache
+		long size;			// The size of the file
+		long offset;			// The position of the data in the (uncompressed) tar archive
+		ZipEntry entry;			// The entry of a ZIP archive
+	}
+
+	Path archive;				// The archive
+	boolean compressed;			// True for a tar archive compressed with gzip
+	ZipFile zip;				// The archive if it is a ZIP archive, null for a tar archive
+	FileChannel channel;			// The archive if it is a tar archive too large to be mapped
+	ByteBuffer mapping;			// The archive if it is a tar archive that is mapped
+	Map<String,Member> members;		// The files by name
+	int count;				// The number of members added, numbers the next one
+	BlockCache cache;			// The inflated blocks
+
+	/**
+	 * ArchiveStorage method
+	 * This is the constructor of the class, it indexes the archive. The format is
+	 * taken from the name: .zip, .tar, or .tar.gz and .tgz
+	 *
+	 * @param archive   The archive
+	 * @param cacheSize The number of bytes of inflated blocks cached
+	 *
+	 * @throws IOException
+	 */
+	ArchiveStorage(Path archive, long cacheSize) throws IOException {
+		this.archive = archive;
+		this.members = new HashMap<String,Member>();
+		this.cache = new BlockCache(cacheSize);
+
+		String name = archive.getFileName().toString().toLowerCase();
+		if(name.endsWith(".zip")) {
+			this.zip = new ZipFile(archive.toFile());
+			for(ZipEntry entry : Collections.list(this.zip.entries())) {
+				if(!entry.isDirectory())
+					this.add(entry.getName(),entry.getSize(),0).entry = entry;
+			}
+		} else if(name.endsWith(".tar") || name.endsWith(".tar.gz") || name.endsWith(".tgz")) {
+			this.compressed = !name.endsWith(".tar");
+			try(InputStream in = this.openTar()) {
+				this.indexTar(in);
+			}
+			if(!this.compressed) {
+				this.channel = FileChannel.open(archive,StandardOpenOption.READ);
+				if(this.channel.size() <= Integer.MAX_VALUE) {
+					this.mapping = this.channel.map(FileChannel.MapMode.READ_ONLY,0,this.channel.size());
+					this.channel.close();
+					this.channel = null;
+				}
+			}
+		} else
+			throw new IOException(archive + ": not a .zip, .tar, .tar.gz or .tgz archive");
+	}
+
+	public BlockSource open(String filename) throws IOException {
+		String name = Storage.normalize(filename);
+		Member member = (name == null) ? null : this.members.get(name);
+		if(member == null)
+			throw new NoSuchFileException(filename);
+
+		if(this.mapping != null)
+			return new BufferBlockSource(this.mapping.slice((int)member.offset,(int)member.size));
+		if(this.channel != null)
+			return new RangeBlockSource(member);
+		return new InflatedBlockSource(member);
+	}
+
+	public Storage.Upload create(String filename) throws IOException {
+		throw new AccessDeniedException(filename,null,"read only archive");
+	}
+
+	/**
+	 * add method
+	 * This method adds a file to the index, a name that leaves the root of the
+	 * archive is left out
+	 *
+	 * @param name   The name in the archive
+	 * @param size   The size of the file
+	 * @param offset The position of its data in a tar archive
+	 *
+	 * @return The member
+	 */
+	private Member add(String name, long size, long offset) {
+		Member member = new Member();
+		member.id = this.count++;
+		member.size = size;
+		member.offset = offset;
+		String key = Storage.normalize(name);
+		if((key != null) && !key.isEmpty())
+			this.members.put(key,member);
+		return member;
+	}
+
+	/**
+	 * openTar method
+	 * This method opens the data of a tar archive, inflated if it is compressed
+	 *
+	 * @return The stream, at the start of the archive
+	 *
+	 * @throws IOException
+	 */
+	private InputStream openTar() throws IOException {
+		InputStream in = new BufferedInputStream(Files.newInputStream(this.archive),CHUNK);
+		return this.compressed ? new GZIPInputStream(in,CHUNK) : in;
+	}
+
+	/**
+	 * indexTar method
+	 * This method reads the headers of a tar archive and adds its regular files.
+	 * The ustar prefix, GNU long names and the path of pax headers are supported
+	 *
+	 * @param in The archive
+	 *
+	 * @throws IOException
+	 */
+	private void indexTar(InputStream in) throws IOException {
+		byte[] header = new byte[512];
+		long position = 0;
+		String longName = null;		// The name from the header before, for the next file
+		while(in.readNBytes(header,0,512) == 512) {
+			position += 512;
+			if(header[0] == 0)
+				break;			// The end of the archive
+			long size = tarNumber(header,124,12);
+			long padded = (size + 511) & ~511L;
+			byte type = header[156];
+
+			if((type == 'L') || (type == 'x')) {
+				// The name of the next file is in the data of this one
+				byte[] data = in.readNBytes((int)size);
+				in.skipNBytes(padded - size);
+				position += padded;
+				longName = (type == 'L') ? tarString(data,0,data.length) : paxPath(data);
+				continue;
+			}
+			String name = longName;
+			longName = null;
+			if(name == null) {
+				name = tarString(header,0,100);
+				// Only POSIX ustar headers have a prefix, GNU headers keep other fields there
+				if(tarString(header,257,6).equals("ustar") && (header[345] != 0))
+					name = tarString(header,345,155) + "/" + name;
+			}
+			if((type == '0') || (type == 0) || (type == '7'))
+				this.add(name,size,position);
+			in.skipNBytes(padded);
+			position += padded;
+		}
+	}
+
+	/**
+	 * tarNumber method
+	 * This method reads a number of a tar header, in octal or in GNU base 256
+	 */
+	private static long tarNumber(byte[] header, int offset, int length) {
+		long value = 0;
+		if((header[offset] & 0x80) != 0) {
+			value = header[offset] & 0x7f;
+			for(int i = 1; i < length; ++i)
+				value = (value << 8) | (header[offset + i] & 0xff);
+			return value;
+		}
+		for(int i = offset; i < offset + length; ++i) {
+			if((header[i] >= '0') && (header[i] <= '7'))
+				value = (value << 3) | (header[i] - '0');
+			else if(value > 0 || header[i] == 0)
+				break;
+		}
+		return value;
+	}
+
+	/**
+	 * tarString method
+	 * This method reads a string of a tar header, it ends at the first 0 byte
+	 */
+	private static String tarString(byte[] data, int offset, int length) {
+		int end = offset;
+		while((end < offset + length) && (data[end] != 0))
+			++end;
+		return new String(data,offset,end - offset,StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * paxPath method
+	 * This method finds the path in the records of a pax header, each record is
+	 * "length key=value\n" with the length in bytes
+	 *
+	 * @return The path, or null if there is none
+	 */
+	private static String paxPath(byte[] data) {
+		int position = 0;
+		while(position < data.length) {
+			int space = position;
+			while((space < data.length) && (data[space] != ' '))
+				++space;
+			int length;
+			try {
+				length = Integer.parseInt(new String(data,position,space - position,StandardCharsets.US_ASCII));
+			} catch(NumberFormatException e) {
+				return null;
+			}
+			if((length <= 0) || (position + length > data.length))
+				return null;
+			String record = new String(data,space + 1,position + length - space - 2,StandardCharsets.UTF_8);
+			if(record.startsWith("path="))
+				return record.substring(5);
+			position += length;
+		}
+		return null;
+	}
+
+	/**
+	 * Class RangeBlockSource
+	 * A member of a tar archive too large to be mapped, read by position
+	 */
+	class RangeBlockSource implements BlockSource {
+		Member member;
+
+		RangeBlockSource(Member member) {
+			this.member = member;
+		}
+
+		public long size() {
+			return this.member.size;
+		}
+
+		public int read(ByteBuffer dst, long position) throws IOException {
+			if(position >= this.member.size)
+				return -1;
+			int limit = dst.limit();
+			dst.limit(dst.position() + (int)Math.min(dst.remaining(),this.member.size - position));
+			try {
+				return ArchiveStorage.this.channel.read(dst,this.member.offset + position);
+			} finally {
+				dst.limit(limit);
+			}
+		}
+
+		public void close() {
+		}
+	}
+
+	/**
+	 * Class InflatedBlockSource
+	 * A compressed member, inflated in blocks of CHUNK bytes. The blocks are taken
+	 * from the cache, a block that is not cached is inflated from the stream of the
+	 * member, which is opened again from the start if it is past the block
+	 */
+	class InflatedBlockSource implements BlockSource {
+		Member member;
+		InputStream stream;		// The inflated data of the member, null until needed
+		long streamPosition;		// The position of the stream in the member
+
+		InflatedBlockSource(Member member) {
+			this.member = member;
+		}
+
+		public long size() {
+			return this.member.size;
+		}
+
+		public int read(ByteBuffer dst, long position) throws IOException {
+			if(position >= this.member.size)
+				return -1;
+			ByteBuffer view = this.chunk(position / CHUNK);
+			int offset = (int)(position % CHUNK);
+			int n = Math.min(dst.remaining(),view.limit() - offset);
+			view.limit(offset + n).position(offset);
+			dst.put(view);
+			return n;
+		}
+
+		public ByteBuffer view(long position, int length) {
+			// Only a block within one chunk can be sent as a view
+			if((length == 0) || (position / CHUNK != (position + length - 1) / CHUNK))
+				return null;
+			try {
+				ByteBuffer view = this.chunk(position / CHUNK);
+				int offset = (int)(position % CHUNK);
+				return view.limit(offset + length).position(offset);
+			} catch(IOException e) {
+				return null;		// The read reports it
+			}
+		}
+
+		/**
+		 * chunk method
+		 * This method returns a block of the member, inflating it if it is not cached
+		 *
+		 * @param index The number of the block, 0 is the first
+		 *
+		 * @return A view of the block, private to the caller
+		 *
+		 * @throws IOException
+		 */
+		private ByteBuffer chunk(long index) throws IOException {
+			long key = ((long)this.member.id << 32) | index;
+			ByteBuffer chunk = ArchiveStorage.this.cache.get(key);
+			if(chunk != null)
+				return chunk.duplicate();
+
+			long start = index * CHUNK;
+			if((this.stream == null) || (this.streamPosition > start))
+				this.reopen();
+			// The blocks before the one asked for are inflated on the way, they are cached too
+			while(true) {
+				int length = (int)Math.min(CHUNK,this.member.size - this.streamPosition);
+				byte[] data = this.stream.readNBytes(length);
+				if(data.length < length)
+					throw new IOException(ArchiveStorage.this.archive + ": truncated member");
+				chunk = ByteBuffer.wrap(data).asReadOnlyBuffer();
+				ArchiveStorage.this.cache.put(((long)this.member.id << 32) | (this.streamPosition / CHUNK),chunk);
+				this.streamPosition += length;
+				if(this.streamPosition > start)
+					return chunk.duplicate();
+			}
+		}
+
+		/**
+		 * reopen method
+		 * This method opens the stream of the member at its start
+		 *
+		 * @throws IOException
+		 */
+		private void reopen() throws IOException {
+			this.close();
+			if(ArchiveStorage.this.zip != null) {
+				this.stream = ArchiveStorage.this.zip.getInputStream(this.member.entry);
+			} else {
+				this.stream = ArchiveStorage.this.openTar();
+				this.stream.skipNBytes(this.member.offset);
+			}
+			this.streamPosition = 0;
+		}
+
+		public void close() throws IOException {
+			if(this.stream != null)
+				this.stream.close();
+			this.stream = null;
+		}
+	}
+
+	/**
+	 * Class BlockCache
+	 * The inflated blocks of the members, the least recently used blocks are
+	 * evicted once the cache is over its capacity
+	 */
+	static class BlockCache {
+		LinkedHashMap<Long,ByteBuffer> blocks;	// The blocks in least recently used order
+		long capacity;				// The maximum number of bytes cached
+		long used;				// The number of bytes cached
+
+		BlockCache(long capacity) {
+			this.capacity = capacity;
+			this.blocks = new LinkedHashMap<Long,ByteBuffer>(16,0.75f,true);
+		}
+
+		synchronized ByteBuffer get(long key) {
+			return this.blocks.get(key);
+		}
+
+		synchronized void put(long key, ByteBuffer block) {
+			ByteBuffer old = this.blocks.put(key,block);
+			if(old != null)
+				this.used -= old.capacity();
+			this.used += block.capacity();
+
+			Iterator<ByteBuffer> eldest = this.blocks.values().iterator();
+			while((this.used > this.capacity) && (this.blocks.size() > 1)) {
+				this.used -= eldest.next().capacity();
+				eldest.remove();
+			}
+		}
+	}
+}
@@ -0,0 +1,56 @@
+/*
+ * BlockSource.java
+ *
+ * Author: Shreyas Jayanna
+ *
+ */
+
+// import Statements
+import java.io.*;
+import java.nio.*;
+
+/**
+ * Interface BlockSource
+ * This interface is the contents of a file being sent by a read transfer.
+ * Blocks are read by position, so a window can be sent again after a loss.
+ * Sources that hold the contents in memory also hand out views of a block,
+ * which an engine can send without copying the bytes
+ */
+interface BlockSource extends Closeable {
+
+	/**
+	 * size method
+	 *
+	 * @return The size of the contents in bytes
+	 *
+	 * @throws IOException
+	 */
+	long size() throws IOException;
+
+	/**
+	 * read method
+	 * This method reads bytes at a position into a buffer
+	 *
+	 * @param dst      The buffer to fill
+	 * @param position The position of the first byte to read
+	 *
+	 * @return The number of bytes read, or -1 at the end of the contents
+	 *
+	 * @throws IOException
+	 */
+	int read(ByteBuffer dst, long position) throws IOException;
+
+	/**
+	 * view method
+	 * This method returns a view of the bytes of a block, it is only valid until
+	 * the next call and must not be modified
+	 *
+	 * @param position The position of the first byte
+	 * @param length   The number of bytes
+	 *
+	 * @return The view, or null if the source has to be read instead
+	 */
+	default ByteBuffer view(long position, int length) {
+		return null;
+	}
+}
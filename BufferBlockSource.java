@@ -0,0 +1,47 @@
+/*
+ * BufferBlockSource.java
+ *
+ * Author: Shreyas Jayanna
+ *
+ */
+
+// import Statements
+import java.io.*;
+import java.nio.*;
+
+/**
+ * Class BufferBlockSource
+ * This class reads the blocks of contents held in a buffer, such as a file in
+ * the FileCache. The buffer is shared, the source only moves its own view of it
+ */
+class BufferBlockSource implements BlockSource {
+
+	ByteBuffer view;			// A view of the contents, private to this source
+
+	BufferBlockSource(ByteBuffer contents) {
+		this.view = contents.duplicate();
+	}
+
+	public long size() {
+		return this.view.capacity();
+	}
+
+	public int read(ByteBuffer dst, long position) {
+		if(position >= this.view.capacity())
+			return -1;
+		int n = (int)Math.min(dst.remaining(),this.view.capacity() - position);
+		this.view.limit((int)position + n);
+		this.view.position((int)position);
+		dst.put(this.view);
+		return n;
+	}
+
+	public ByteBuffer view(long position, int length) {
+		this.view.limit((int)position + length);
+		this.view.position((int)position);
+		return this.view;
+	}
+
+	public void close() {
+	}
+}
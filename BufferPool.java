@@ -0,0 +1,68 @@
+/*
+ * BufferPool.java
+ *
+ * Author: Shreyas Jayanna
+ *
+ */
+
+// import Statements
+import java.nio.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Class BufferPool
+ * This class recycles the direct buffers of finished transfers, so starting a
+ * transfer does not allocate off-heap memory. Buffers are pooled by exact
+ * capacity, in practice there are only a few sizes (one per block size in use).
+ * The pool holds at most a fixed number of bytes, buffers released beyond that
+ * are left to the garbage collector
+ */
+class BufferPool {
+
+	ConcurrentHashMap<Integer,Queue<ByteBuffer>> pools;	// Free buffers by capacity
+	AtomicLong pooled;			// The number of bytes held by the pool
+	long capacity;				// The maximum number of bytes held by the pool
+
+	BufferPool(long capacity) {
+		this.capacity = capacity;
+		this.pools = new ConcurrentHashMap<Integer,Queue<ByteBuffer>>();
+		this.pooled = new AtomicLong();
+	}
+
+	/**
+	 * acquire method
+	 * This method returns a cleared direct buffer of the given capacity
+	 *
+	 * @param size The capacity
+	 *
+	 * @return The buffer
+	 */
+	ByteBuffer acquire(int size) {
+		Queue<ByteBuffer> pool = this.pools.get(size);
+		ByteBuffer buffer = (pool == null) ? null : pool.poll();
+		if(buffer == null)
+			return ByteBuffer.allocateDirect(size);
+		this.pooled.addAndGet(-size);
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * release method
+	 * This method returns a buffer to the pool, it must not be used afterwards
+	 *
+	 * @param buffer The buffer, may be null
+	 */
+	void release(ByteBuffer buffer) {
+		if((buffer == null) || !buffer.isDirect())
+			return;
+		int size = buffer.capacity();
+		if(this.pooled.addAndGet(size) > this.capacity) {
+			this.pooled.addAndGet(-size);
+			return;
+		}
+		this.pools.computeIfAbsent(size,s -> new ConcurrentLinkedQueue<ByteBuffer>()).add(buffer);
+	}
+}
@@ -0,0 +1,178 @@
+/*
+ * ChannelTransport.java
+ *
+ * Author: Shreyas Jayanna
+ *
+ */
+
+// import Statements
+import java.net.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+/**
+ * Class ChannelTransport
+ * This class is the Transport over a non-blocking DatagramChannel. Direct
+ * buffers, such as mapped file blocks, are sent without a copy. A receive first
+ * tries the channel and only polls when nothing is waiting; after a poll every
+ * datagram already queued in the socket is read in one pass and handed out by
+ * the next receives, so a burst of a window costs one poll.
+ * Java offers no sendmmsg, recvmmsg or UDP GSO, so each datagram is still one
+ * send or receive call
+ */
+class ChannelTransport implements Transport {
+
+	static final int BATCH = 16;		// Datagrams read ahead after a poll, at most
+
+	DatagramChannel channel;		// The channel
+	Selector selector;			// Polls the channel for datagrams, or for room to send
+	SelectionKey key;
+	ByteBuffer staging;			// Joins a header and data into one datagram
+
+	ByteBuffer[] queue;			// Datagrams read ahead
+	InetSocketAddress[] senders;		// The senders of the datagrams read ahead
+	int head;				// The next datagram read ahead
+	int count;				// The number of datagrams read ahead
+
+	/**
+	 * ChannelTransport method
+	 * This is the constructor of the class, it binds the channel
+	 *
+	 * @param port The local port, 0 for an ephemeral port
+	 *
+	 * @throws IOException
+	 */
+	ChannelTransport(int port) throws IOException {
+		this(DatagramChannel.open(),new InetSocketAddress(port));
+	}
+
+	private ChannelTransport(DatagramChannel channel, InetSocketAddress local) throws IOException {
+		this.channel = channel;
+		this.channel.bind(local);
+		this.channel.configureBlocking(false);
+		this.selector = Selector.open();
+		this.key = this.channel.register(this.selector,SelectionKey.OP_READ);
+		this.queue = new ByteBuffer[BATCH];
+		this.senders = new InetSocketAddress[BATCH];
+	}
+
+	public void send(ByteBuffer packet, InetSocketAddress target) throws IOException {
+		// A full socket buffer refuses the datagram, wait for room a few times before dropping it
+		for(int attempt = 0; (this.channel.send(packet,target) == 0) && (attempt < 3); ++attempt) {
+			this.key.interestOps(SelectionKey.OP_WRITE);
+			this.selector.select(10);
+			this.selector.selectedKeys().clear();
+			this.key.interestOps(SelectionKey.OP_READ);
+		}
+	}
+
+	public void send(ByteBuffer header, ByteBuffer data, InetSocketAddress target) throws IOException {
+		int length = header.remaining() + data.remaining();
+		if((this.staging == null) || (this.staging.capacity() < length))
+			this.staging = ByteBuffer.allocateDirect(length);
+		this.staging.clear();
+		this.staging.put(header).put(data).flip();
+		this.send(this.staging,target);
+	}
+
+	public InetSocketAddress receive(ByteBuffer dst, int timeout) throws IOException {
+		dst.clear();
+		if(this.count > 0) {
+			// Hand out the next datagram read ahead
+			ByteBuffer next = this.queue[this.head];
+			if(next.remaining() > dst.remaining())
+				next.limit(next.position() + dst.remaining());
+			dst.put(next).flip();
+			InetSocketAddress sender = this.senders[this.head];
+			this.head = (this.head + 1) % BATCH;
+			--this.count;
+			return sender;
+		}
+
+		InetSocketAddress sender = (InetSocketAddress)this.channel.receive(dst);
+		if(sender == null) {
+			this.selector.select(timeout);
+			this.selector.selectedKeys().clear();
+			sender = (InetSocketAddress)this.channel.receive(dst);
+			if(sender == null)
+				return null;
+			this.readAhead(dst.capacity());
+		}
+		dst.flip();
+		return sender;
+	}
+
+	/**
+	 * multicastSender method
+	 * This method opens a transport on an ephemeral port that also sends to IPv4
+	 * multicast groups (RFC 2090)
+	 *
+	 * @param networkInterface The interface to send multicast packets from, null for the default route
+	 * @param ttl              The time to live of multicast packets, 1 keeps them on the local network
+	 *
+	 * @return The transport
+	 *
+	 * @throws IOException
+	 */
+	static ChannelTransport multicastSender(NetworkInterface networkInterface, int ttl) throws IOException {
+		DatagramChannel channel = DatagramChannel.open(StandardProtocolFamily.INET);
+		if(networkInterface != null)
+			channel.setOption(StandardSocketOptions.IP_MULTICAST_IF,networkInterface);
+		channel.setOption(StandardSocketOptions.IP_MULTICAST_TTL,ttl);
+		channel.setOption(StandardSocketOptions.IP_MULTICAST_LOOP,true);
+		return new ChannelTransport(channel,new InetSocketAddress(0));
+	}
+
+	/**
+	 * multicastReceiver method
+	 * This method opens a transport that receives the packets sent to an IPv4
+	 * multicast group. The port is shared, so several clients on one host can
+	 * join the same group
+	 *
+	 * @param group            The group address and port
+	 * @param networkInterface The interface to join the group on
+	 *
+	 * @return The transport
+	 *
+	 * @throws IOException
+	 */
+	static ChannelTransport multicastReceiver(InetSocketAddress group, NetworkInterface networkInterface)
+			throws IOException {
+		DatagramChannel channel = DatagramChannel.open(StandardProtocolFamily.INET);
+		channel.setOption(StandardSocketOptions.SO_REUSEADDR,true);
+		ChannelTransport transport = new ChannelTransport(channel,new InetSocketAddress(group.getPort()));
+		channel.join(group.getAddress(),networkInterface);
+		return transport;
+	}
+
+	/**
+	 * readAhead method
+	 * This method reads the datagrams waiting in the socket into the queue
+	 *
+	 * @param size The size of the queue buffers
+	 */
+	private void readAhead(int size) throws IOException {
+		this.head = 0;
+		while(this.count < BATCH) {
+			if((this.queue[this.count] == null) || (this.queue[this.count].capacity() < size))
+				this.queue[this.count] = ByteBuffer.allocateDirect(size);
+			ByteBuffer buffer = this.queue[this.count];
+			buffer.clear();
+			InetSocketAddress sender = (InetSocketAddress)this.channel.receive(buffer);
+			if(sender == null)
+				break;
+			buffer.flip();
+			this.senders[this.count++] = sender;
+		}
+	}
+
+	public int getLocalPort() {
+		return this.channel.socket().getLocalPort();
+	}
+
+	public void close() throws IOException {
+		this.selector.close();
+		this.channel.close();
+	}
+}
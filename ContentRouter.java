@@ -0,0 +1,261 @@
+/*
+ * ContentRouter.java
+ *
+ * Author: Shreyas Jayanna
+ *
+ */
+
+// import Statements
+import java.net.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.regex.*;
+
+/**
+ * Class ContentRouter
+ * This class routes the requests of the server before they reach its storage. A
+ * route maps a filename pattern to a Generator, which writes the contents of the
+ * file for the client that asked, such as the pxelinux.cfg file of a device
+ * named after its MAC address. Filenames no route matches are passed on to the
+ * storage behind the router.
+ * A route can have a template, a file of the storage behind the router that is
+ * read and split once and kept for the route; the default generator renders it
+ * with the named groups of the pattern, the address of the client and the
+ * filename as variables. What a generator wrote is kept per filename and client
+ * for a short time, so a device that asks again, or a window sent again, costs
+ * nothing. The contents are rendered into memory and sent as views of it: the
+ * size has to be known before the first block anyway, for the tsize option and
+ * the last block, and generated files are small.
+ * A generator that has no file for a client throws a NoSuchFileException.
+ * Generated files cannot be uploaded, and are never served to a multicast group
+ */
+class ContentRouter implements Storage {
+
+	static final int MAX_RENDERED = 4096;	// Rendered files kept at most
+
+	/**
+	 * Interface Generator
+	 * A callback writing the contents of a routed file
+	 */
+	interface Generator {
+
+		/**
+		 * generate method
+		 * This method writes the contents of a file
+		 *
+		 * @param request The filename, the client and the template of the route
+		 * @param out     Where the contents are written to
+		 *
+		 * @throws IOException
+		 */
+		void generate(Request request, OutputStream out) throws IOException;
+	}
+
+	/**
+	 * Class Request
+	 * A request routed to a generator
+	 */
+	static class Request {
+		String filename;		// The requested filename
+		InetAddress client;		// The address of the client
+		Map<String,String> variables;	// The named groups of the pattern, client and filename
+		Template template;		// The template of the route, null without one
+	}
+
+	/**
+	 * Class Route
+	 * A filename pattern and its generator
+	 */
+	static class Route {
+		Pattern pattern;		// The filenames of the route
+		List<String> groups;		// The names of the named groups of the pattern
+		Generator generator;		// Writes the contents
+		String templateName;		// The template in the storage behind the router, null without one
+		Template template;		// The template once read
+	}
+
+	/**
+	 * Class Rendered
+	 * The contents written for a filename and a client
+	 */
+	static class Rendered {
+		ByteBuffer contents;		// The contents, read only
+		long expires;			// When the contents are written again, in ns
+	}
+
+	Storage storage;			// The storage behind the router
+	List<Route> routes;			// The routes, the first one that matches is taken
+	long ttl;				// How long rendered contents are kept, in ms
+	LinkedHashMap<String,Rendered> rendered;	// The rendered contents by filename and client, least recently used first
+
+	long generated;				// Files written by generators
+	long hits;				// Files served from the rendered contents
+
+	/**
+	 * ContentRouter method
+	 * This is the constructor of the class
+	 *
+	 * @param storage The storage behind the router
+	 * @param ttl     How long rendered contents are kept, in ms
+	 */
+	ContentRouter(Storage storage, long ttl) {
+		this.storage = storage;
+		this.ttl = ttl;
+		this.routes = new ArrayList<Route>();
+		this.rendered = new LinkedHashMap<String,Rendered>(16,0.75f,true) {
+			protected boolean removeEldestEntry(Map.Entry<String,Rendered> eldest) {
+				return this.size() > MAX_RENDERED;
+			}
+		};
+	}
+
+	/**
+	 * add method
+	 * This method adds a route
+	 *
+	 * @param pattern      The filenames of the route, a regular expression matching the whole name
+	 * @param templateName The template in the storage behind the router, null without one
+	 * @param generator    Writes the contents, null to render the template
+	 */
+	synchronized void add(String pattern, String templateName, Generator generator) {
+		Route route = new Route();
+		route.pattern = Pattern.compile(pattern);
+		route.groups = new ArrayList<String>();
+		Matcher names = Pattern.compile("\\(\\?<([a-zA-Z][a-zA-Z0-9]*)>").matcher(pattern);
+		while(names.find())
+			route.groups.add(names.group(1));
+		route.templateName = templateName;
+		route.generator = (generator != null) ? generator :
+			(request, out) -> {
+				Writer writer = new OutputStreamWriter(out,StandardCharsets.UTF_8);
+				request.template.render(request.variables,writer);
+				writer.flush();
+			};
+		if((generator == null) && (templateName == null))
+			throw new IllegalArgumentException("A route without a generator needs a template");
+		this.routes.add(route);
+	}
+
+	/**
+	 * reload method
+	 * This method drops the templates read and the contents rendered, the next
+	 * requests read and render them again
+	 */
+	synchronized void reload() {
+		for(Route route : this.routes)
+			route.template = null;
+		this.rendered.clear();
+	}
+
+	public BlockSource open(String filename) throws IOException {
+		return this.open(filename,null);
+	}
+
+	public BlockSource open(String filename, InetAddress client) throws IOException {
+		String name = Storage.normalize(filename);
+		Route route = (name == null) ? null : this.route(name);
+		if(route == null)
+			return this.storage.open(filename,client);
+
+		String key = name + "\0" + ((client == null) ? "" : client.getHostAddress());
+		long now = System.nanoTime();
+		synchronized(this) {
+			Rendered cached = this.rendered.get(key);
+			if((cached != null) && (cached.expires - now > 0)) {
+				++this.hits;
+				return new BufferBlockSource(cached.contents);
+			}
+		}
+
+		Request request = new Request();
+		request.filename = name;
+		request.client = client;
+		request.variables = new HashMap<String,String>();
+		Matcher match = route.pattern.matcher(name);
+		match.matches();
+		for(String group : route.groups) {
+			if(match.group(group) != null)
+				request.variables.put(group,match.group(group));
+		}
+		request.variables.put("client",(client == null) ? "" : client.getHostAddress());
+		request.variables.put("filename",name);
+		request.template = this.template(route);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		route.generator.generate(request,out);
+
+		Rendered rendered = new Rendered();
+		rendered.contents = ByteBuffer.wrap(out.toByteArray()).asReadOnlyBuffer();
+		rendered.expires = now + this.ttl * 1000000L;
+		synchronized(this) {
+			++this.generated;
+			if(this.ttl > 0)
+				this.rendered.put(key,rendered);
+		}
+		return new BufferBlockSource(rendered.contents);
+	}
+
+	public Storage.Upload create(String filename) throws IOException {
+		String name = Storage.normalize(filename);
+		if((name != null) && (this.route(name) != null))
+			throw new AccessDeniedException(filename,null,"generated file");
+		return this.storage.create(filename);
+	}
+
+	public boolean shared(String filename) {
+		String name = Storage.normalize(filename);
+		return ((name == null) || (this.route(name) == null)) && this.storage.shared(filename);
+	}
+
+	/**
+	 * route method
+	 * This method finds the route of a filename
+	 *
+	 * @param name The normalized filename
+	 *
+	 * @return The first route that matches, or null if none does
+	 */
+	private synchronized Route route(String name) {
+		for(Route route : this.routes) {
+			if(route.pattern.matcher(name).matches())
+				return route;
+		}
+		return null;
+	}
+
+	/**
+	 * template method
+	 * This method returns the template of a route, it is read from the storage
+	 * behind the router the first time
+	 *
+	 * @param route The route
+	 *
+	 * @return The template, null if the route has none
+	 *
+	 * @throws IOException
+	 */
+	private Template template(Route route) throws IOException {
+		synchronized(this) {
+			if((route.template != null) || (route.templateName == null))
+				return route.template;
+		}
+
+		ByteBuffer text;
+		try(BlockSource source = this.storage.open(route.templateName)) {
+			long size = source.size();
+			if(size > Integer.MAX_VALUE)
+				throw new IOException(route.templateName + ": template too large");
+			text = ByteBuffer.allocate((int)size);
+			while(text.hasRemaining() && (source.read(text,text.position()) > 0))
+				;
+		}
+		Template template = new Template(new String(text.array(),0,text.position(),StandardCharsets.UTF_8));
+		synchronized(this) {
+			route.template = template;
+		}
+		return template;
+	}
+}
@@ -0,0 +1,31 @@
+/*
+ * DatagramSender.java
+ *
+ * Author: Shreyas Jayanna
+ *
+ */
+
+// import Statements
+import java.net.*;
+import java.io.*;
+import java.nio.*;
+
+/**
+ * Interface DatagramSender
+ * This interface sends datagrams from one endpoint. Every Transport is one; a
+ * client transfer driven by a TftpClientEngine loop only sends through its
+ * session, the loop receives for it
+ */
+interface DatagramSender {
+
+	/**
+	 * send method
+	 * This method sends one datagram
+	 *
+	 * @param packet The packet, from its position to its limit
+	 * @param target The address to send to
+	 *
+	 * @throws IOException
+	 */
+	void send(ByteBuffer packet, InetSocketAddress target) throws IOException;
+}
@@ -0,0 +1,179 @@
+/*
+ * DirectoryStorage.java
+ *
+ * Author: Shreyas Jayanna
+ *
+ */
+
+// import Statements
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+
+/**
+ * Class DirectoryStorage
+ * This class stores the files in a directory of the file system. Without a root
+ * the filenames are paths of the working directory of the server, as they always
+ * were. With a root every filename is taken relative to it and a name that leads
+ * out of it, through .. or a symbolic link, is refused.
+ * Files are sent from the FileCache if there is one, large files from a mapping
+ * and the others with positional reads. An upload is written to a temporary
+ * file next to the target and renamed to it when it is committed, so a failed
+ * upload never leaves a partial file under the requested name
+ */
+class DirectoryStorage implements Storage {
+
+	Path root;				// The directory the files are confined to, null for none
+	Path realRoot;				// The root with its symbolic links resolved
+	TftpServerConfig config;		// The server settings, for the cache and the mapping threshold
+
+	/**
+	 * DirectoryStorage method
+	 * This is the constructor of the class, the files are paths of the working directory
+	 *
+	 * @param config The server settings
+	 */
+	DirectoryStorage(TftpServerConfig config) {
+		this.config = config;
+	}
+
+	/**
+	 * DirectoryStorage method
+	 * This is the constructor of the class, the files are confined to a root
+	 *
+	 * @param root   The directory the files are confined to
+	 * @param config The server settings
+	 *
+	 * @throws IOException if the root is not a directory
+	 */
+	DirectoryStorage(Path root, TftpServerConfig config) throws IOException {
+		this(config);
+		this.root = root.toAbsolutePath().normalize();
+		this.realRoot = this.root.toRealPath();
+		if(!Files.isDirectory(this.realRoot))
+			throw new NotDirectoryException(root.toString());
+	}
+
+	public BlockSource open(String filename) throws IOException {
+		Path path = this.resolve(filename);
+		// Create new file object
+		File aFile = path.toFile();
+		// Check if file exists
+		if(!aFile.isFile())
+			throw new NoSuchFileException(filename);
+		// Check if file is accessible
+		if(!aFile.canRead() || !this.confined(path))
+			throw new AccessDeniedException(filename);
+
+		BlockSource source = null;
+		if(this.config.cache != null)
+			source = this.config.cache.open(path);
+		if((source == null) && (this.config.mapThreshold >= 0) &&
+				(aFile.length() >= this.config.mapThreshold) && (aFile.length() <= Integer.MAX_VALUE))
+			source = new MappedBlockSource(path);
+		if(source == null)
+			source = new FileBlockSource(path);
+		return source;
+	}
+
+	public Storage.Upload create(String filename) throws IOException {
+		Path target = this.resolve(filename).toAbsolutePath();
+		if(Files.exists(target))
+			throw new FileAlreadyExistsException(filename);
+		if(!this.confined(target.getParent()))
+			throw new AccessDeniedException(filename);
+		return new FileUpload(target);
+	}
+
+	/**
+	 * resolve method
+	 * This method finds the path of a filename
+	 *
+	 * @param filename The requested filename
+	 *
+	 * @return The path
+	 *
+	 * @throws AccessDeniedException if the name leads out of the root
+	 */
+	private Path resolve(String filename) throws AccessDeniedException {
+		if(this.root == null)
+			return Paths.get(filename);
+		String name = Storage.normalize(filename);
+		if(name == null)
+			throw new AccessDeniedException(filename);
+		return this.root.resolve(name);
+	}
+
+	/**
+	 * confined method
+	 * This method checks an existing path is within the root once its symbolic
+	 * links are resolved
+	 *
+	 * @param path The path
+	 *
+	 * @return true if it is, or if there is no root
+	 *
+	 * @throws IOException
+	 */
+	private boolean confined(Path path) throws IOException {
+		return (this.root == null) || path.toRealPath().startsWith(this.realRoot);
+	}
+
+	/**
+	 * Class FileUpload
+	 * An upload written to a temporary file in the target directory, so it can be
+	 * renamed atomically
+	 */
+	static class FileUpload implements Storage.Upload {
+		Path target;				// The file being uploaded
+		Path temp;				// The temporary file the data is written to
+		FileChannel fileChannel;		// The channel of the temporary file
+		boolean committed;			// True once the file is in place
+
+		FileUpload(Path target) throws IOException {
+			this.target = target;
+			this.temp = Files.createTempFile(target.getParent(),"." + target.getFileName(),".part");
+			this.fileChannel = FileChannel.open(this.temp,StandardOpenOption.WRITE);
+		}
+
+		public int write(ByteBuffer data) throws IOException {
+			return this.fileChannel.write(data);
+		}
+
+		public void force() throws IOException {
+			this.fileChannel.force(false);
+		}
+
+		public void commit(boolean sync) throws IOException {
+			if(sync)
+				this.fileChannel.force(true);
+			this.fileChannel.close();
+
+			// Another upload of the same file may have finished first
+			if(Files.exists(this.target))
+				throw new FileAlreadyExistsException(this.target.toString());
+			Files.move(this.temp,this.target,StandardCopyOption.ATOMIC_MOVE);
+			this.committed = true;
+
+			// Sync the directory too, so the rename survives a crash
+			if(sync) {
+				try(FileChannel directory = FileChannel.open(this.target.getParent(),StandardOpenOption.READ)) {
+					directory.force(true);
+				} catch(IOException e) {
+					// Not every platform can sync a directory
+				}
+			}
+		}
+
+		public long usableSpace() throws IOException {
+			return Files.getFileStore(this.target.getParent()).getUsableSpace();
+		}
+
+		public void close() throws IOException {
+			this.fileChannel.close();
+			if(!this.committed)
+				Files.deleteIfExists(this.temp);
+		}
+	}
+}
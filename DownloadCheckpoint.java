@@ -0,0 +1,159 @@
+/*
+ * DownloadCheckpoint.java
+ *
+ * Author: Shreyas Jayanna
+ *
+ */
+
+// import Statements
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Class DownloadCheckpoint
+ * This class is the resume state of a download, kept in a small file beside the
+ * partial file. It names the file on the server and its size, and holds the
+ * number of bytes written in order from the start of the file; a multicast
+ * download also keeps a bitmap of the blocks it wrote, in any order.
+ * The checkpoint is only saved after the data it covers was forced to the file,
+ * and it is written to a temporary file moved over the old one, so a crash
+ * leaves a checkpoint that never claims more than the file holds.
+ * The size is all that tells the file on the server is still the one the data
+ * came from, so a download whose size the server does not report is never
+ * resumed, and a file replaced by another one of the same size is not noticed
+ */
+class DownloadCheckpoint {
+
+	static final int MAGIC = 0x54465450;	// Marks a checkpoint file
+	static final String SUFFIX = ".resume";	// Appended to the local filename
+
+	Path path;				// The checkpoint file
+	String remoteFile;			// The filename on the server
+	long size = -1;				// The size of the file from the tsize option, -1 if unknown
+	long offset;				// The bytes written in order from the start of the file
+	int blockSize;				// The block size of the bitmap, 0 without one
+	BitSet blocks = new BitSet();		// The blocks written by a multicast download, block 1 is the first
+
+	/**
+	 * DownloadCheckpoint method
+	 * This is the constructor of the class, the checkpoint of a new download
+	 *
+	 * @param localFile  The filename the file is stored under
+	 * @param remoteFile The filename on the server
+	 */
+	DownloadCheckpoint(String localFile, String remoteFile) {
+		this.path = Paths.get(localFile + SUFFIX);
+		this.remoteFile = remoteFile;
+	}
+
+	/**
+	 * load method
+	 * This method reads the checkpoint of an earlier attempt of a download
+	 *
+	 * @param localFile  The filename the file is stored under
+	 * @param remoteFile The filename on the server
+	 *
+	 * @return The checkpoint, or a new one if there is none for this file or it is unusable
+	 */
+	static DownloadCheckpoint load(String localFile, String remoteFile) {
+		DownloadCheckpoint checkpoint = new DownloadCheckpoint(localFile,remoteFile);
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(checkpoint.path)))) {
+			if((in.readInt() != MAGIC) || !in.readUTF().equals(remoteFile))
+				return checkpoint;
+			long size = in.readLong();
+			long offset = in.readLong();
+			int blockSize = in.readInt();
+			byte[] bitmap = new byte[in.readInt()];
+			in.readFully(bitmap);
+
+			// The data the checkpoint covers must still be in the file
+			if(Files.size(Paths.get(localFile)) < offset)
+				return checkpoint;
+			checkpoint.size = size;
+			checkpoint.offset = offset;
+			checkpoint.blockSize = blockSize;
+			checkpoint.blocks = BitSet.valueOf(bitmap);
+		} catch(IOException e) {
+			// No checkpoint or a damaged one, the download starts over
+		}
+		return checkpoint;
+	}
+
+	/**
+	 * matches method
+	 * This method checks the checkpoint was taken for a file of the size the server
+	 * reports. Without a size the file cannot be told from another one, so an
+	 * unknown size never matches
+	 *
+	 * @param size The size from the tsize option, -1 if unknown
+	 *
+	 * @return true if the data of the checkpoint can be kept
+	 */
+	boolean matches(long size) {
+		return (size >= 0) && (size == this.size);
+	}
+
+	/**
+	 * reset method
+	 * This method drops the data of the checkpoint, the download starts over
+	 *
+	 * @param size The size of the file from the tsize option, -1 if unknown
+	 */
+	void reset(long size) {
+		this.size = size;
+		this.offset = 0;
+		this.blockSize = 0;
+		this.blocks.clear();
+	}
+
+	/**
+	 * blocks method
+	 * This method returns the blocks of a block size the checkpoint covers: the
+	 * blocks within the bytes written in order, and the blocks of the bitmap
+	 *
+	 * @param blockSize The block size of the transfer
+	 *
+	 * @return The blocks, block 1 is the first
+	 */
+	BitSet blocks(int blockSize) {
+		BitSet blocks = (blockSize == this.blockSize) ? (BitSet)this.blocks.clone() : new BitSet();
+		long complete = this.offset / blockSize;
+		if(complete > 0)
+			blocks.set(1,(int)complete + 1);
+		return blocks;
+	}
+
+	/**
+	 * save method
+	 * This method writes the checkpoint, replacing the one saved before
+	 *
+	 * @throws IOException
+	 */
+	void save() throws IOException {
+		Path temp = this.path.resolveSibling(this.path.getFileName() + ".tmp");
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+			byte[] bitmap = this.blocks.toByteArray();
+			out.writeInt(MAGIC);
+			out.writeUTF(this.remoteFile);
+			out.writeLong(this.size);
+			out.writeLong(this.offset);
+			out.writeInt(this.blockSize);
+			out.writeInt(bitmap.length);
+			out.write(bitmap);
+		}
+		Files.move(temp,this.path,StandardCopyOption.REPLACE_EXISTING,StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * delete method
+	 * This method removes the checkpoint once the download is complete
+	 */
+	void delete() {
+		try {
+			Files.deleteIfExists(this.path);
+		} catch(IOException e) {
+			// A checkpoint left behind only makes the next download of the file resume from it
+		}
+	}
+}
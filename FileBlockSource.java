@@ -0,0 +1,38 @@
+/*
+ * FileBlockSource.java
+ *
+ * Author: Shreyas Jayanna
+ *
+ */
+
+// import Statements
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+
+/**
+ * Class FileBlockSource
+ * This class reads the blocks of a file with positional FileChannel reads, so
+ * a transfer holds no more of the file in memory than the block being framed
+ */
+class FileBlockSource implements BlockSource {
+
+	FileChannel fileChannel;		// The file being sent
+
+	FileBlockSource(Path path) throws IOException {
+		this.fileChannel = FileChannel.open(path,StandardOpenOption.READ);
+	}
+
+	public long size() throws IOException {
+		return this.fileChannel.size();
+	}
+
+	public int read(ByteBuffer dst, long position) throws IOException {
+		return this.fileChannel.read(dst,position);
+	}
+
+	public void close() throws IOException {
+		this.fileChannel.close();
+	}
+}
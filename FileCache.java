@@ -0,0 +1,157 @@
+/*
+ * FileCache.java
+ *
+ * Author: Shreyas Jayanna
+ *
+ */
+
+// import Statements
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.util.*;
+
+/**
+ * Class FileCache
+ * This class keeps the contents of recently requested files in direct buffers,
+ * outside the Java heap, so the hot files of a boot server (pxelinux.0, kernels,
+ * initrds) are read from disk once and then served from memory to every client.
+ * Entries are keyed by path and checked against the size and modification time
+ * of the file on every open, a changed file is loaded again. The least recently
+ * used entries are evicted once the cache is over its capacity.
+ * Transfers share the buffer of an entry, nothing is copied per request
+ */
+class FileCache {
+
+	/**
+	 * Class Entry
+	 * The cached contents of one file
+	 */
+	static class Entry {
+		long size;			// The size of the file when it was loaded
+		long modified;			// The modification time of the file when it was loaded
+		ByteBuffer contents;		// The contents, null until loaded
+	}
+
+	LinkedHashMap<String,Entry> entries;	// The entries in least recently used order
+	long capacity;				// The maximum number of bytes cached
+	long maxFileSize;			// Larger files are not cached
+	long used;				// The number of bytes cached
+
+	long hits;				// Opens served from the cache
+	long misses;				// Opens that loaded the file
+
+	/**
+	 * FileCache method
+	 * This is the constructor of the class
+	 *
+	 * @param capacity    The maximum number of bytes cached
+	 * @param maxFileSize Larger files are not cached
+	 */
+	FileCache(long capacity, long maxFileSize) {
+		this.capacity = capacity;
+		this.maxFileSize = Math.min(maxFileSize,Integer.MAX_VALUE);
+		this.entries = new LinkedHashMap<String,Entry>(16,0.75f,true);
+	}
+
+	/**
+	 * open method
+	 * This method returns the contents of a file from the cache, loading it if it
+	 * is not cached or has changed. Concurrent opens of a file being loaded wait
+	 * for the load instead of reading the file again
+	 *
+	 * @param path The file
+	 *
+	 * @return The contents, or null if the file is too large to be cached
+	 *
+	 * @throws IOException
+	 */
+	BlockSource open(Path path) throws IOException {
+		BasicFileAttributes attributes = Files.readAttributes(path,BasicFileAttributes.class);
+		if(attributes.size() > this.maxFileSize)
+			return null;
+		long modified = attributes.lastModifiedTime().toMillis();
+		String key = path.toAbsolutePath().normalize().toString();
+
+		Entry entry;
+		synchronized(this) {
+			entry = this.entries.get(key);
+			if((entry != null) && ((entry.size != attributes.size()) || (entry.modified != modified))) {
+				// The file changed since it was loaded
+				this.remove(key);
+				entry = null;
+			}
+			if(entry == null) {
+				entry = new Entry();
+				entry.size = attributes.size();
+				entry.modified = modified;
+				this.entries.put(key,entry);
+				this.used += entry.size;
+				this.evict();
+				++this.misses;
+			} else
+				++this.hits;
+		}
+
+		synchronized(entry) {
+			if(entry.contents == null) {
+				try {
+					entry.contents = this.load(path,entry.size);
+				} catch(IOException e) {
+					synchronized(this) {
+						if(this.entries.get(key) == entry)
+							this.remove(key);
+					}
+					throw e;
+				}
+			}
+		}
+		return new BufferBlockSource(entry.contents);
+	}
+
+	/**
+	 * load method
+	 * This method reads a file into a direct buffer
+	 *
+	 * @param path The file
+	 * @param size The number of bytes to read
+	 *
+	 * @return The buffer, read only
+	 *
+	 * @throws IOException
+	 */
+	private ByteBuffer load(Path path, long size) throws IOException {
+		ByteBuffer contents = ByteBuffer.allocateDirect((int)size);
+		try(FileChannel fileChannel = FileChannel.open(path,StandardOpenOption.READ)) {
+			while(contents.hasRemaining() && (fileChannel.read(contents) > 0))
+				;
+		}
+		if(contents.hasRemaining())
+			throw new IOException(path + " changed while it was loaded");
+		contents.flip();
+		return contents.asReadOnlyBuffer();
+	}
+
+	/**
+	 * evict method
+	 * This method removes the least recently used entries until the cache fits
+	 * its capacity. The entry added last is always kept. Transfers still reading
+	 * an evicted entry keep its buffer until they are done
+	 */
+	private void evict() {
+		Iterator<Map.Entry<String,Entry>> eldest = this.entries.entrySet().iterator();
+		while((this.used > this.capacity) && (this.entries.size() > 1)) {
+			Entry entry = eldest.next().getValue();
+			this.used -= entry.size;
+			eldest.remove();
+		}
+	}
+
+	private void remove(String key) {
+		Entry entry = this.entries.remove(key);
+		if(entry != null)
+			this.used -= entry.size;
+	}
+}
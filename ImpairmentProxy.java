@@ -0,0 +1,262 @@
+/*
+ * ImpairmentProxy.java
+ *
+ * Author: Shreyas Jayanna
+ *
+ */
+
+// import Statements
+import java.net.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+
+/**
+ * Class ImpairmentProxy
+ * This class is a UDP proxy between TFTP clients and a server that makes the
+ * network between them bad on purpose: it drops, duplicates, reorders and delays
+ * packets with configurable probabilities. The random generator is seeded, so
+ * a run can be repeated.
+ * Clients send their requests to the proxy port. Every client gets its own
+ * upstream channel, so the server sees one TID per client, and everything the
+ * server answers is relayed from the proxy port. It watches the DATA packets it
+ * relays and counts the blocks that were sent before as retransmissions, which
+ * measures the retransmits of the sender whatever engine it runs.
+ * One thread runs all channels with a Selector, delayed packets wait in a queue
+ * ordered by due time
+ */
+class ImpairmentProxy implements Runnable {
+
+	/**
+	 * Class Flow
+	 * The traffic of one client: its address, the upstream channel and the server TID
+	 */
+	static class Flow {
+		SocketAddress client;			// The address of the client
+		DatagramChannel upstream;		// The channel to the server, its port is the client's TID for the server
+		SocketAddress serverTid;		// The address the server answers from, null until it answered
+		int[] highestData = { -1, -1 };		// The highest DATA block relayed per direction, -1 before the first
+		long lastActive;			// When the flow last relayed a packet, in ns
+	}
+
+	/**
+	 * Class Delayed
+	 * A packet waiting to be relayed
+	 */
+	static class Delayed {
+		long due;				// When the packet is relayed, in ns
+		long sequence;				// Keeps packets due at the same time in order
+		DatagramChannel channel;		// The channel to send the packet through
+		SocketAddress target;			// The address to send the packet to
+		ByteBuffer packet;			// The packet
+	}
+
+	double loss;				// Probability that a packet is dropped
+	double duplicate;			// Probability that a packet is relayed twice
+	double reorder;				// Probability that a packet is held back behind the next ones
+	long delay;				// Delay of every packet in ms
+	long jitter;				// Random extra delay of every packet in ms, at most
+	long reorderDelay = 5;			// Extra delay of a packet held back, in ms
+	long idleTimeout = 30000;		// Flows idle this long in ms are closed
+
+	DatagramChannel channel;		// The channel clients send to
+	SocketAddress server;			// The listening address of the server
+	Selector selector;
+	Map<SocketAddress,Flow> flows;		// The flows by client address
+	PriorityQueue<Delayed> delayed;		// The packets waiting to be relayed
+	Random random;
+	long sequence;
+	long lastSweep;				// When idle flows were last closed, in ns
+	volatile boolean running = true;
+
+	long relayed;				// Packets relayed, duplicates included
+	long dropped;				// Packets dropped
+	long duplicated;			// Packets relayed twice
+	long reordered;				// Packets held back
+	long[] dataRetransmits = new long[2];	// DATA blocks relayed again, to the server and to the clients
+
+	/**
+	 * ImpairmentProxy method
+	 * This is the constructor of the class, it binds the proxy port
+	 *
+	 * @param localPort The port clients send to, 0 for any free port
+	 * @param server    The listening address of the server
+	 * @param seed      The seed of the random generator
+	 *
+	 * @throws IOException
+	 */
+	ImpairmentProxy(int localPort, SocketAddress server, long seed) throws IOException {
+		this.server = server;
+		this.random = new Random(seed);
+		this.flows = new HashMap<SocketAddress,Flow>();
+		this.delayed = new PriorityQueue<Delayed>((a,b) -> a.due != b.due ?
+			Long.compare(a.due,b.due) : Long.compare(a.sequence,b.sequence));
+		this.selector = Selector.open();
+		this.channel = DatagramChannel.open();
+		this.channel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(),localPort));
+		this.channel.configureBlocking(false);
+		this.channel.register(this.selector,SelectionKey.OP_READ);
+	}
+
+	/**
+	 * getPort method
+	 *
+	 * @return The port clients send to
+	 */
+	int getPort() {
+		return this.channel.socket().getLocalPort();
+	}
+
+	public void run() {
+		ByteBuffer buffer = ByteBuffer.allocate(4 + TftpTransfer.MAX_BLOCK_SIZE);
+		try {
+			while(this.running) {
+				Delayed next = this.delayed.peek();
+				long wait = (next == null) ? 100 : Math.max(1,(next.due - System.nanoTime()) / 1000000);
+				this.selector.select(wait);
+
+				for(SelectionKey key : this.selector.selectedKeys()) {
+					DatagramChannel source = (DatagramChannel)key.channel();
+					while(true) {
+						buffer.clear();
+						SocketAddress from = source.receive(buffer);
+						if(from == null)
+							break;
+						buffer.flip();
+						if(source == this.channel)
+							this.fromClient(from,buffer);
+						else
+							this.fromServer((Flow)key.attachment(),from,buffer);
+					}
+				}
+				this.selector.selectedKeys().clear();
+
+				long now = System.nanoTime();
+				while(((next = this.delayed.peek()) != null) && (next.due <= now)) {
+					this.delayed.poll();
+					next.channel.send(next.packet,next.target);
+				}
+				if(now - this.lastSweep > 1000000000L)
+					this.sweep(now);
+			}
+		} catch(IOException e) {
+			System.out.println("Proxy error: " + e.getMessage());
+		} finally {
+			try {
+				this.channel.close();
+				for(Flow flow : this.flows.values())
+					flow.upstream.close();
+				this.selector.close();
+			} catch(IOException e) {
+			}
+		}
+	}
+
+	private void fromClient(SocketAddress client, ByteBuffer packet) throws IOException {
+		Flow flow = this.flows.get(client);
+		if(flow == null) {
+			flow = new Flow();
+			flow.client = client;
+			flow.upstream = DatagramChannel.open();
+			flow.upstream.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(),0));
+			flow.upstream.configureBlocking(false);
+			flow.upstream.register(this.selector,SelectionKey.OP_READ,flow);
+			this.flows.put(client,flow);
+		}
+
+		// A new request goes to the listening port, anything else to the TID of the transfer
+		int op = TftpPacket.opcode(packet);
+		if((op == TftpPacket.RRQ) || (op == TftpPacket.WRQ)) {
+			flow.serverTid = null;
+			flow.highestData[0] = -1;
+			flow.highestData[1] = -1;
+		}
+		flow.lastActive = System.nanoTime();
+		this.count(flow,0,packet);
+		this.impair(flow.upstream,flow.serverTid != null ? flow.serverTid : this.server,packet);
+	}
+
+	private void fromServer(Flow flow, SocketAddress from, ByteBuffer packet) throws IOException {
+		if(flow.serverTid == null)
+			flow.serverTid = from;
+		flow.lastActive = System.nanoTime();
+		this.count(flow,1,packet);
+		this.impair(this.channel,flow.client,packet);
+	}
+
+	/**
+	 * sweep method
+	 * This method closes the flows that were idle for the idle timeout, every
+	 * transfer of a client with a new TID makes a new flow
+	 */
+	private void sweep(long now) throws IOException {
+		this.lastSweep = now;
+		Iterator<Flow> flows = this.flows.values().iterator();
+		while(flows.hasNext()) {
+			Flow flow = flows.next();
+			if(now - flow.lastActive > this.idleTimeout * 1000000L) {
+				flow.upstream.close();
+				flows.remove();
+			}
+		}
+	}
+
+	/**
+	 * count method
+	 * This method counts a DATA packet as a retransmission if its block is not past
+	 * the highest block relayed in its direction
+	 */
+	private void count(Flow flow, int direction, ByteBuffer packet) {
+		if(TftpPacket.opcode(packet) != TftpPacket.DATA)
+			return;
+		int block = TftpPacket.block(packet);
+		int distance = (block - flow.highestData[direction]) & 0xFFFF;
+		if((flow.highestData[direction] < 0) || ((distance > 0) && (distance < 32768)))
+			flow.highestData[direction] = block;
+		else
+			++this.dataRetransmits[direction];
+	}
+
+	/**
+	 * impair method
+	 * This method drops, duplicates or delays a packet and queues what is relayed
+	 */
+	private void impair(DatagramChannel channel, SocketAddress target, ByteBuffer packet) {
+		if(this.random.nextDouble() < this.loss) {
+			++this.dropped;
+			return;
+		}
+		int copies = 1;
+		if(this.random.nextDouble() < this.duplicate) {
+			++this.duplicated;
+			copies = 2;
+		}
+		for(int i = 0; i < copies; ++i) {
+			long delay = this.delay + (this.jitter > 0 ? (long)(this.random.nextDouble() * this.jitter) : 0);
+			if(this.random.nextDouble() < this.reorder) {
+				++this.reordered;
+				delay += this.reorderDelay;
+			}
+
+			Delayed entry = new Delayed();
+			entry.due = System.nanoTime() + delay * 1000000L;
+			entry.sequence = this.sequence++;
+			entry.channel = channel;
+			entry.target = target;
+			entry.packet = ByteBuffer.allocate(packet.remaining());
+			entry.packet.put(packet.duplicate()).flip();
+			this.delayed.add(entry);
+			++this.relayed;
+		}
+	}
+
+	/**
+	 * close method
+	 * This method stops the proxy loop, which closes its channels on the way out
+	 */
+	void close() {
+		this.running = false;
+		this.selector.wakeup();
+	}
+}
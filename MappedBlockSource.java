@@ -0,0 +1,34 @@
+/*
+ * MappedBlockSource.java
+ *
+ * Author: Shreyas Jayanna
+ *
+ */
+
+// import Statements
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+
+/**
+ * Class MappedBlockSource
+ * This class sends a file from a read only memory mapping. The blocks are views
+ * of the mapping, so with a gathering send the file bytes go from the page cache
+ * to the socket without being copied into a Java buffer.
+ * A mapping is limited to 2 GB and is only released by the garbage collector,
+ * Java 17 has no way to unmap it explicitly
+ */
+class MappedBlockSource extends BufferBlockSource {
+
+	MappedBlockSource(Path path) throws IOException {
+		super(map(path));
+	}
+
+	private static ByteBuffer map(Path path) throws IOException {
+		// The mapping stays valid after the channel is closed
+		try(FileChannel fileChannel = FileChannel.open(path,StandardOpenOption.READ)) {
+			return fileChannel.map(FileChannel.MapMode.READ_ONLY,0,fileChannel.size());
+		}
+	}
+}
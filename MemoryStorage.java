@@ -0,0 +1,145 @@
+/*
+ * MemoryStorage.java
+ *
+ * Author: Shreyas Jayanna
+ *
+ */
+
+// import Statements
+import java.io.*;
+import java.nio.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.*;
+
+/**
+ * Class MemoryStorage
+ * This class keeps the files in memory, under their names relative to the root.
+ * It can be loaded from a directory when the server starts and filled by
+ * uploads, which are added once committed and count against the capacity.
+ * Files are sent as views of their buffers, which are shared and never change:
+ * a file is only ever added, not replaced
+ */
+class MemoryStorage implements Storage {
+
+	Map<String,ByteBuffer> files;		// The contents of the files by name, read only
+	long capacity;				// The maximum number of bytes stored
+	long used;				// The number of bytes stored
+
+	/**
+	 * MemoryStorage method
+	 * This is the constructor of the class
+	 *
+	 * @param capacity The maximum number of bytes stored
+	 */
+	MemoryStorage(long capacity) {
+		this.capacity = capacity;
+		this.files = new HashMap<String,ByteBuffer>();
+	}
+
+	/**
+	 * load method
+	 * This method adds the files of a directory and its subdirectories, the
+	 * names are relative to the directory
+	 *
+	 * @param directory The directory
+	 *
+	 * @throws IOException
+	 */
+	void load(Path directory) throws IOException {
+		try(Stream<Path> paths = Files.walk(directory)) {
+			for(Path path : (Iterable<Path>)paths.filter(Files::isRegularFile)::iterator) {
+				String name = directory.relativize(path).toString().replace(File.separatorChar,'/');
+				this.put(name,ByteBuffer.wrap(Files.readAllBytes(path)));
+			}
+		}
+	}
+
+	/**
+	 * put method
+	 * This method adds a file
+	 *
+	 * @param filename The filename
+	 * @param contents The contents, from the position to the limit
+	 *
+	 * @throws IOException if there is no room for it, or the file exists
+	 */
+	synchronized void put(String filename, ByteBuffer contents) throws IOException {
+		String name = Storage.normalize(filename);
+		if((name == null) || name.isEmpty())
+			throw new AccessDeniedException(filename);
+		if(this.files.containsKey(name))
+			throw new FileAlreadyExistsException(filename);
+		if(contents.remaining() > this.capacity - this.used)
+			throw new IOException("Storage full");
+		this.files.put(name,contents.slice().asReadOnlyBuffer());
+		this.used += contents.remaining();
+	}
+
+	public synchronized BlockSource open(String filename) throws IOException {
+		String name = Storage.normalize(filename);
+		ByteBuffer contents = (name == null) ? null : this.files.get(name);
+		if(contents == null)
+			throw new NoSuchFileException(filename);
+		return new BufferBlockSource(contents);
+	}
+
+	public synchronized Storage.Upload create(String filename) throws IOException {
+		String name = Storage.normalize(filename);
+		if((name == null) || name.isEmpty())
+			throw new AccessDeniedException(filename);
+		if(this.files.containsKey(name))
+			throw new FileAlreadyExistsException(filename);
+		return new MemoryUpload(name);
+	}
+
+	/**
+	 * Class MemoryUpload
+	 * An upload collected in a buffer that grows as the data comes in
+	 */
+	class MemoryUpload implements Storage.Upload {
+		String name;				// The name of the file
+		ByteBuffer contents;			// The data received
+
+		MemoryUpload(String name) {
+			this.name = name;
+			this.contents = ByteBuffer.allocate(64 * 1024);
+		}
+
+		public int write(ByteBuffer data) throws IOException {
+			int length = data.remaining();
+			if(length > this.usableSpace() - this.contents.position())
+				throw new IOException("Storage full");
+			if(length > this.contents.remaining()) {
+				long size = Math.max(2L * this.contents.capacity(),(long)this.contents.position() + length);
+				if(size > Integer.MAX_VALUE - 8)
+					throw new IOException("File too large for memory");
+				ByteBuffer grown = ByteBuffer.allocate((int)size);
+				grown.put(this.contents.flip());
+				this.contents = grown;
+			}
+			this.contents.put(data);
+			return length;
+		}
+
+		public void force() {
+		}
+
+		public void commit(boolean sync) throws IOException {
+			// The buffer grew by doubling, the file keeps only what it needs
+			this.contents.flip();
+			ByteBuffer file = ByteBuffer.allocate(this.contents.remaining());
+			MemoryStorage.this.put(this.name,file.put(this.contents).flip());
+		}
+
+		public long usableSpace() {
+			synchronized(MemoryStorage.this) {
+				return MemoryStorage.this.capacity - MemoryStorage.this.used;
+			}
+		}
+
+		public void close() {
+			this.contents = null;
+		}
+	}
+}
@@ -0,0 +1,193 @@
+/*
+ * NetasciiBlockSource.java
+ *
+ * Author: Shreyas Jayanna
+ *
+ */
+
+// import Statements
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+
+/**
+ * Class NetasciiBlockSource
+ * This class reads the blocks of a file sent in netascii mode (RFC 764, as used
+ * by RFC 1350): every LF of the file is sent as CR LF and every CR as CR NUL.
+ * The file is translated as it is read, a chunk of it at a time, so the source
+ * holds no more of it in memory than the chunk whatever its size.
+ * A position in the translated contents is a byte of the file and, when a block
+ * ends between the two bytes a CR or a LF turns into, which of them is next. The
+ * source remembers where each read ended and started, so the next block, and a
+ * window sent again after a loss, continue without going back to the start of
+ * the file. The translated size, needed for the tsize option and the last block,
+ * is the size of the file plus its CRs and LFs, counted chunk by chunk the first
+ * time it is asked for
+ */
+class NetasciiBlockSource implements BlockSource {
+
+	static final int CHUNK_SIZE = 8192;	// The bytes of the file read at once
+	static final int MARKS = 128;		// Read positions remembered, two windows of the largest size
+
+	BlockSource source;			// The file in its local form
+	long size = -1;				// The translated size, -1 until counted
+
+	byte[] chunk;				// Bytes of the file, reused for every read
+	ByteBuffer chunkBuffer;			// The chunk as a buffer, to read the file into
+	long chunkPosition;			// The file position of the chunk
+	int chunkLength;			// The bytes in the chunk
+
+	long position;				// The translated position the next read continues at
+	long filePosition;			// The byte of the file at that position
+	boolean half;				// True if the first byte of its translation was read already
+
+	long[] marks;				// Remembered translated positions, the file position and half of each
+	int nextMark;				// The mark replaced next
+
+	/**
+	 * NetasciiBlockSource method
+	 * This is the constructor of the class
+	 *
+	 * @param source The file in its local form
+	 */
+	NetasciiBlockSource(BlockSource source) {
+		this.source = source;
+		this.chunk = new byte[CHUNK_SIZE];
+		this.chunkBuffer = ByteBuffer.wrap(this.chunk);
+		this.chunkPosition = -1;
+		this.marks = new long[3 * MARKS];
+		Arrays.fill(this.marks,-1);
+	}
+
+	/**
+	 * size method
+	 * This method counts the translated size the first time it is called
+	 *
+	 * @return The translated size
+	 *
+	 * @throws IOException
+	 */
+	public long size() throws IOException {
+		if(this.size >= 0)
+			return this.size;
+		long size = 0;
+		long filePosition = 0;
+		while(this.fill(filePosition)) {
+			for(int i = 0; i < this.chunkLength; ++i) {
+				byte b = this.chunk[i];
+				size += ((b == '\n') || (b == '\r')) ? 2 : 1;
+			}
+			filePosition += this.chunkLength;
+		}
+		this.size = size;
+		return size;
+	}
+
+	public int read(ByteBuffer dst, long position) throws IOException {
+		if(position >= this.size())
+			return -1;
+		if(position != this.position)
+			this.seek(position);
+		this.mark();
+
+		int start = dst.position();
+		while(dst.hasRemaining()) {
+			if(!this.fill(this.filePosition))
+				break;
+			byte b = this.chunk[(int)(this.filePosition - this.chunkPosition)];
+			if(this.half) {
+				// The second byte of a CR LF or a CR NUL
+				dst.put((b == '\n') ? (byte)'\n' : 0);
+				this.half = false;
+				++this.filePosition;
+			} else if((b == '\n') || (b == '\r')) {
+				dst.put((byte)'\r');
+				this.half = true;
+			} else {
+				dst.put(b);
+				++this.filePosition;
+			}
+		}
+		int n = dst.position() - start;
+		this.position += n;
+		return n;
+	}
+
+	public void close() throws IOException {
+		this.source.close();
+	}
+
+	/**
+	 * mark method
+	 * This method remembers the position a read starts at
+	 */
+	private void mark() {
+		for(int i = 0; i < this.marks.length; i += 3) {
+			if(this.marks[i] == this.position)
+				return;
+		}
+		this.marks[this.nextMark] = this.position;
+		this.marks[this.nextMark + 1] = this.filePosition;
+		this.marks[this.nextMark + 2] = this.half ? 1 : 0;
+		this.nextMark = (this.nextMark + 3) % this.marks.length;
+	}
+
+	/**
+	 * seek method
+	 * This method moves to a translated position from the closest position
+	 * before it that is known, the start of the file if there is none
+	 *
+	 * @param position The translated position
+	 *
+	 * @throws IOException
+	 */
+	private void seek(long position) throws IOException {
+		if(this.position > position) {
+			this.position = 0;
+			this.filePosition = 0;
+			this.half = false;
+		}
+		for(int i = 0; i < this.marks.length; i += 3) {
+			if((this.marks[i] > this.position) && (this.marks[i] <= position)) {
+				this.position = this.marks[i];
+				this.filePosition = this.marks[i + 1];
+				this.half = (this.marks[i + 2] != 0);
+			}
+		}
+
+		// Translate without storing up to the position
+		while((this.position < position) && this.fill(this.filePosition)) {
+			byte b = this.chunk[(int)(this.filePosition - this.chunkPosition)];
+			if(!this.half && ((b == '\n') || (b == '\r'))) {
+				this.half = true;
+			} else {
+				this.half = false;
+				++this.filePosition;
+			}
+			++this.position;
+		}
+	}
+
+	/**
+	 * fill method
+	 * This method makes sure the chunk holds a byte of the file, it reads the
+	 * chunk starting at that byte if not
+	 *
+	 * @param filePosition The position of the byte in the file
+	 *
+	 * @return false at the end of the file
+	 *
+	 * @throws IOException
+	 */
+	private boolean fill(long filePosition) throws IOException {
+		if((filePosition >= this.chunkPosition) && (filePosition < this.chunkPosition + this.chunkLength))
+			return true;
+		this.chunkBuffer.clear();
+		while(this.chunkBuffer.hasRemaining() &&
+				(this.source.read(this.chunkBuffer,filePosition + this.chunkBuffer.position()) > 0))
+			;
+		this.chunkPosition = filePosition;
+		this.chunkLength = this.chunkBuffer.position();
+		return this.chunkLength > 0;
+	}
+}
@@ -0,0 +1,62 @@
+/*
+ * NetasciiDecoder.java
+ *
+ * Author: Shreyas Jayanna
+ *
+ */
+
+// import Statements
+import java.nio.*;
+
+/**
+ * Class NetasciiDecoder
+ * This class turns the data of a file received in netascii mode back into its
+ * local form as the blocks arrive: CR LF becomes LF and CR NUL becomes CR. A CR
+ * at the end of a block is held until the first byte of the next one tells
+ * what it stands for, a CR followed by anything else is kept as it is.
+ * Decoding never needs more room than the data plus the CR held
+ */
+class NetasciiDecoder {
+
+	boolean cr;				// True if the last byte decoded was a CR, held back
+
+	/**
+	 * decode method
+	 * This method decodes data into a buffer, as much of it as fits
+	 *
+	 * @param src The data received, its position is moved past the bytes decoded
+	 * @param dst The buffer the decoded bytes are put into
+	 */
+	void decode(ByteBuffer src, ByteBuffer dst) {
+		// A byte following a held CR decodes into up to two bytes, any other into one at most
+		while(src.hasRemaining() && (dst.remaining() >= (this.cr ? 2 : 1))) {
+			byte b = src.get();
+			if(this.cr) {
+				this.cr = false;
+				if(b == '\n') {
+					dst.put((byte)'\n');
+					continue;
+				}
+				dst.put((byte)'\r');
+				if(b == 0)
+					continue;
+			}
+			if(b == '\r')
+				this.cr = true;
+			else
+				dst.put(b);
+		}
+	}
+
+	/**
+	 * finish method
+	 * This method puts a CR held at the end of the file into a buffer
+	 *
+	 * @param dst The buffer, with room for a byte
+	 */
+	void finish(ByteBuffer dst) {
+		if(this.cr)
+			dst.put((byte)'\r');
+		this.cr = false;
+	}
+}
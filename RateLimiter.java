@@ -0,0 +1,246 @@
+/*
+ * RateLimiter.java
+ *
+ * Author: Shreyas Jayanna
+ *
+ */
+
+// import Statements
+import java.net.*;
+import java.util.*;
+
+/**
+ * Class RateLimiter
+ * This class limits the bandwidth of the DATA packets sent by the server with
+ * token buckets at three levels: one for the whole server, one per client IP
+ * address and one per transfer. A block is sent once every bucket it passes
+ * through holds its bytes; otherwise the transfer is told how long to wait and
+ * sends the rest of its window when its timer fires.
+ * Transfers waiting for a shared bucket are served shortest remaining first:
+ * a waiting transfer gets a virtual deadline of the time it started waiting plus
+ * its remaining bytes at the shared rate. The packet of the earliest deadline
+ * waiting for the global bucket, and of the earliest one of each client for the
+ * bucket of the client, is reserved there; any other transfer only takes tokens
+ * beyond it, so spare tokens are never left idle while the transfer ahead waits
+ * for its timer. Only the heads of the waiting sets are looked at, so a packet
+ * costs the same however many transfers wait. Small files overtake large ones,
+ * and a large transfer still gets its turn once the newcomers' deadlines are
+ * later than its own.
+ * The buckets of all transfers are guarded by the limiter, so a server without
+ * limits configured has no limiter and pays nothing
+ */
+class RateLimiter {
+
+	static final long BURST_TIME = 50;		// A bucket holds the tokens of this many ms, at least one packet
+
+	/**
+	 * Class TokenBucket
+	 * A bucket of byte tokens refilled at a fixed rate
+	 */
+	static class TokenBucket {
+		double rate;			// Tokens added per ns
+		double burst;			// The most tokens the bucket holds
+		double tokens;			// The tokens in the bucket
+		long updated;			// When the tokens were last refilled, in ns
+
+		TokenBucket(long bytesPerSecond, long now) {
+			this.rate = bytesPerSecond / 1e9;
+			this.burst = Math.max(bytesPerSecond * BURST_TIME / 1000.0,4 + TftpTransfer.MAX_BLOCK_SIZE);
+			this.tokens = this.burst;
+			this.updated = now;
+		}
+
+		/**
+		 * delay method
+		 * This method refills the bucket and tells how long until it holds a number of tokens
+		 *
+		 * @param bytes The tokens needed, at most the burst are waited for
+		 * @param now   The current time in ns
+		 *
+		 * @return The time to wait in ns, 0 if the tokens are there
+		 */
+		long delay(long bytes, long now) {
+			this.tokens = Math.min(this.burst,this.tokens + (now - this.updated) * this.rate);
+			this.updated = now;
+			double needed = Math.min(bytes,this.burst);
+			if(this.tokens >= needed)
+				return 0;
+			return (long)Math.ceil((needed - this.tokens) / this.rate);
+		}
+	}
+
+	/**
+	 * Class Client
+	 * The bucket shared by the transfers of one client IP address
+	 */
+	static class Client {
+		TokenBucket bucket;		// null without a per client limit
+		int transfers;			// The transfers of the client, it is dropped with the last one
+		TreeSet<Flow> waiting;		// The flows of the client waiting for a shared bucket, earliest deadline first
+	}
+
+	/**
+	 * Class Flow
+	 * The rate limiting state of one transfer
+	 */
+	static class Flow {
+		InetAddress address;		// The IP Address of the client
+		Client client;			// The client of the transfer
+		TokenBucket bucket;		// null without a per transfer limit
+		long id;			// Orders flows with the same deadline
+		long deadline;			// The virtual deadline while waiting, in ns
+		boolean waiting;		// True while in the waiting set
+		boolean shared;			// True if it waits for a shared bucket, then its packet is reserved there
+		int bytes;			// The size of the packet it waits for
+	}
+
+	TokenBucket global;			// The bucket of the server, null without a global limit
+	long clientRate;			// The limit per client IP address in bytes per second, 0 for none
+	long transferRate;			// The limit per transfer in bytes per second, 0 for none
+	double fairRate;			// The rate the virtual deadlines are computed at, in bytes per ns
+
+	Map<InetAddress,Client> clients;	// The clients with transfers running
+	TreeSet<Flow> waiting;			// The flows waiting for a shared bucket, earliest deadline first
+	long flows;				// The number of flows registered so far
+
+	/**
+	 * RateLimiter method
+	 * This is the constructor of the class
+	 *
+	 * @param globalRate   The limit of the server in bytes per second, 0 for none
+	 * @param clientRate   The limit per client IP address in bytes per second, 0 for none
+	 * @param transferRate The limit per transfer in bytes per second, 0 for none
+	 */
+	RateLimiter(long globalRate, long clientRate, long transferRate) {
+		if(globalRate > 0)
+			this.global = new TokenBucket(globalRate,System.nanoTime());
+		this.clientRate = clientRate;
+		this.transferRate = transferRate;
+		this.fairRate = ((globalRate > 0) ? globalRate : Math.max(clientRate,1)) / 1e9;
+		this.clients = new HashMap<InetAddress,Client>();
+		this.waiting = new TreeSet<Flow>(RateLimiter::compare);
+	}
+
+	/**
+	 * register method
+	 * This method creates the rate limiting state of a transfer
+	 *
+	 * @param address The IP Address of the client
+	 *
+	 * @return The flow of the transfer
+	 */
+	synchronized Flow register(InetAddress address) {
+		long now = System.nanoTime();
+		Client client = this.clients.get(address);
+		if(client == null) {
+			client = new Client();
+			if(this.clientRate > 0)
+				client.bucket = new TokenBucket(this.clientRate,now);
+			client.waiting = new TreeSet<Flow>(RateLimiter::compare);
+			this.clients.put(address,client);
+		}
+		++client.transfers;
+
+		Flow flow = new Flow();
+		flow.address = address;
+		flow.client = client;
+		flow.id = this.flows++;
+		if(this.transferRate > 0)
+			flow.bucket = new TokenBucket(this.transferRate,now);
+		return flow;
+	}
+
+	/**
+	 * unregister method
+	 * This method drops the state of a transfer once it is closed
+	 *
+	 * @param flow The flow of the transfer
+	 */
+	synchronized void unregister(Flow flow) {
+		if(flow.waiting) {
+			this.waiting.remove(flow);
+			flow.client.waiting.remove(flow);
+		}
+		if(--flow.client.transfers == 0)
+			this.clients.remove(flow.address);
+	}
+
+	/**
+	 * acquire method
+	 * This method takes the tokens of a packet from the buckets of a transfer, if
+	 * all of them hold enough besides the packet reserved by the transfer with the
+	 * earliest deadline, when that deadline is earlier than its own
+	 *
+	 * @param flow      The flow of the transfer
+	 * @param bytes     The size of the packet
+	 * @param remaining The bytes the transfer has left to send
+	 * @param now       The current time in ns
+	 *
+	 * @return 0 if the packet may be sent, otherwise the time to wait in ns
+	 */
+	synchronized long acquire(Flow flow, int bytes, long remaining, long now) {
+		// The packets reserved ahead of the flow, in the global bucket and in the bucket of its client
+		long deadline = flow.waiting ? flow.deadline : this.deadline(remaining,now);
+		long reservedGlobal = this.reserved(this.waiting,flow,deadline);
+		long reservedClient = this.reserved(flow.client.waiting,flow,deadline);
+
+		long own = (flow.bucket == null) ? 0 : flow.bucket.delay(bytes,now);
+		long shared = (this.global == null) ? 0 : this.global.delay(bytes + reservedGlobal,now);
+		if(flow.client.bucket != null)
+			shared = Math.max(shared,flow.client.bucket.delay(bytes + reservedClient,now));
+
+		if((own == 0) && (shared == 0)) {
+			if(this.global != null)
+				this.global.tokens -= bytes;
+			if(flow.client.bucket != null)
+				flow.client.bucket.tokens -= bytes;
+			if(flow.bucket != null)
+				flow.bucket.tokens -= bytes;
+			if(flow.waiting) {
+				this.waiting.remove(flow);
+				flow.client.waiting.remove(flow);
+				flow.waiting = false;
+			}
+			return 0;
+		}
+
+		// The deadline is fixed while the flow waits, the set is ordered by it
+		if((shared > 0) && !flow.waiting) {
+			flow.deadline = deadline;
+			flow.waiting = true;
+			this.waiting.add(flow);
+			flow.client.waiting.add(flow);
+		}
+		flow.shared = shared > 0;
+		flow.bytes = bytes;
+		return Math.max(own,shared);
+	}
+
+	/**
+	 * reserved method
+	 * This method returns the packet reserved in a bucket ahead of a flow: the one
+	 * of the earliest deadline waiting for it, if that deadline comes first
+	 *
+	 * @param waiting  The flows waiting for the bucket, earliest deadline first
+	 * @param flow     The flow asking for tokens
+	 * @param deadline The deadline of the flow
+	 *
+	 * @return The bytes reserved, 0 if none are
+	 */
+	private long reserved(TreeSet<Flow> waiting, Flow flow, long deadline) {
+		if(waiting.isEmpty())
+			return 0;
+		Flow head = waiting.first();
+		if(!head.shared || (head.deadline > deadline) || ((head.deadline == deadline) && (head.id >= flow.id)))
+			return 0;
+		return head.bytes;
+	}
+
+	private long deadline(long remaining, long now) {
+		return now + (long)(remaining / this.fairRate);
+	}
+
+	private static int compare(Flow a, Flow b) {
+		return (a.deadline != b.deadline) ? Long.compare(a.deadline,b.deadline) : Long.compare(a.id,b.id);
+	}
+}
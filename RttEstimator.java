@@ -0,0 +1,90 @@
+/*
+ * RttEstimator.java
+ *
+ * Author: Shreyas Jayanna
+ *
+ */
+
+/**
+ * Class RttEstimator
+ * This class estimates the round trip time of a transfer and derives the
+ * retransmission timeout from it, the way TCP does (RFC 6298): a smoothed round
+ * trip time and its variation are updated with every sample, the timeout is
+ * doubled on every expiry and samples of retransmitted packets are not taken
+ * (Karn's algorithm). It is used by both the server and the client
+ */
+class RttEstimator {
+
+	long srtt;				// Smoothed round trip time in microseconds, 0 before the first sample
+	long rttvar;				// Round trip time variation in microseconds
+	int timeout;				// The retransmission timeout in ms
+
+	int minTimeout;				// Lower bound of the timeout in ms
+	int maxTimeout;				// Upper bound of the timeout in ms
+	boolean fixed;				// True if the timeout was negotiated and must not adapt
+
+	/**
+	 * RttEstimator method
+	 * This is the constructor of the class
+	 *
+	 * @param initialTimeout The timeout in ms until the first sample is taken
+	 * @param minTimeout     Lower bound of the timeout in ms
+	 * @param maxTimeout     Upper bound of the timeout in ms
+	 */
+	RttEstimator(int initialTimeout, int minTimeout, int maxTimeout) {
+		this.minTimeout = minTimeout;
+		this.maxTimeout = maxTimeout;
+		this.timeout = Math.max(minTimeout,Math.min(maxTimeout,initialTimeout));
+	}
+
+	/**
+	 * sample method
+	 * This method updates the estimate with a measured round trip time
+	 *
+	 * @param rttNanos The round trip time in ns
+	 */
+	void sample(long rttNanos) {
+		if(this.fixed)
+			return;
+		long rtt = Math.max(1,rttNanos / 1000);
+		if(this.srtt == 0) {
+			this.srtt = rtt;
+			this.rttvar = rtt / 2;
+		} else {
+			this.rttvar = (3 * this.rttvar + Math.abs(this.srtt - rtt)) / 4;
+			this.srtt = (7 * this.srtt + rtt) / 8;
+		}
+		long rto = (this.srtt + 4 * this.rttvar + 999) / 1000;
+		this.timeout = (int)Math.max(this.minTimeout,Math.min(this.maxTimeout,rto));
+	}
+
+	/**
+	 * backoff method
+	 * This method doubles the timeout after it expired
+	 */
+	void backoff() {
+		if(!this.fixed)
+			this.timeout = Math.min(this.maxTimeout,this.timeout * 2);
+	}
+
+	/**
+	 * setFixed method
+	 * This method sets a timeout negotiated with the timeout option (RFC 2349),
+	 * which is used as is from then on
+	 *
+	 * @param timeout The timeout in ms
+	 */
+	void setFixed(int timeout) {
+		this.timeout = timeout;
+		this.fixed = true;
+	}
+
+	/**
+	 * getTimeout method
+	 *
+	 * @return The retransmission timeout in ms
+	 */
+	int getTimeout() {
+		return this.timeout;
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ * SocketTransport.java
+ *
+ * Author: Shreyas Jayanna
+ *
+ */
+
+// import Statements
+import java.net.*;
+import java.io.*;
+import java.nio.*;
+
+/**
+ * Class SocketTransport
+ * This class is the Transport over a DatagramSocket, with one send and one
+ * receive DatagramPacket reused for every datagram. Heap buffers are sent and
+ * received in place, direct buffers are copied through a byte array
+ */
+class SocketTransport implements Transport {
+
+	DatagramSocket socket;			// The socket
+	DatagramPacket sendPacket;		// The datagram sent, reused
+	DatagramPacket receivePacket;		// The datagram received, reused
+	byte[] buffer;				// Holds direct buffers while they are sent or received
+	int timeout;				// The timeout set on the socket
+	InetSocketAddress lastSender;		// The last sender, returned again while it does not change
+
+	SocketTransport(DatagramSocket socket) {
+		this.socket = socket;
+		this.buffer = new byte[4 + TftpTransfer.BLOCK_SIZE];
+		this.sendPacket = new DatagramPacket(this.buffer,0);
+		this.receivePacket = new DatagramPacket(this.buffer,0);
+	}
+
+	public void send(ByteBuffer packet, InetSocketAddress target) throws IOException {
+		int length = packet.remaining();
+		if(packet.hasArray()) {
+			this.sendPacket.setData(packet.array(),packet.arrayOffset() + packet.position(),length);
+		} else {
+			this.grow(length);
+			packet.get(this.buffer,0,length);
+			this.sendPacket.setData(this.buffer,0,length);
+		}
+		packet.position(packet.limit());
+		this.sendPacket.setSocketAddress(target);
+		this.socket.send(this.sendPacket);
+	}
+
+	public void send(ByteBuffer header, ByteBuffer data, InetSocketAddress target) throws IOException {
+		int headerLength = header.remaining();
+		int length = headerLength + data.remaining();
+		this.grow(length);
+		header.get(this.buffer,0,headerLength);
+		data.get(this.buffer,headerLength,length - headerLength);
+		this.sendPacket.setData(this.buffer,0,length);
+		this.sendPacket.setSocketAddress(target);
+		this.socket.send(this.sendPacket);
+	}
+
+	public InetSocketAddress receive(ByteBuffer dst, int timeout) throws IOException {
+		if(timeout != this.timeout) {
+			this.socket.setSoTimeout(timeout);
+			this.timeout = timeout;
+		}
+
+		dst.clear();
+		if(dst.hasArray()) {
+			this.receivePacket.setData(dst.array(),dst.arrayOffset(),dst.capacity());
+		} else {
+			this.grow(dst.capacity());
+			this.receivePacket.setData(this.buffer,0,dst.capacity());
+		}
+		try {
+			this.socket.receive(this.receivePacket);
+		} catch(SocketTimeoutException e) {
+			return null;
+		}
+		if(dst.hasArray())
+			dst.position(this.receivePacket.getLength());
+		else
+			dst.put(this.buffer,0,this.receivePacket.getLength());
+		dst.flip();
+
+		if((this.lastSender == null) || (this.lastSender.getPort() != this.receivePacket.getPort()) ||
+				!this.lastSender.getAddress().equals(this.receivePacket.getAddress()))
+			this.lastSender = new InetSocketAddress(this.receivePacket.getAddress(),this.receivePacket.getPort());
+		return this.lastSender;
+	}
+
+	private void grow(int length) {
+		if(length > this.buffer.length)
+			this.buffer = new byte[length];
+	}
+
+	public int getLocalPort() {
+		return this.socket.getLocalPort();
+	}
+
+	public void close() {
+		this.socket.close();
+	}
+}
@@ -0,0 +1,189 @@
+/*
+ * Storage.java
+ *
+ * Author: Shreyas Jayanna
+ *
+ */
+
+// import Statements
+import java.net.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.file.*;
+
+/**
+ * Interface Storage
+ * This interface is where the server reads the files it sends and writes the
+ * files it receives. The filenames are the ones of the requests. A missing file
+ * is a NoSuchFileException, a file the client may not read or write an
+ * AccessDeniedException and an upload of an existing file a
+ * FileAlreadyExistsException; the transfers answer them with the matching
+ * error packets.
+ * The implementations are a directory, optionally confined to a root
+ * (DirectoryStorage), files held in memory (MemoryStorage) and a read only ZIP
+ * or tar archive (ArchiveStorage). A ContentRouter in front of a store
+ * generates the files whose names match its routes
+ */
+interface Storage {
+
+	/**
+	 * open method
+	 * This method opens a file to be sent
+	 *
+	 * @param filename The requested filename
+	 *
+	 * @return The contents of the file
+	 *
+	 * @throws IOException
+	 */
+	BlockSource open(String filename) throws IOException;
+
+	/**
+	 * open method
+	 * This method opens a file to be sent to a client, the contents of a file
+	 * may depend on the client that asks for it
+	 *
+	 * @param filename The requested filename
+	 * @param client   The address of the client
+	 *
+	 * @return The contents of the file
+	 *
+	 * @throws IOException
+	 */
+	default BlockSource open(String filename, InetAddress client) throws IOException {
+		return this.open(filename);
+	}
+
+	/**
+	 * shared method
+	 * This method tells whether every client gets the same contents for a
+	 * filename, only then can it be sent to a multicast group
+	 *
+	 * @param filename The requested filename
+	 *
+	 * @return true if the contents do not depend on the client
+	 */
+	default boolean shared(String filename) {
+		return true;
+	}
+
+	/**
+	 * create method
+	 * This method starts the upload of a file, the file only appears under its
+	 * name once the upload is committed
+	 *
+	 * @param filename The requested filename
+	 *
+	 * @return The upload
+	 *
+	 * @throws IOException
+	 */
+	Upload create(String filename) throws IOException;
+
+	/**
+	 * Interface Upload
+	 * A file being received. Closing an upload that was not committed discards it
+	 */
+	interface Upload extends Closeable {
+
+		/**
+		 * write method
+		 * This method appends data to the file
+		 *
+		 * @param data The data
+		 *
+		 * @return The number of bytes written
+		 *
+		 * @throws IOException
+		 */
+		int write(ByteBuffer data) throws IOException;
+
+		/**
+		 * force method
+		 * This method syncs the data written so far to the storage device
+		 *
+		 * @throws IOException
+		 */
+		void force() throws IOException;
+
+		/**
+		 * commit method
+		 * This method puts the file in place under its name
+		 *
+		 * @param sync True to sync the file and its name to the storage device
+		 *
+		 * @throws IOException
+		 * @throws FileAlreadyExistsException if the file appeared in the meantime
+		 */
+		void commit(boolean sync) throws IOException;
+
+		/**
+		 * usableSpace method
+		 *
+		 * @return The number of bytes that can still be stored
+		 *
+		 * @throws IOException
+		 */
+		long usableSpace() throws IOException;
+	}
+
+	/**
+	 * normalize method
+	 * This method turns a requested filename into a name relative to the root of
+	 * a store: the separators are slashes, leading slashes and . are dropped and
+	 * .. removes the name before it
+	 *
+	 * @param filename The requested filename
+	 *
+	 * @return The name, or null if it leaves the root
+	 */
+	static String normalize(String filename) {
+		StringBuilder name = new StringBuilder();
+		for(String part : filename.replace('\\','/').split("/")) {
+			if(part.isEmpty() || part.equals("."))
+				continue;
+			if(part.equals("..")) {
+				if(name.length() == 0)
+					return null;
+				name.setLength(Math.max(0,name.lastIndexOf("/")));
+				continue;
+			}
+			if(name.length() > 0)
+				name.append('/');
+			name.append(part);
+		}
+		return name.toString();
+	}
+
+	/**
+	 * open method
+	 * This method creates a store from its description on the command line:
+	 * dir:path for a directory confined to path, memory or memory:path for files
+	 * held in memory, loaded from path if given, and archive:path for a ZIP or tar
+	 * archive
+	 *
+	 * @param spec   The description
+	 * @param config The server settings
+	 *
+	 * @return The store
+	 *
+	 * @throws IOException
+	 */
+	static Storage open(String spec, TftpServerConfig config) throws IOException {
+		int colon = spec.indexOf(':');
+		String kind = (colon < 0) ? spec : spec.substring(0,colon);
+		String path = (colon < 0) ? null : spec.substring(colon + 1);
+		if(kind.equals("dir") && (path != null))
+			return new DirectoryStorage(Paths.get(path),config);
+		if(kind.equals("memory")) {
+			// The files are on the Java heap, half of it is left for the rest of the server
+			MemoryStorage storage = new MemoryStorage(Runtime.getRuntime().maxMemory() / 2);
+			if(path != null)
+				storage.load(Paths.get(path));
+			return storage;
+		}
+		if(kind.equals("archive") && (path != null))
+			return new ArchiveStorage(Paths.get(path),config.blockCacheSize);
+		throw new IllegalArgumentException("Unknown storage " + spec);
+	}
+}
@@ -0,0 +1,69 @@
+/*
+ * Template.java
+ *
+ * Author: Shreyas Jayanna
+ *
+ */
+
+// import Statements
+import java.io.*;
+import java.util.*;
+
+/**
+ * Class Template
+ * This class is a text with ${name} variables, such as the pxelinux.cfg file of
+ * a device. It is split into its literal text and its variables once, rendering
+ * only appends the parts. A variable without a value renders as nothing and $$
+ * stands for a $
+ */
+class Template {
+
+	List<String> parts;			// Literal text and variable names, alternating, literal text first
+
+	/**
+	 * Template method
+	 * This is the constructor of the class, it splits the text into its parts
+	 *
+	 * @param text The text of the template
+	 */
+	Template(String text) {
+		this.parts = new ArrayList<String>();
+		StringBuilder literal = new StringBuilder();
+		int i = 0;
+		while(i < text.length()) {
+			char c = text.charAt(i);
+			if((c == '$') && text.startsWith("$$",i)) {
+				literal.append('$');
+				i += 2;
+			} else if((c == '$') && text.startsWith("${",i) && (text.indexOf('}',i) > 0)) {
+				int end = text.indexOf('}',i);
+				this.parts.add(literal.toString());
+				this.parts.add(text.substring(i + 2,end).trim());
+				literal.setLength(0);
+				i = end + 1;
+			} else {
+				literal.append(c);
+				++i;
+			}
+		}
+		this.parts.add(literal.toString());
+	}
+
+	/**
+	 * render method
+	 * This method writes the template with the values of its variables
+	 *
+	 * @param variables The values of the variables
+	 * @param out       Where the text is written to
+	 *
+	 * @throws IOException
+	 */
+	void render(Map<String,String> variables, Appendable out) throws IOException {
+		for(int i = 0; i < this.parts.size(); ++i) {
+			if((i & 1) == 0)
+				out.append(this.parts.get(i));
+			else
+				out.append(variables.getOrDefault(this.parts.get(i),""));
+		}
+	}
+}
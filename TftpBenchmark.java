@@ -0,0 +1,404 @@
+/*
+ * TftpBenchmark.java
+ *
+ * Author: Shreyas Jayanna
+ *
+ */
+
+// import Statements
+import java.net.*;
+import java.io.*;
+import java.lang.management.*;
+import java.nio.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Class TftpBenchmark
+ * This class measures the hot paths of the server and the client, so a change to
+ * an engine can be checked for regressions on any Linux box with a JDK.
+ * The codec benchmarks time request parsing, DATA framing and ACK encoding in a
+ * loop after a warmup. The transfer benchmarks run loopback downloads from an
+ * in-process server for every combination of engine, block size, file size and
+ * concurrency. Every benchmark reports throughput, and the transfers also report
+ * the p50/p99 latency of a transfer. The datagram benchmarks send windows of DATA
+ * sized packets over loopback through each transport and report packets per second.
+ * Allocation is read from the per thread allocation counters of the JVM, like the
+ * gc profiler of JMH does
+ * Usage: java TftpBenchmark [codec|datagram|transfer|all] [-seconds s] [-engine blocking|nio|both]
+ *        [-transport socket|channel|both] [-blksize list] [-size list] [-concurrency list]
+ *        [-transfers n]
+ */
+class TftpBenchmark {
+
+	static volatile long sink;		// Consumes the results of the codec benchmarks
+
+	double seconds = 2;			// Measurement time of a codec benchmark, the warmup is as long
+	String[] engines = { "blocking", "nio" };// The server engines to run transfers against
+	String[] transports = { "socket", "channel" };	// The transports of the blocking engine and the clients
+	int[] blockSizes = { 512, 1428, 8192 };	// The blksize options requested
+	long[] fileSizes = { 64 * 1024, 4 * 1024 * 1024 };	// The sizes of the files transferred
+	int[] concurrency = { 1, 8 };		// The numbers of clients downloading at the same time
+	int transfers = 20;			// Transfers per client and combination, after one warmup round
+
+	com.sun.management.ThreadMXBean threads;	// The allocation counters
+
+	TftpBenchmark() {
+		this.threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+	}
+
+	/**
+	 * Interface Operation
+	 * One invocation of a codec benchmark
+	 */
+	interface Operation {
+		long run();
+	}
+
+	/**
+	 * codec method
+	 * This method runs the codec benchmarks
+	 */
+	void codec() {
+		System.out.println(String.format("%-28s %14s %14s","Benchmark","ops/s","B/op"));
+
+		// A RRQ with the options a boot client sends
+		Map<String,String> options = new LinkedHashMap<String,String>();
+		options.put("blksize","1428");
+		options.put("tsize","0");
+		options.put("windowsize","8");
+		ByteBuffer request = TftpPacket.request(TftpPacket.RRQ,"pxelinux.cfg/01-52-54-00-12-34-56","octet",options);
+		this.measure("parseRequest",() -> {
+			request.rewind();
+			return TftpPacket.parseRequest(request).filename.length();
+		});
+
+		// Frame 1428 byte blocks of a cached file into a direct buffer, as TftpReadTransfer does
+		ByteBuffer contents = ByteBuffer.allocateDirect(1024 * 1024);
+		BlockSource source = new BufferBlockSource(contents);
+		ByteBuffer sendData = ByteBuffer.allocateDirect(4 + 1428);
+		long[] block = new long[1];
+		this.measure("dataFraming",() -> {
+			long position = (block[0]++ % 700) * 1428;
+			TftpPacket.putDataHeader(sendData,(int)block[0]);
+			try {
+				source.read(sendData,position);
+			} catch(IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			sendData.flip();
+			return sendData.remaining();
+		});
+
+		ByteBuffer ackData = ByteBuffer.allocate(4);
+		int[] ack = new int[1];
+		this.measure("ackEncoding",() -> TftpPacket.putAck(ackData,ack[0]++).remaining());
+	}
+
+	/**
+	 * measure method
+	 * This method runs a codec benchmark for the warmup time and the measurement time
+	 * and prints its throughput and allocation per operation
+	 *
+	 * @param name      The name of the benchmark
+	 * @param operation The operation
+	 */
+	private void measure(String name, Operation operation) {
+		long thread = Thread.currentThread().getId();
+		long duration = (long)(this.seconds * 1000000000L);
+		this.loop(operation,duration);
+
+		long allocated = this.threads.getThreadAllocatedBytes(thread);
+		long start = System.nanoTime();
+		long ops = this.loop(operation,duration);
+		long elapsed = System.nanoTime() - start;
+		allocated = this.threads.getThreadAllocatedBytes(thread) - allocated;
+
+		System.out.println(String.format("%-28s %14.0f %14.2f",name,ops * 1e9 / elapsed,(double)allocated / ops));
+	}
+
+	private long loop(Operation operation, long duration) {
+		long end = System.nanoTime() + duration;
+		long ops = 0;
+		long result = 0;
+		while(System.nanoTime() < end) {
+			// Check the clock every 1024 operations only
+			for(int i = 0; i < 1024; ++i)
+				result += operation.run();
+			ops += 1024;
+		}
+		sink = result;
+		return ops;
+	}
+
+	/**
+	 * datagram method
+	 * This method runs the datagram benchmarks: a sender sends windows of packets
+	 * to an echo thread that acknowledges the last packet of every window, like a
+	 * windowed download, for every transport, block size and window of 1 and 16
+	 *
+	 * @throws Exception
+	 */
+	void datagram() throws Exception {
+		System.out.println(String.format("%-9s %7s %7s %14s %12s","transport","blksize","window","packets/s",
+			"B/packet"));
+		for(String kind : this.transports)
+			for(int blockSize : this.blockSizes)
+				for(int window : new int[] { 1, 16 })
+					this.datagram(kind,blockSize,window);
+	}
+
+	private void datagram(String kind, int blockSize, int window) throws Exception {
+		try(Transport sender = Transport.open(kind,0); Transport receiver = Transport.open(kind,0)) {
+			InetSocketAddress target = new InetSocketAddress(InetAddress.getLoopbackAddress(),receiver.getLocalPort());
+			InetSocketAddress source = new InetSocketAddress(InetAddress.getLoopbackAddress(),sender.getLocalPort());
+			AtomicBoolean running = new AtomicBoolean(true);
+
+			// The echo thread acknowledges the last block of each window
+			Thread echo = new Thread(() -> {
+				ByteBuffer packet = ByteBuffer.allocate(4 + blockSize);
+				ByteBuffer ack = ByteBuffer.allocate(4);
+				try {
+					while(running.get()) {
+						if((receiver.receive(packet,100) != null) && (TftpPacket.block(packet) == window - 1))
+							receiver.send(TftpPacket.putAck(ack,window - 1),source);
+					}
+				} catch(IOException e) {
+					System.out.println("Echo error: " + e.getMessage());
+				}
+			},"bench-echo");
+			echo.start();
+
+			ByteBuffer data = ByteBuffer.allocateDirect(4 + blockSize);
+			ByteBuffer ack = ByteBuffer.allocate(4);
+			Operation operation = () -> {
+				try {
+					for(int block = 0; block < window; ++block) {
+						TftpPacket.putDataHeader(data,block);
+						data.position(data.limit());
+						sender.send(data.flip(),target);
+					}
+					// A lost window is given up after the timeout and the next one is sent
+					sender.receive(ack,100);
+				} catch(IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				return window;
+			};
+
+			long duration = (long)(this.seconds * 1000000000L);
+			this.loop(operation,duration);
+			long allocated = this.allocatedBytes();
+			long start = System.nanoTime();
+			long packets = this.loop(operation,duration) * window;
+			long elapsed = System.nanoTime() - start;
+			allocated = this.allocatedBytes() - allocated;
+
+			running.set(false);
+			echo.join();
+			System.out.println(String.format("%-9s %7d %7d %14.0f %12.2f",kind,blockSize,window,
+				packets * 1e9 / elapsed,(double)allocated / packets));
+		}
+	}
+
+	/**
+	 * transfer method
+	 * This method runs the transfer benchmarks against an in-process server of each engine
+	 *
+	 * @throws Exception
+	 */
+	void transfer() throws Exception {
+		Path directory = Files.createTempDirectory("tftp-bench");
+		System.out.println(String.format("%-9s %-9s %7s %9s %5s %12s %10s %10s %12s %12s","engine","transport",
+			"blksize","size","conc","MB/s","p50 ms","p99 ms","alloc MB/s","alloc B/xfer"));
+
+		for(String engine : this.engines) {
+			for(String transport : this.transports) {
+				int port = this.startServer(engine,transport);
+				for(long fileSize : this.fileSizes) {
+					Path file = directory.resolve("bench-" + fileSize + ".bin");
+					byte[] data = new byte[(int)fileSize];
+					new Random(fileSize).nextBytes(data);
+					Files.write(file,data);
+
+					for(int blockSize : this.blockSizes)
+						for(int clients : this.concurrency)
+							this.transfer(engine,transport,port,file,directory,blockSize,clients);
+				}
+			}
+		}
+	}
+
+	/**
+	 * startServer method
+	 * This method starts a server of the given engine on an ephemeral port
+	 *
+	 * @param engine    blocking or nio
+	 * @param transport The transport of the blocking engine sessions
+	 *
+	 * @return The port of the server
+	 *
+	 * @throws Exception
+	 */
+	private int startServer(String engine, String transport) throws Exception {
+		TftpServerConfig config = new TftpServerConfig();
+		config.transport = transport;
+		int port;
+		Callable<Void> serve;
+		if(engine.equals("nio")) {
+			TftpNioServer server = new TftpNioServer(0,Runtime.getRuntime().availableProcessors(),config);
+			port = server.channel.socket().getLocalPort();
+			serve = () -> { server.serve(); return null; };
+		} else {
+			TftpServer server = new TftpServer(0,config);
+			port = server.socket.getLocalPort();
+			serve = () -> { server.serve(); return null; };
+		}
+
+		Thread thread = new Thread(() -> {
+			try {
+				serve.call();
+			} catch(Exception e) {
+				System.out.println("Server error: " + e.getMessage());
+			}
+		},"bench-" + engine);
+		thread.setDaemon(true);
+		thread.start();
+		return port;
+	}
+
+	/**
+	 * transfer method
+	 * This method runs one combination: every client downloads the file a number of
+	 * times, one warmup round first, and the results are printed as one row
+	 *
+	 * @throws Exception
+	 */
+	private void transfer(String engine, String transport, int port, Path file, Path directory, int blockSize,
+			int clients) throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(clients);
+		try {
+			this.round(pool,transport,port,file,directory,blockSize,clients,1);
+
+			long allocated = this.allocatedBytes();
+			long start = System.nanoTime();
+			long[] latencies = this.round(pool,transport,port,file,directory,blockSize,clients,this.transfers);
+			long elapsed = System.nanoTime() - start;
+			allocated = this.allocatedBytes() - allocated;
+
+			Arrays.sort(latencies);
+			long bytes = Files.size(file) * latencies.length;
+			System.out.println(String.format("%-9s %-9s %7d %9d %5d %12.1f %10.2f %10.2f %12.1f %12d",engine,
+				transport,blockSize,Files.size(file),clients,bytes * 1e3 / elapsed,percentile(latencies,0.50) / 1e6,
+				percentile(latencies,0.99) / 1e6,allocated * 1e3 / elapsed,allocated / latencies.length));
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * round method
+	 * This method lets every client download the file a number of times
+	 *
+	 * @return The latency of every transfer in ns
+	 *
+	 * @throws Exception if a transfer failed
+	 */
+	private long[] round(ExecutorService pool, String transport, int port, Path file, Path directory,
+			int blockSize, int clients, int count) throws Exception {
+		List<Future<long[]>> results = new ArrayList<Future<long[]>>();
+		for(int c = 0; c < clients; ++c) {
+			String localFile = directory.resolve("client-" + c + ".bin").toString();
+			results.add(pool.submit(() -> {
+				long[] latencies = new long[count];
+				try(Transport client = Transport.open(transport,0)) {
+					for(int i = 0; i < count; ++i) {
+						TftpClientTransfer transfer = new TftpClientTransfer(client,InetAddress.getLoopbackAddress());
+						transfer.serverPort = port;
+						if(blockSize != TftpTransfer.BLOCK_SIZE)
+							transfer.requestedBlockSize = blockSize;
+						long start = System.nanoTime();
+						transfer.get(file.toString(),localFile);
+						latencies[i] = System.nanoTime() - start;
+					}
+				}
+				return latencies;
+			}));
+		}
+
+		long[] latencies = new long[clients * count];
+		for(int c = 0; c < clients; ++c)
+			System.arraycopy(results.get(c).get(),0,latencies,c * count,count);
+		return latencies;
+	}
+
+	/**
+	 * allocatedBytes method
+	 * This method sums the bytes allocated by all live threads, the server and client
+	 * threads are pooled so they live through a measurement
+	 *
+	 * @return The number of bytes
+	 */
+	private long allocatedBytes() {
+		long total = 0;
+		for(long allocated : this.threads.getThreadAllocatedBytes(this.threads.getAllThreadIds()))
+			if(allocated > 0)
+				total += allocated;
+		return total;
+	}
+
+	private static long percentile(long[] sorted, double fraction) {
+		int index = (int)Math.ceil(fraction * sorted.length) - 1;
+		return sorted[Math.max(0,Math.min(index,sorted.length - 1))];
+	}
+
+	private static int[] parseInts(String list) {
+		return Arrays.stream(list.split(",")).mapToInt(Integer::parseInt).toArray();
+	}
+
+	public static void main(String[] args) throws Exception {
+		TftpBenchmark benchmark = new TftpBenchmark();
+		String suite = "all";
+		for(int i = 0; i < args.length; ++i) {
+			if(!args[i].startsWith("-")) {
+				suite = args[i];
+				continue;
+			}
+			if(i + 1 >= args.length) {
+				System.out.println("Missing value for " + args[i]);
+				System.exit(1);
+			}
+			String value = args[++i];
+			if(args[i-1].equals("-seconds"))
+				benchmark.seconds = Double.parseDouble(value);
+			else if(args[i-1].equals("-engine"))
+				benchmark.engines = value.equals("both") ? new String[] { "blocking", "nio" } : new String[] { value };
+			else if(args[i-1].equals("-transport"))
+				benchmark.transports = value.equals("both") ? new String[] { "socket", "channel" } : new String[] { value };
+			else if(args[i-1].equals("-blksize"))
+				benchmark.blockSizes = parseInts(value);
+			else if(args[i-1].equals("-size"))
+				benchmark.fileSizes = Arrays.stream(value.split(",")).mapToLong(Long::parseLong).toArray();
+			else if(args[i-1].equals("-concurrency"))
+				benchmark.concurrency = parseInts(value);
+			else if(args[i-1].equals("-transfers"))
+				benchmark.transfers = Integer.parseInt(value);
+		}
+
+		if(suite.equals("codec") || suite.equals("all"))
+			benchmark.codec();
+		if(suite.equals("datagram") || suite.equals("all")) {
+			if(suite.equals("all"))
+				System.out.println();
+			benchmark.datagram();
+		}
+		if(suite.equals("transfer") || suite.equals("all")) {
+			if(suite.equals("all"))
+				System.out.println();
+			benchmark.transfer();
+		}
+		System.exit(0);
+	}
+}
@@ -12,6 +12,7 @@ import java.net.*;
 import java.io.*;
 import java.util.*;
 import java.nio.file.*;
+import java.util.concurrent.*;
 import java.net.UnknownHostException;
 
 /**
@@ -20,21 +21,42 @@ import java.net.UnknownHostException;
  * The commands implemented by this class are:
  * 	1 connect
  *	2 get
- *	3 quit
- * 	4 ?
- * This class supports OCTET mode only, for file transfers
+ *	3 put
+ *	4 quit
+ * 	5 blksize
+ * 	6 windowsize
+ * 	7 rollover
+ * 	8 timeout
+ * 	9 parallel
+ * 	10 tsize
+ * 	11 transport
+ * 	12 multicast
+ * 	13 resume
+ * 	14 mode
+ * 	15 ?
+ * Files are transferred in OCTET mode, or in NETASCII mode for text files
  */
 class TftpClient {
 
-	DatagramSocket socket;			// The datagram socket to connect to the server	
-	DatagramPacket sendPacket;		// The datagram packet used to send data
-	DatagramPacket receivePacket;		// The datagram packet used to receive data
+	TftpClientEngine engine;		// Runs the transfers
+	String transportKind = "loop";		// The kind of transport, loop, socket or channel
+	BufferedReader reader;			// Reads the commands from the standard input
 
 	InetAddress ipAddress;			// The IP Address of the server, to which the client connects to
 
 	int port;				// The port number of the client
 
-	Hashtable<Integer,String> errorCodes;	// Hashtable to store error codes
+	int requestedBlockSize;			// The blksize option sent with requests, 0 to send none
+	int requestedWindowSize;		// The windowsize option sent with requests, 0 to send none
+	int rollover;				// The block number following block 65535, 0 or 1
+	boolean requestRollover;		// True to send the rollover option with requests
+	int requestedTimeout;			// The timeout option in seconds sent with requests, 0 to send none
+	boolean requestSize = true;		// True to send the tsize option with requests
+	boolean requestMulticast;		// True to send the multicast option with downloads
+	boolean resume;				// True to resume downloads from the checkpoint of a failed attempt
+	boolean netascii;			// True to transfer in netascii mode
+
+	int parallel = 1;			// The number of files transferred at the same time
 
 	/**
 	 * TftpClient method
@@ -44,172 +66,140 @@ class TftpClient {
 	 */
 	TftpClient(int localPort) throws Exception{
 		this.port = localPort;
-		this.socket = new DatagramSocket(localPort);
-
-		this.errorCodes = new Hashtable<Integer,String>();	
-		this.setErrorCodes();
+		this.engine = new TftpClientEngine(1);
+		this.reader = new BufferedReader(new InputStreamReader(System.in));
 	}
 
 	/**
-	 * setErrorCodes method
-	 * This method stores the error codes in the hashtable
- 	 */
-	private void setErrorCodes() {
-		this.errorCodes.put(0,"Not defined, see error message (if any).");
-		this.errorCodes.put(1,"File not found.");
-		this.errorCodes.put(2,"Access violation.");
-		this.errorCodes.put(3,"Disk full or allocation exceeded.");
-		this.errorCodes.put(4,"Illegal TFTP operation.");
-		this.errorCodes.put(5,"Unknown transfer ID.");
-		this.errorCodes.put(6,"File already exists.");
-		this.errorCodes.put(7,"No such user.");
-	}
-
-	/**
-	 * terminateConnection method
-	 * This method closes the socket connection and opens a new connection
+	 * start method
+	 * This method starts the TFTP client, it reads and executes commands until
+	 * quit is entered or the input ends
 	 *
 	 * @throws Exception
-	 */
-	private void terminateConnection() throws Exception {
-		this.socket.close();				// Close current socket
-		this.socket = new DatagramSocket(this.port);	// Create new socket at the original port
-		this.start();
+ 	 */
+	private void start() throws Exception {
+		while(true) {
+			System.out.print("tftp> ");
+			String[] command = this.getCommand();
+			if(command == null)
+				return;			// End of the input, a script ends without quit
+			if(command[0].isEmpty())
+				continue;
+			if(!this.execute(command))
+				return;
+		}
 	}
 
 	/**
-	 * start method
-	 * This method starts the TFTP client
+	 * execute method
+	 * This method executes one command
+	 *
+	 * @param command The string array containing the command and its arguments
+	 *
+	 * @return false if the command is quit
 	 *
-	 * @throws IOException
 	 * @throws Exception
- 	 */
-	private void start() throws IOException, Exception {
-		System.out.print("tftp> ");
-
-		String[] command = this.getCommand(); 
-		String[] to = new String[2];
-
-		// If connect command is used without the hostname of the server, 
-		// prompt the user to enter the hostname 
-		if((command.length == 1) && (command[0].equals("connect"))) {
-			System.out.print("(to) ");
-			to = this.getCommand();
-			if(this.connect(to[0]))
-				this.request();
-			else
-				this.error(to[0] + ": unkown host");
-		} else if(command[0].equals("connect")) {
-			// If the hostname is provided with the connect command,
-			// check if it is a valid host and if not, restart the socket 
-			if(this.connect(command[1]))
-				this.request();
-			else
-				this.error(to[0] + ": unkown host");
+	 */
+	private boolean execute(String[] command) throws Exception {
+		if(command[0].equals("connect")) {
+			// If connect command is used without the hostname of the server,
+			// prompt the user to enter the hostname
+			String host = (command.length > 1) ? command[1] : null;
+			if(host == null) {
+				System.out.print("(to) ");
+				String[] to = this.getCommand();
+				if((to == null) || to[0].isEmpty())
+					return true;
+				host = to[0];
+			}
+			if(!this.connect(host))
+				System.out.println(host + ": unknown host");
 		} else if(command[0].equals("get")) {
-			// If the input is get command, invoke receiveFile method
-			this.receiveFile(command);
-		} else if(command[0].equals("quit"))
+			// If the input is get command, invoke transferFiles method
+			this.transferFiles(command,false);
+		} else if(command[0].equals("put")) {
+			// If the input is put command, invoke transferFiles method
+			this.transferFiles(command,true);
+		} else if(command[0].equals("parallel")) {
+			// If the command is parallel, set the number of files transferred at once
+			this.setParallel(command);
+		} else if(command[0].equals("blksize")) {
+			// If the command is blksize, set the block size to request
+			this.setBlockSize(command);
+		} else if(command[0].equals("windowsize")) {
+			// If the command is windowsize, set the window size to request
+			this.setWindowSize(command);
+		} else if(command[0].equals("rollover")) {
+			// If the command is rollover, set the block number following 65535
+			this.setRollover(command);
+		} else if(command[0].equals("timeout")) {
+			// If the command is timeout, set the timeout to request
+			this.setTimeout(command);
+		} else if(command[0].equals("tsize")) {
+			// If the command is tsize, turn the tsize option on or off
+			this.setSize(command);
+		} else if(command[0].equals("transport")) {
+			// If the command is transport, change the kind of transport
+			this.setTransport(command);
+		} else if(command[0].equals("multicast")) {
+			// If the command is multicast, turn the multicast option on or off
+			this.setMulticast(command);
+		} else if(command[0].equals("resume")) {
+			// If the command is resume, turn resumable downloads on or off
+			this.setResume(command);
+		} else if(command[0].equals("mode")) {
+			// If the command is mode, change the transfer mode
+			this.setMode(command);
+		} else if(command[0].equals("quit")) {
 			// If the command is quit, terminate the TFTP client program execution
-			System.exit(0);
-		else if(command[0].equals("?")) {
+			return false;
+		} else if(command[0].equals("?")) {
 			// If the command is ?, print help information
 			System.out.println("connect 	connect to remote tftp");
 			System.out.println("get     	receive file");
+			System.out.println("put     	send file");
+			System.out.println("blksize 	set block size to request");
+			System.out.println("windowsize	set window size to request");
+			System.out.println("rollover	set block number after 65535 (0 or 1)");
+			System.out.println("timeout 	set fixed retransmit timeout in seconds");
+			System.out.println("parallel	set number of files transferred at once");
+			System.out.println("tsize   	request transfer size (on or off)");
+			System.out.println("transport	set datagram transport (loop, socket or channel)");
+			System.out.println("multicast	receive files from a multicast group (on or off)");
+			System.out.println("resume  	resume failed downloads of the same size (on or off)");
+			System.out.println("mode    	set transfer mode (netascii or octet)");
 			System.out.println("quit    	exit tftp");
 			System.out.println("?       	print help information");
-			this.request();
 		} else {
 			// If the command is none of the above, print error message
 			System.out.println("Unrecognized command");
-			this.request();
 		}
+		return true;
 	}
 
 	/**
-	 * error method
-	 * This method prints the error message and terminates the socket connection
-	 * The socket is closed and started again at the same port number
-	 *
-	 * @param errorMsg The error message to be displayed to the user
-	 */
-	private void error(String errorMsg) throws Exception {
-		System.out.println(errorMsg);
-		this.terminateConnection();
-	}	
-
-	/**
-	 * request method
-	 * This method processes the commands entered by the user
-	 *
- 	 * @throws IOException
-	 * @throws Exception
- 	 */
-	private void request() throws IOException, Exception {
-		System.out.print("tftp> ");
-		String[] input = this.getCommand();
-		String[] to = new String[2];
-
-		// Keep asking for commands from the user till quit is entered
-		while(true) {
-			if(input[0].equals("get")) {
-				// If the command is get, invoke receiveFile method to process 
-				// the list and receive the file(s)
-				this.receiveFile(input);
-				System.out.print("tftp> ");
-				input = this.getCommand();
-			}
-			else if(input[0].equals("?")) {
-				// If the command is ?, print the help commands
-				System.out.println("connect 	connect to remote tftp");
-				System.out.println("get     	receive file");
-				System.out.println("quit    	exit tftp");
-				System.out.println("?       	print help information");
-		
-				System.out.print("tftp> ");
-				input = this.getCommand();
-			} 
-			else if(input[0].equals("quit")) {
-				// If the command is quit, terminate the execution of the TFTP client program
-				System.exit(0);
-			} else if((input.length == 1) && (input[0].equals("connect"))) {
-				// Process connect commands
-				System.out.print("(to) ");
-				to = this.getCommand();
-				if(this.connect(to[0]))
-					this.request();
-				else
-					this.error(to[0] + ": unkown host");
-			} else if(input[0].equals("connect")) {
-				if(this.connect(input[1]))
-					this.request();
-				else
-					this.error(to[0] + ": unkown host");
-			} else {
-				// Any other command(s) other than the ones specified above will
-				// be responded with an error message
-				System.out.println("Unrecognized command");
-				this.request();
-			}
-		}
-		
-	}
-
-	/**
-	 * receiveFile method
-	 * This method receives the list of files which are entered by the author and 
-	 * requests those files from the TFTP server
+	 * transferFiles method
+	 * This method receives the list of files which are entered by the user and 
+	 * requests those files from the TFTP server, or sends them to it.
+	 * The transfers are started with the engine, at most parallel files at the
+	 * same time, each with its own transport
 	 *
-	 * @param input The string array containing the filenames
+	 * @param input The string array containing the command and the filenames
+	 * @param put   True to send the files, false to receive them
 	 *
 	 * @throws IOException
 	 * @throws Exception
 	 */
-	private void receiveFile(String[] input) throws IOException, Exception {
+	private void transferFiles(String[] input, boolean put) throws IOException, Exception {
 		// If filenames are not mentioned, prompt the user to enter the file names
 		if(input.length == 1) {
 			System.out.print("(files) ");
-			input = this.getCommand();
+			String[] files = this.getCommand();
+			if((files == null) || files[0].isEmpty())
+				return;
+			input = new String[files.length + 1];
+			input[0] = put ? "put" : "get";
+			System.arraycopy(files,0,input,1,files.length);
 		}
 		// Get the file(s) list
 		String[] fileList = new String[input.length - 1];
@@ -218,6 +208,7 @@ class TftpClient {
 		if(this.ipAddress == null) {
 			String[] host_file = input[1].split(":");
 			if(!this.connect(host_file[0])) {
+				System.out.println(host_file[0] + ": unknown host");
 				return;
 			}
 		}
@@ -229,202 +220,284 @@ class TftpClient {
 			} else
 				fileList[i] = input[i+1];
 		}
-		// For each file, invoke get methdo to get file contents
-		int index = 0;
-		while(index < fileList.length) {
-			this.get(fileList[index++]);
+
+		long initialTime = System.currentTimeMillis();
+		TransferOptions options = this.transferOptions();
+		String host = this.ipAddress.getHostAddress();
+
+		// Start up to parallel transfers, each one that ends makes room for the next
+		Semaphore running = new Semaphore(this.parallel);
+		List<CompletableFuture<TransferResult>> results = new ArrayList<CompletableFuture<TransferResult>>();
+		for(String file : fileList) {
+			running.acquire();
+			CompletableFuture<TransferResult> result = put ? this.engine.put(host,file,file,options) :
+				this.engine.get(host,file,file,options);
+			results.add(result.whenComplete((transferred,e) -> {
+				System.out.println(e == null ? transferred.toString() : file + ": " + e.getMessage());
+				running.release();
+			}));
+		}
+
+		long numBytes = 0;
+		int transferred = 0;
+		for(CompletableFuture<TransferResult> result : results) {
+			try {
+				numBytes += result.join().bytes;
+				++transferred;
+			} catch(CompletionException e) {
+				// Reported when it failed
+			}
+		}
+
+		// With more than one file, report the aggregated throughput
+		if(fileList.length > 1) {
+			long totalTime = Math.max(1,System.currentTimeMillis() - initialTime);
+			System.out.println("Transferred " + numBytes + " bytes in " + totalTime + " ms (" +
+				transferred + " of " + fileList.length + " files, " + (numBytes / totalTime) + " kB/s)");
 		}
 	}
 
 	/**
-	 * get method
-	 * This method sends a RRQ request to the TFTP server to start the file transfer
-	 * 
-	 * @param file The filename
+	 * transferOptions method
+	 * This method collects the options set in the client for the transfers of a command.
+	 * One file at a time is sent from the client port, parallel files from any port
 	 *
-	 * @throws Exception
+	 * @return The options
 	 */
-	private void get(String file) throws Exception {
-
-		int port = 69; 				// TFTP server's port to receive TFTP requests
-
-		byte[] filename = file.getBytes(); 	// Extract filename to a byte array
-
-		String modeValue = "OCTET";		// Set mode as OCTET
-		
-		byte[] mode = modeValue.getBytes();	// Convert mode value to a byte array
-	
-		int filenameSize = filename.length;	
-		int modeSize = mode.length;
- 
-		int totalSize = 4 + filenameSize + modeSize; // Total size of the packet
-		
-		byte[] buffer = new byte[totalSize];	// Create a byte buffer of required length
-		
-		// Fill the byte buffer with RRQ request
-		Arrays.fill(buffer,0,1,(byte)0);
-		Arrays.fill(buffer,1,2,(byte)1);
-
-		for(int j = 0; j < filenameSize; ++j)
-			buffer[j+2] = filename[j];
-	
-		Arrays.fill(buffer,(2+filenameSize),(2+filenameSize+1),(byte)0);
-	
-		for(int j = 0; j < modeSize; ++j)
-			buffer[j+3+filenameSize] = mode[j];
-	
-		Arrays.fill(buffer,totalSize-1,totalSize,(byte)0);
+	private TransferOptions transferOptions() {
+		TransferOptions options = new TransferOptions();
+		options.blockSize = (this.requestedBlockSize == 0) ? 512 : this.requestedBlockSize;
+		options.windowSize = (this.requestedWindowSize == 0) ? 1 : this.requestedWindowSize;
+		options.rollover = this.rollover;
+		options.requestRollover = this.requestRollover;
+		options.timeout = this.requestedTimeout;
+		options.tsize = this.requestSize;
+		options.multicast = this.requestMulticast;
+		options.resume = this.resume;
+		options.netascii = this.netascii;
+		options.transport = this.transportKind;
+		options.localPort = (this.parallel <= 1) ? this.port : 0;
+		return options;
+	}
 
-		// Send the packet to the TFTP server
-		this.sendPacket = new DatagramPacket(buffer,buffer.length,this.ipAddress,port);	
-		this.socket.send(this.sendPacket);
+	/**
+	 * setParallel method
+	 * This method sets the number of files transferred at the same time
+	 *
+	 * @param input The string array containing the command and the number of files
+	 */
+	private void setParallel(String[] input) {
+		if(input.length == 1) {
+			System.out.println("Parallel: " + this.parallel);
+			return;
+		}
+		try {
+			int files = Integer.parseInt(input[1]);
+			if(files < 1) {
+				System.out.println("Parallel must be at least 1");
+				return;
+			}
+			this.parallel = files;
+		} catch(NumberFormatException e) {
+			System.out.println(input[1] + ": bad number of files");
+		}
+	}
 
-		// Receive the response from the server
-		if(!this.receiveContents(file)) {
-			this.socket.send(this.sendPacket);
-			if(!this.receiveContents(file))
-				this.terminateConnection();
+	/**
+	 * setBlockSize method
+	 * This method sets the block size requested with the blksize option (RFC 2348)
+	 * A block size of 512 sends no option at all
+	 *
+	 * @param input The string array containing the command and the block size
+	 */
+	private void setBlockSize(String[] input) {
+		if(input.length == 1) {
+			System.out.println("Block size: " + (this.requestedBlockSize == 0 ? 512 : this.requestedBlockSize));
+			return;
+		}
+		try {
+			int size = Integer.parseInt(input[1]);
+			if((size < 8) || (size > 65464)) {
+				System.out.println("Block size must be between 8 and 65464");
+				return;
+			}
+			this.requestedBlockSize = (size == 512) ? 0 : size;
+		} catch(NumberFormatException e) {
+			System.out.println(input[1] + ": bad block size");
 		}
 	}
 
 	/**
-	 * receiveContents method
-	 * This method receives the file data from the server
-	 * 
-	 * @param file The filename
+	 * setWindowSize method
+	 * This method sets the window size requested with the windowsize option (RFC 7440)
+	 * A window size of 1 sends no option at all
+	 *
+	 * @param input The string array containing the command and the window size
 	 */
-	private boolean receiveContents(String file) {
+	private void setWindowSize(String[] input) {
+		if(input.length == 1) {
+			System.out.println("Window size: " + (this.requestedWindowSize == 0 ? 1 : this.requestedWindowSize));
+			return;
+		}
 		try {
-			// Set timeout for the socket - 3000 ms
-			this.socket.setSoTimeout(3000);
-			byte[] buffer = new byte[516];
-			// receive the data packet from the server
-			this.receivePacket = new DatagramPacket(buffer,buffer.length);
-			this.socket.receive(this.receivePacket);
-	
-			byte[] receivedData = this.receivePacket.getData();
-			// Extract opcode form the receieved packet
-			int opcode = ((int)receivedData[0] << 8) | ((int) receivedData[1]);
-
-			if((opcode == 3) || (opcode == 4))
-				// If the opcode is data or ack, invoke getData method
-				this.getData(opcode,file);
-			if(opcode == 5) {
-				// If the received packet is an error message, extract error message and
-				// display it to the user and terminate the connection
-				int errorCode = ((int)receivedData[2] << 8) | ((int) receivedData[3]);
-				String errorMsg = this.errorCodes.get(errorCode);
-				byte[] errorByte = new byte[receivedData.length-5];
-				for(int i = 0; i < errorByte.length; ++i) {
-					errorByte[i] = receivedData[i+4];
-				}
-				String errorByteMsg = new String(errorByte);
-				this.error(errorCode + ": " + errorByteMsg);		
-			}	// Catch exceptions
-		} catch(SocketTimeoutException e) {
-			return false;		
-		} catch(SocketException e) {
-			return false;
-		} catch(Exception e) {
-			return false;
+			int size = Integer.parseInt(input[1]);
+			if((size < 1) || (size > 65535)) {
+				System.out.println("Window size must be between 1 and 65535");
+				return;
+			}
+			this.requestedWindowSize = (size == 1) ? 0 : size;
+		} catch(NumberFormatException e) {
+			System.out.println(input[1] + ": bad window size");
 		}
-		return true;
 	}
 
 	/**
-	 * getData method
-	 * This method receives the rest of the data packets and writes the file data into the file
+	 * setRollover method
+	 * This method sets the block number that follows block 65535
+	 * Once set, it is also sent to the server as the rollover option
 	 *
-	 * @param opcode The opcode received in the first packet from the server
-	 * @param file 	 The filename
+	 * @param input The string array containing the command and the block number
+	 */
+	private void setRollover(String[] input) {
+		if(input.length == 1) {
+			System.out.println("Rollover: " + this.rollover);
+			return;
+		}
+		if(!input[1].equals("0") && !input[1].equals("1")) {
+			System.out.println("Rollover must be 0 or 1");
+			return;
+		}
+		this.rollover = Integer.parseInt(input[1]);
+		this.requestRollover = true;
+	}
+
+	/**
+	 * setSize method
+	 * This method turns the tsize option (RFC 2349) on or off. With it the server
+	 * reports the size of a file before sending it, so the client can check the
+	 * free space and allocate the file at once
 	 *
-	 * @throws FileNotFoundException
-	 * @throws IOException
-	 * @throws Exception
+	 * @param input The string array containing the command and on or off
 	 */
-	private void getData(int opcode, String file) throws FileNotFoundException, IOException, Exception{
-		// Get current time to calculate transmission time
-		long initialTime = System.currentTimeMillis();	
-
-		int numBytes = 0;
-		// Create a file output stream to write to the file	
-		FileOutputStream fos = new FileOutputStream(file);
-		int prevBlockNum = 0;
-
-		// If the opcode is 3 - DATA packet, extract data and store it in file
-		if(opcode == 3) {
-			while(true) {
-				byte[] receivedData = this.receivePacket.getData();
-			
-				int blockNum = (int)( receivedData[2] << 8) | (receivedData[3] & 0xFF);
-
-				byte[] data = new byte[receivedData.length - 4];
-				System.arraycopy(receivedData, 4, data, 0, data.length);
-			
-				if(blockNum < 0)
-					fos.close();
-				// If this block number is previous block number + 1, store the data
-				if(blockNum == (prevBlockNum + 1)) {
-					fos.write(data);	 
-					numBytes += this.receivePacket.getLength() - 4;
-					this.sendAck(blockNum);		// Send ack for the the current data packet
-					++prevBlockNum;
-					if(this.receivePacket.getLength() < 516) {
-						// If this is the last data packet, close the file output stream
-						fos.close();
-						break;		
-					}
-				} else	// If this block number is not previous block number + 1, send an ack
-					// packet with previous block number
-					this.sendAck(prevBlockNum);
-				
-				try {
-					// Receive next packet from server
-					// Timeout is set at 3000 ms
-					byte[] buffer = new byte[516];
-					this.receivePacket = new DatagramPacket(buffer,buffer.length);
-					this.socket.setSoTimeout(3000);
-					this.socket.receive(this.receivePacket);
-					
-				} catch(SocketTimeoutException e) {
-					this.sendAck(blockNum);
-				} catch(SocketException e) {
-					this.terminateConnection();
-				}
-			}
+	private void setSize(String[] input) {
+		if(input.length == 1) {
+			System.out.println("Tsize: " + (this.requestSize ? "on" : "off"));
+			return;
 		}
-		
-		// Get current time
-		long finalTime = System.currentTimeMillis();
-		// Calculate total time
-		long totalTime = (long)(finalTime - initialTime);
-		System.out.println("Transferred " + numBytes + " bytes in " + totalTime + " ms");
+		if(!input[1].equals("on") && !input[1].equals("off")) {
+			System.out.println("Tsize must be on or off");
+			return;
+		}
+		this.requestSize = input[1].equals("on");
+	}
+
+	/**
+	 * setMulticast method
+	 * This method turns the multicast option (RFC 2090) on or off. With it many
+	 * clients getting the same file share the blocks the server sends to a
+	 * multicast group
+	 *
+	 * @param input The string array containing the command and on or off
+	 */
+	private void setMulticast(String[] input) {
+		if(input.length == 1) {
+			System.out.println("Multicast: " + (this.requestMulticast ? "on" : "off"));
+			return;
+		}
+		if(!input[1].equals("on") && !input[1].equals("off")) {
+			System.out.println("Multicast must be on or off");
+			return;
+		}
+		this.requestMulticast = input[1].equals("on");
 	}
 
 	/**
-	 * sendAck method
-	 * This method sends an ack packet for the received data packets
+	 * setResume method
+	 * This method turns resumable downloads on or off. A download then keeps a
+	 * checkpoint beside the file, and a failed download of the file continues
+	 * from it the next time. Only the size identifies the file on the server: a
+	 * server that does not report it is never resumed from, and a file replaced
+	 * by another one of the same size is not noticed
 	 *
- 	 * @param blockNum The block number that is being acknowledged
+	 * @param input The string array containing the command and on or off
+	 */
+	private void setResume(String[] input) {
+		if(input.length == 1) {
+			System.out.println("Resume: " + (this.resume ? "on" : "off"));
+			System.out.println("A download resumes only if the server reports the same size as before,");
+			System.out.println("a file replaced by one of the same size is not detected");
+			return;
+		}
+		if(!input[1].equals("on") && !input[1].equals("off")) {
+			System.out.println("Resume must be on or off");
+			return;
+		}
+		this.resume = input[1].equals("on");
+	}
+
+	/**
+	 * setMode method
+	 * This method changes the transfer mode. In netascii mode the line endings
+	 * of text files are translated to CR LF on the wire and back
 	 *
-	 * @throws Exception
+	 * @param input The string array containing the command and netascii or octet
 	 */
-	private void sendAck(int blockNum) throws Exception {
-		// Extract the IP Address and port number of the TFTP server
-		InetAddress toAddress = this.receivePacket.getAddress();
-		int toPort = this.receivePacket.getPort();
-		
-		// Creata a byte buffer for the ack information
-		byte[] buffer = new byte[4];
-		Arrays.fill(buffer,0,1,(byte)0);
-		Arrays.fill(buffer,1,2,(byte)4);
+	private void setMode(String[] input) {
+		if(input.length == 1) {
+			System.out.println("Mode: " + (this.netascii ? "netascii" : "octet"));
+			return;
+		}
+		if(!input[1].equals("netascii") && !input[1].equals("octet")) {
+			System.out.println("Mode must be netascii or octet");
+			return;
+		}
+		this.netascii = input[1].equals("netascii");
+	}
 
-		buffer[2] = (byte) (blockNum >> 8);
-		buffer[3] = (byte) blockNum;
+	/**
+	 * setTransport method
+	 * This method changes the kind of transport. The loop transport runs the
+	 * transfers on the event loop of the engine, the others give each transfer a
+	 * thread; the channel transport reads ahead the datagrams waiting after a
+	 * wakeup, which helps with large windows
+	 *
+	 * @param input The string array containing the command and loop, socket or channel
+	 */
+	private void setTransport(String[] input) {
+		if(input.length == 1) {
+			System.out.println("Transport: " + this.transportKind);
+			return;
+		}
+		if(!input[1].equals("loop") && !input[1].equals("socket") && !input[1].equals("channel")) {
+			System.out.println("Transport must be loop, socket or channel");
+			return;
+		}
+		this.transportKind = input[1];
+	}
 
-		// Send the ack packet
-		this.sendPacket = new DatagramPacket(buffer,buffer.length,toAddress,toPort);
-		this.socket.send(this.sendPacket);	
+	/**
+	 * setTimeout method
+	 * This method sets the timeout requested with the timeout option (RFC 2349)
+	 * Without it, the retransmit timeout adapts to the measured round trip time
+	 * A timeout of 0 goes back to the adaptive timeout
+	 *
+	 * @param input The string array containing the command and the timeout
+	 */
+	private void setTimeout(String[] input) {
+		if(input.length == 1) {
+			System.out.println("Timeout: " + (this.requestedTimeout == 0 ? "adaptive" : this.requestedTimeout + " s"));
+			return;
+		}
+		try {
+			int seconds = Integer.parseInt(input[1]);
+			if((seconds < 0) || (seconds > 255)) {
+				System.out.println("Timeout must be between 0 and 255 seconds (0 for adaptive)");
+				return;
+			}
+			this.requestedTimeout = seconds;
+		} catch(NumberFormatException e) {
+			System.out.println(input[1] + ": bad timeout");
+		}
 	}
 
 	/**
@@ -447,14 +520,15 @@ class TftpClient {
 	 * getCommand method
 	 * This method gets the user command and returns it as a string array
 	 *
-	 * @return String[] array containing the user command
+	 * @return String[] array containing the user command, null at the end of the input
 	 *
 	 * @throws IOException
 	 */
 	private String[] getCommand() throws IOException {
-		BufferedReader br = new BufferedReader(new InputStreamReader(System.in));
-		String input = br.readLine();
-		String[] command = input.split(" ");
+		String input = this.reader.readLine();
+		if(input == null)
+			return null;
+		String[] command = input.trim().split("\\s+");
 		return command;
 	}
 
@@ -481,6 +555,7 @@ class TftpClient {
 		TftpClient client = new TftpClient(port);
 		
 		client.start();
+		client.engine.close();
 	
 	}
 
@@ -0,0 +1,372 @@
+/*
+ * TftpClientEngine.java
+ *
+ * Author: Shreyas Jayanna
+ *
+ */
+
+// import Statements
+import java.net.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Class TftpClientEngine
+ * This class runs client transfers for a program that embeds the client. get and
+ * put start a transfer and return a future of its result at once. The transfers
+ * are driven by a few ClientLoop threads, like the sessions of the TftpNioServer:
+ * each loop multiplexes the non-blocking channels of its transfers with a
+ * Selector and keeps their retransmit timers in a TimerWheel, so one engine
+ * drives thousands of concurrent transfers with a handful of threads.
+ * Multicast downloads, and transfers asked to run on a socket or channel
+ * transport, run on a thread of their own.
+ * The futures are completed on the thread of the transfer; work done when one
+ * completes should be short or handed to another executor
+ */
+class TftpClientEngine implements Closeable {
+
+	static final long TICK = 10;		// Timer wheel resolution in ms
+	static final int WHEEL_SIZE = 512;	// Timer wheel buckets
+
+	ClientLoop[] loops;			// The selector loops
+	AtomicInteger next;			// The loop the next transfer is given to
+	ExecutorService threads;		// Runs the transfers that need a thread of their own
+
+	/**
+	 * TftpClientEngine method
+	 * This is the constructor of the class, it starts the loops
+	 *
+	 * @param loops The number of selector loops
+	 *
+	 * @throws IOException
+	 */
+	TftpClientEngine(int loops) throws IOException {
+		this.next = new AtomicInteger();
+		this.threads = Executors.newCachedThreadPool(task -> {
+			Thread thread = new Thread(task,"tftp-client-transfer");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		this.loops = new ClientLoop[loops];
+		for(int i = 0; i < loops; ++i) {
+			this.loops[i] = new ClientLoop();
+			Thread thread = new Thread(this.loops[i],"tftp-client-loop-" + i);
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	/**
+	 * get method
+	 * This method starts the download of a file
+	 *
+	 * @param host    The server, as name or name:port
+	 * @param remote  The filename on the server
+	 * @param local   The filename the file is stored under
+	 * @param options The options of the transfer
+	 *
+	 * @return The result, completed with the IOException if the transfer failed
+	 */
+	CompletableFuture<TransferResult> get(String host, String remote, String local, TransferOptions options) {
+		return this.transfer(1,host,remote,local,options);
+	}
+
+	/**
+	 * put method
+	 * This method starts the upload of a file
+	 *
+	 * @param host    The server, as name or name:port
+	 * @param remote  The filename the file is stored under on the server
+	 * @param local   The filename of the file to send
+	 * @param options The options of the transfer
+	 *
+	 * @return The result, completed with the IOException if the transfer failed
+	 */
+	CompletableFuture<TransferResult> put(String host, String remote, String local, TransferOptions options) {
+		return this.transfer(2,host,remote,local,options);
+	}
+
+	/**
+	 * transfer method
+	 * This method creates a transfer and hands it to a loop, or to a thread of its own
+	 *
+	 * @param opcode  1 for RRQ, 2 for WRQ
+	 * @param host    The server, as name or name:port
+	 * @param remote  The filename on the server
+	 * @param local   The filename of the local file
+	 * @param options The options of the transfer
+	 *
+	 * @return The result
+	 */
+	private CompletableFuture<TransferResult> transfer(int opcode, String host, String remote, String local,
+			TransferOptions options) {
+		CompletableFuture<TransferResult> future = new CompletableFuture<TransferResult>();
+
+		// The port follows the last colon, unless the host is an IPv6 address without one
+		int port = 69;
+		int colon = host.lastIndexOf(':');
+		if((colon > 0) && (host.indexOf(':') == colon)) {
+			try {
+				port = Integer.parseInt(host.substring(colon + 1));
+			} catch(NumberFormatException e) {
+				future.completeExceptionally(new IOException(host + ": bad port"));
+				return future;
+			}
+			host = host.substring(0,colon);
+		}
+		InetAddress address;
+		try {
+			address = InetAddress.getByName(host);
+		} catch(UnknownHostException e) {
+			future.completeExceptionally(new IOException(host + ": unknown host"));
+			return future;
+		}
+		options = options.copy();
+
+		// The group of a multicast download is received on the thread of the transfer
+		if(options.multicast || !options.transport.equals("loop")) {
+			String kind = options.transport.equals("loop") ? "channel" : options.transport;
+			int serverPort = port;
+			TransferOptions transferOptions = options;
+			this.threads.execute(() -> {
+				try(Transport transport = Transport.open(kind,transferOptions.localPort)) {
+					TftpClientTransfer transfer = new TftpClientTransfer(transport,address);
+					transfer.serverPort = serverPort;
+					transferOptions.apply(transfer);
+					if(opcode == 1)
+						transfer.get(remote,local);
+					else
+						transfer.put(remote,local);
+					future.complete(new TransferResult(remote,transfer));
+				} catch(IOException e) {
+					future.completeExceptionally(e);
+				} catch(Throwable e) {
+					// The caller waits on the future, it must complete whatever went wrong
+					future.completeExceptionally(new IOException("Transfer error: " + e,e));
+				}
+			});
+			return future;
+		}
+
+		Session session = new Session();
+		session.transfer = new TftpClientTransfer(session,address);
+		session.transfer.serverPort = port;
+		options.apply(session.transfer);
+		session.opcode = opcode;
+		session.remote = remote;
+		session.local = local;
+		session.localPort = options.localPort;
+		session.future = future;
+		this.loops[Math.floorMod(this.next.getAndIncrement(),this.loops.length)].register(session);
+		return future;
+	}
+
+	/**
+	 * close method
+	 * This method stops the loops, the transfers still running on them fail
+	 */
+	public void close() {
+		for(ClientLoop loop : this.loops) {
+			loop.closed = true;
+			loop.selector.wakeup();
+		}
+		this.threads.shutdown();
+	}
+
+	/**
+	 * Class Session
+	 * One transfer on a loop and its channel. The loop receives for the session,
+	 * the transfer only sends through it
+	 */
+	static class Session implements Runnable, DatagramSender {
+		TftpClientTransfer transfer;
+		int opcode;				// 1 for RRQ, 2 for WRQ
+		String remote;				// The filename on the server
+		String local;				// The filename of the local file
+		int localPort;				// The port the channel is bound to, 0 for any
+		CompletableFuture<TransferResult> future;
+		DatagramChannel channel;		// Not connected, the server answers from a new TID
+		SelectionKey key;
+		TimerWheel.Timeout timer;		// The retransmit timer, rearmed for every packet
+		ClientLoop loop;
+
+		Session() {
+			this.timer = new TimerWheel.Timeout();
+			this.timer.task = this;
+		}
+
+		/**
+		 * run method
+		 * This method is the retransmit timer task
+		 */
+		public void run() {
+			try {
+				this.transfer.timeout();
+			} catch(IOException e) {
+				this.transfer.fail(e);
+			} catch(RuntimeException e) {
+				this.transfer.fail(new IOException("Transfer error: " + e,e));
+			}
+			this.loop.update(this);
+		}
+
+		public void send(ByteBuffer packet, InetSocketAddress target) throws IOException {
+			// A datagram that does not fit in the send buffer is lost, the retransmit timer takes care of it
+			this.channel.send(packet,target);
+		}
+	}
+
+	/**
+	 * Class ClientLoop
+	 * A selector thread with its sessions and their timers
+	 */
+	static class ClientLoop implements Runnable {
+		Selector selector;
+		TimerWheel wheel;
+		Queue<Session> pending;			// Sessions handed over by the callers
+		ByteBuffer buffer;			// The receive buffer, shared by the sessions of the loop
+		java.util.function.Consumer<SelectionKey> reader;	// Reads the sessions selected, kept to select without allocating
+		volatile boolean closed;		// Set to stop the loop
+
+		ClientLoop() throws IOException {
+			this.selector = Selector.open();
+			this.wheel = new TimerWheel(TICK,WHEEL_SIZE,System.currentTimeMillis());
+			this.pending = new ConcurrentLinkedQueue<Session>();
+			this.buffer = ByteBuffer.allocateDirect(4 + TftpTransfer.MAX_BLOCK_SIZE);
+			this.reader = key -> this.read((Session)key.attachment());
+		}
+
+		/**
+		 * register method
+		 * This method hands a session to the loop, it may be called from any thread
+		 *
+		 * @param session The session to start
+		 */
+		void register(Session session) {
+			this.pending.add(session);
+			this.selector.wakeup();
+			if(this.closed)
+				this.drain();
+		}
+
+		public void run() {
+			while(!this.closed) {
+				try {
+					this.selector.select(this.reader,this.wheel.nextDelay(System.currentTimeMillis()));
+
+					Session session;
+					while((session = this.pending.poll()) != null)
+						this.open(session);
+
+					this.wheel.advance(System.currentTimeMillis());
+				} catch(IOException e) {
+					System.out.println("Client loop error: " + e.getMessage());
+				}
+			}
+			this.stop();
+		}
+
+		/**
+		 * stop method
+		 * This method fails the sessions of the loop once it is closed
+		 */
+		private void stop() {
+			this.drain();
+			for(SelectionKey key : this.selector.keys()) {
+				if(!key.isValid())
+					continue;
+				Session session = (Session)key.attachment();
+				session.transfer.fail(new IOException("Client engine closed"));
+				this.update(session);
+			}
+			try {
+				this.selector.close();
+			} catch(IOException e) {
+			}
+		}
+
+		/**
+		 * drain method
+		 * This method fails the sessions handed to the loop once it is closed
+		 */
+		private void drain() {
+			Session session;
+			while((session = this.pending.poll()) != null)
+				session.future.completeExceptionally(new IOException("Client engine closed"));
+		}
+
+		/**
+		 * open method
+		 * This method opens the channel (the TID) of a session and starts its transfer
+		 */
+		private void open(Session session) {
+			session.loop = this;
+			try {
+				session.channel = DatagramChannel.open();
+				session.channel.bind(new InetSocketAddress(session.localPort));
+				session.channel.configureBlocking(false);
+				session.key = session.channel.register(this.selector,SelectionKey.OP_READ,session);
+
+				session.transfer.start(session.opcode,session.remote,session.local);
+			} catch(IOException e) {
+				session.transfer.fail(e);
+			} catch(RuntimeException e) {
+				session.transfer.fail(new IOException("Transfer error: " + e,e));
+			}
+			this.update(session);
+		}
+
+		/**
+		 * read method
+		 * This method passes every packet waiting on a session channel to its transfer
+		 */
+		private void read(Session session) {
+			try {
+				while(!session.transfer.isDone()) {
+					this.buffer.clear();
+					InetSocketAddress from = (InetSocketAddress)session.channel.receive(this.buffer);
+					if(from == null)
+						break;
+					this.buffer.flip();
+					session.transfer.receive(from,this.buffer);
+				}
+			} catch(IOException e) {
+				session.transfer.fail(e);
+			} catch(RuntimeException e) {
+				// A bug in one transfer fails that transfer, not the loop and the others on it
+				session.transfer.fail(new IOException("Transfer error: " + e,e));
+			}
+			this.update(session);
+		}
+
+		/**
+		 * update method
+		 * This method rearms the retransmit timer of a session, or closes it and
+		 * completes its future once it is done
+		 */
+		void update(Session session) {
+			if(!session.transfer.isDone()) {
+				this.wheel.schedule(session.timer,session.transfer.getTimeout(),System.currentTimeMillis());
+				return;
+			}
+			session.timer.cancel();
+
+			if(session.key != null)
+				session.key.cancel();
+			try {
+				if(session.channel != null)
+					session.channel.close();
+			} catch(IOException e) {
+			}
+			if(session.transfer.failure != null)
+				session.future.completeExceptionally(session.transfer.failure);
+			else
+				session.future.complete(new TransferResult(session.remote,session.transfer));
+		}
+	}
+}
@@ -0,0 +1,1095 @@
+/*
+ * TftpClientTransfer.java
+ *
+ * Author: Shreyas Jayanna
+ *
+ */
+
+// import Statements
+import java.net.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Class TftpClientTransfer
+ * This class transfers one file between the client and a TFTP server.
+ * Each transfer has its own transport, so several of them can run at the same time,
+ * and the options requested are copied from the client settings when it is created.
+ * The receive buffer, the ACK packet and the DATA packet are allocated once per
+ * transfer and reused for every block.
+ * The protocol is a state machine like the TftpTransfer of the server: start sends
+ * the request, and every packet received and every expiry of the retransmit timer
+ * moves the transfer on. get and put drive it on the calling thread, the
+ * TftpClientEngine drives many of them from a few selector loops.
+ * With the multicast option (RFC 2090) a download receives the blocks from the
+ * multicast group the server names in its OACK. Only the master client
+ * acknowledges blocks; a client that joined late records the blocks it got and
+ * asks for the ones it missed once the server makes it master. The group is
+ * received on the calling thread.
+ * A resumed download keeps a DownloadCheckpoint beside the partial file. On the
+ * next attempt it asks the server to start at the offset of the checkpoint; if
+ * the server does not know the option, the blocks the file holds already are
+ * received again but not written.
+ * In netascii mode an upload is read through a NetasciiBlockSource and a
+ * download is decoded by a NetasciiDecoder as the blocks arrive in order. Such
+ * transfers are neither resumed nor received from a multicast group, their
+ * blocks would have to be decoded out of order
+ */
+class TftpClientTransfer {
+
+	static final int REQUEST = 0;		// The request is waiting for its response
+	static final int RECEIVING = 1;		// The data of a RRQ is being received
+	static final int SENDING = 2;		// The data of a WRQ is being sent
+	static final int MULTICAST = 3;		// The data of a RRQ comes from a multicast group
+	static final int DONE = 4;		// The transfer is over
+
+	DatagramSender sender;			// Sends the packets of the transfer, its port is our TID
+	Transport transport;			// Receives when the transfer runs on the calling thread, null on a loop
+	ByteBuffer buffer;			// The receive buffer when the transfer runs on the calling thread
+	ByteBuffer received;			// The packet last received, for decoding
+	ByteBuffer ackData;			// The ACK packet, reused for every acknowledgement
+
+	InetAddress ipAddress;			// The IP Address of the server
+	int serverPort = 69;			// TFTP server's port to receive TFTP requests
+	InetSocketAddress tid;			// The address and port (TID) the server answers the transfer from
+
+	boolean netascii;			// True to transfer in netascii mode
+	int blockSize = 512;			// The block size of the transfer
+	int requestedBlockSize;			// The blksize option sent with the request, 0 to send none
+	int windowSize = 1;			// The number of blocks per acknowledgement
+	int requestedWindowSize;		// The windowsize option sent with the request, 0 to send none
+	int rollover;				// The block number following block 65535, 0 or 1
+	boolean requestRollover;		// True to send the rollover option with the request
+	int requestedTimeout;			// The timeout option in seconds sent with the request, 0 to send none
+	boolean requestSize;			// True to send the tsize option with the request
+	long transferSize = -1;			// The size of the file from the tsize option, -1 if unknown
+	int writeBufferSize = 256 * 1024;	// Received data is written to the file in chunks of this size
+	boolean requestMulticast;		// True to send the multicast option with a RRQ
+	NetworkInterface multicastInterface;	// The interface to join the group on, null for the one toward the server
+	InetSocketAddress group;		// The multicast group from the OACK, null for a unicast transfer
+	boolean master;				// True while the server has made us the master client
+	boolean resume;				// True to resume a download from its checkpoint and keep one while it runs
+	long checkpointInterval = 4 * 1024 * 1024;	// Bytes written between checkpoints
+	DownloadCheckpoint checkpoint;		// The resume state of the download, null without resume
+	long offset;				// The byte of the file the server starts at, from the offset option
+
+	int opcode;				// RRQ or WRQ
+	String file;				// The filename on the server
+	String localFile;			// The filename of the local file
+	int state;				// Where the transfer is, REQUEST to DONE
+	ByteBuffer request;			// The request, sent again while there is no response
+	FileChannel fileChannel;		// The local file
+	long deadline;				// When the retransmit timer expires, in ns
+	int timeouts;				// Timeouts in a row, the transfer is abandoned after maxRetries
+	long sentTime;				// When the packet the next response answers was sent, 0 if not measured
+	IOException failure;			// Why the transfer failed, null unless it did
+	long startTime;				// When the transfer started, in ms
+
+	ByteBuffer writeBuffer;			// Data received in order, not yet written to the file
+	NetasciiDecoder decoder;		// Decodes the data of a netascii download, null in octet mode
+	long position;				// The file position the write buffer starts at
+	long skip;				// The file holds the data up to here already
+	int prevBlockNum;			// The block number of the last block received in order
+	int windowCount;			// Blocks received in order since the last ack
+	boolean lossReported;			// True once a gap in the current window was acknowledged
+
+	ByteBuffer sendData;			// The DATA packet being framed, reused for every block
+	BlockSource source;			// The file being sent, translated in netascii mode
+	long block;				// The first block of the window being sent
+	long lastBlock;				// The last block of the file being sent
+	boolean retransmitted;			// True if the window was sent again, its round trip is not measured
+
+	RttEstimator rtt;			// Round trip time and retransmit timeout of the transfer
+	int maxRetries = 5;			// Retransmissions before the transfer is abandoned
+
+	long numBytes;				// The number of bytes transferred
+	int retransmits;			// Packets sent again after a timeout
+	long totalTime;				// The duration of the transfer in ms
+
+	/**
+	 * TftpClientTransfer method
+	 * This is the constructor of the class
+	 *
+	 * @param socket    The socket to use for the transfer
+	 * @param ipAddress The IP Address of the server
+	 */
+	TftpClientTransfer(DatagramSocket socket, InetAddress ipAddress) {
+		this(new SocketTransport(socket),ipAddress);
+	}
+
+	/**
+	 * TftpClientTransfer method
+	 * This is the constructor of the class
+	 *
+	 * @param transport The transport to use for the transfer
+	 * @param ipAddress The IP Address of the server
+	 */
+	TftpClientTransfer(Transport transport, InetAddress ipAddress) {
+		this((DatagramSender)transport,ipAddress);
+		this.transport = transport;
+	}
+
+	/**
+	 * TftpClientTransfer method
+	 * This is the constructor of a transfer whose packets are received for it,
+	 * it is driven by start, receive and timeout only
+	 *
+	 * @param sender    Sends the packets of the transfer
+	 * @param ipAddress The IP Address of the server
+	 */
+	TftpClientTransfer(DatagramSender sender, InetAddress ipAddress) {
+		this.sender = sender;
+		this.ipAddress = ipAddress;
+		this.rtt = new RttEstimator(1000,50,10000);
+	}
+
+	/**
+	 * get method
+	 * This method sends a RRQ request to the TFTP server and receives the file
+	 *
+	 * @param file The filename, the file is stored under the same name
+	 *
+	 * @return The number of bytes received
+	 *
+	 * @throws IOException if the transfer failed, with the reason as message
+	 */
+	long get(String file) throws IOException {
+		return this.get(file,file);
+	}
+
+	/**
+	 * get method
+	 * This method sends a RRQ request to the TFTP server and stores the file under another name
+	 *
+	 * @param file      The filename on the server
+	 * @param localFile The filename the file is stored under
+	 *
+	 * @return The number of bytes received
+	 *
+	 * @throws IOException if the transfer failed, with the reason as message
+	 */
+	long get(String file, String localFile) throws IOException {
+		this.run(1,file,localFile);
+		return this.numBytes;
+	}
+
+	/**
+	 * put method
+	 * This method sends a WRQ request to the TFTP server and sends the file
+	 *
+	 * @param file The filename, the file is stored under the same name on the server
+	 *
+	 * @return The number of bytes sent
+	 *
+	 * @throws IOException if the transfer failed, with the reason as message
+	 */
+	long put(String file) throws IOException {
+		return this.put(file,file);
+	}
+
+	/**
+	 * put method
+	 * This method sends a WRQ request to the TFTP server and sends a local file under another name
+	 *
+	 * @param file      The filename the file is stored under on the server
+	 * @param localFile The filename of the file to send
+	 *
+	 * @return The number of bytes sent
+	 *
+	 * @throws IOException if the transfer failed, with the reason as message
+	 */
+	long put(String file, String localFile) throws IOException {
+		this.run(2,file,localFile);
+		return this.numBytes;
+	}
+
+	/**
+	 * run method
+	 * This method runs the transfer on the calling thread: it receives from the
+	 * transport until the retransmit timer expires and passes on what it got
+	 *
+	 * @param opcode    1 for RRQ, 2 for WRQ
+	 * @param file      The filename on the server
+	 * @param localFile The filename of the local file
+	 *
+	 * @throws IOException if the transfer failed, with the reason as message
+	 */
+	private void run(int opcode, String file, String localFile) throws IOException {
+		// The server never sends more than the block size we asked for, so one
+		// receive buffer serves the whole transfer
+		this.buffer = ByteBuffer.allocate(4 + Math.max(512,this.requestedBlockSize));
+		try {
+			this.start(opcode,file,localFile);
+			while((this.state != DONE) && (this.state != MULTICAST)) {
+				long remaining = (this.deadline - System.nanoTime() + 999999) / 1000000;
+				InetSocketAddress from = (remaining > 0) ? this.transport.receive(this.buffer,(int)remaining) : null;
+				if(from != null)
+					this.receive(from,this.buffer);
+				else if(System.nanoTime() - this.deadline >= 0)
+					this.timeout();
+			}
+			if(this.state == MULTICAST) {
+				this.getMulticast(this.localFile);
+				this.finish();
+			}
+		} catch(IOException e) {
+			this.fail(e);
+		}
+		if(this.failure != null)
+			throw this.failure;
+	}
+
+	/**
+	 * start method
+	 * This method sends the RRQ or WRQ with the options and arms the retransmit
+	 * timer, the request is sent again with a backed off timeout while there is
+	 * no response
+	 *
+	 * @param opcode    1 for RRQ, 2 for WRQ
+	 * @param file      The filename on the server
+	 * @param localFile The filename of the local file
+	 *
+	 * @throws IOException
+	 */
+	void start(int opcode, String file, String localFile) throws IOException {
+		String modeValue = this.netascii ? "NETASCII" : "OCTET";
+
+		this.opcode = opcode;
+		this.file = file;
+		this.localFile = localFile;
+		this.startTime = System.currentTimeMillis();
+		if((opcode == 1) && this.resume && !this.netascii) {
+			// A checkpoint is only trusted for a file of the size it was taken for
+			this.checkpoint = DownloadCheckpoint.load(localFile,file);
+			this.requestSize = true;
+		}
+		if(opcode == 2) {
+			// The tsize option announces the size, so the server can refuse an upload that does not fit
+			FileBlockSource local = new FileBlockSource(Paths.get(localFile));
+			this.fileChannel = local.fileChannel;
+			this.source = this.netascii ? new NetasciiBlockSource(local) : local;
+			this.transferSize = this.source.size();
+		}
+
+		// The request: opcode, filename, mode and options, each string terminated by a 0 byte
+		Map<String,String> options = new LinkedHashMap<String,String>();
+		if(this.requestedBlockSize != 0)
+			options.put("blksize",Integer.toString(this.requestedBlockSize));
+		if(this.requestedWindowSize != 0)
+			options.put("windowsize",Integer.toString(this.requestedWindowSize));
+		if(this.requestedTimeout != 0)
+			options.put("timeout",Integer.toString(this.requestedTimeout));
+		if(this.requestRollover)
+			options.put("rollover",Integer.toString(this.rollover));
+		if(this.requestSize)
+			options.put("tsize",Long.toString(Math.max(0,this.transferSize)));
+		if(this.requestMulticast && (opcode == 1) && !this.netascii)
+			options.put("multicast","");
+		if((this.checkpoint != null) && (this.checkpoint.offset > 0) && (opcode == 1))
+			options.put("offset",Long.toString(this.checkpoint.offset));
+		this.request = TftpPacket.request(opcode,file,modeValue,options);
+		this.ackData = ByteBuffer.allocate(4);
+
+		this.state = REQUEST;
+		this.sender.send(this.request.rewind(),new InetSocketAddress(this.ipAddress,this.serverPort));
+		this.sentTime = System.nanoTime();
+		this.arm();
+	}
+
+	/**
+	 * receive method
+	 * This method processes a packet received by the transport of the transfer.
+	 * The first packet from the server sets the TID of the transfer, packets from
+	 * any other TID are answered with an error packet and ignored
+	 *
+	 * @param from   The sender of the packet
+	 * @param packet The packet, only valid for the duration of the call
+	 *
+	 * @throws IOException if the transfer failed, with the reason as message
+	 */
+	void receive(InetSocketAddress from, ByteBuffer packet) throws IOException {
+		if(!this.fromServer(from))
+			return;
+		this.received = packet;
+
+		// If the received packet is an error message, it is thrown
+		this.checkError();
+		if(this.state == REQUEST)
+			this.response();
+		else if(this.state == RECEIVING)
+			this.receiveData();
+		else if(this.state == SENDING)
+			this.receiveAck();
+	}
+
+	/**
+	 * timeout method
+	 * This method is called when the retransmit timer expired. It sends the request,
+	 * the last acknowledgement or the window again with a backed off timeout
+	 *
+	 * @throws IOException if the transfer failed, with the reason as message
+	 */
+	void timeout() throws IOException {
+		if(++this.timeouts > this.maxRetries)
+			throw new IOException("Transfer timed out");
+		this.rtt.backoff();
+		++this.retransmits;
+		if(this.state == REQUEST) {
+			this.sender.send(this.request.rewind(),new InetSocketAddress(this.ipAddress,this.serverPort));
+		} else if(this.state == RECEIVING) {
+			// The last block received in order is acknowledged again so the server resends what is missing
+			this.sendAck(this.prevBlockNum);
+			this.windowCount = 0;
+		} else if(this.state == SENDING) {
+			this.sendWindow();
+			this.retransmitted = true;
+		}
+		this.sentTime = 0;
+		this.arm();
+	}
+
+	/**
+	 * isDone method
+	 *
+	 * @return true once the transfer is over
+	 */
+	boolean isDone() {
+		return this.state == DONE;
+	}
+
+	/**
+	 * getTimeout method
+	 *
+	 * @return The time left until the retransmit timer expires, in ms
+	 */
+	long getTimeout() {
+		return Math.max(0,(this.deadline - System.nanoTime() + 999999) / 1000000);
+	}
+
+	/**
+	 * arm method
+	 * This method sets the retransmit timer to the retransmit timeout from now
+	 */
+	private void arm() {
+		this.deadline = System.nanoTime() + this.rtt.getTimeout() * 1000000L;
+	}
+
+	/**
+	 * finish method
+	 * This method ends a transfer that succeeded
+	 */
+	private void finish() throws IOException {
+		this.state = DONE;
+		if(this.fileChannel != null)
+			this.fileChannel.close();
+		if(this.checkpoint != null)
+			this.checkpoint.delete();
+		this.totalTime = System.currentTimeMillis() - this.startTime;
+	}
+
+	/**
+	 * fail method
+	 * This method ends a transfer that failed. A resumed download keeps the data
+	 * received in order for the next attempt
+	 *
+	 * @param e Why the transfer failed
+	 */
+	void fail(IOException e) {
+		if(this.state == DONE)
+			return;
+		this.state = DONE;
+		this.failure = e;
+		if(this.fileChannel == null)
+			return;
+		try {
+			if((this.checkpoint != null) && (this.writeBuffer != null)) {
+				this.position = this.flush(this.fileChannel,this.writeBuffer,this.position);
+				this.saveCheckpoint(this.fileChannel,this.position,true);
+			}
+		} catch(IOException x) {
+			e.addSuppressed(x);
+		}
+		try {
+			this.fileChannel.close();
+		} catch(IOException x) {
+		}
+	}
+
+	/**
+	 * fromServer method
+	 * This method checks a packet comes from the TID of the transfer. The first
+	 * packet from the server sets the TID, packets from any other TID are answered
+	 * with an error packet
+	 *
+	 * @param from The sender of the packet
+	 *
+	 * @return true if the packet is from the server
+	 *
+	 * @throws IOException
+	 */
+	private boolean fromServer(InetSocketAddress from) throws IOException {
+		if(this.tid == null) {
+			if(!from.getAddress().equals(this.ipAddress))
+				return false;
+			this.tid = from;
+			return true;
+		}
+		if(from.equals(this.tid))
+			return true;
+
+		this.sender.send(TftpPacket.error(5,"Unknown transfer ID"),from);
+		return false;
+	}
+
+	/**
+	 * receive method
+	 * This method receives the next packet of the transfer within a timeout, for
+	 * a multicast download that runs on the calling thread.
+	 * The packet is received into the received buffer
+	 *
+	 * @param timeout The timeout in ms
+	 *
+	 * @return false on timeout
+	 *
+	 * @throws IOException
+	 */
+	private boolean receive(long timeout) throws IOException {
+		long deadline = System.nanoTime() + timeout * 1000000L;
+		while(true) {
+			long remaining = (deadline - System.nanoTime() + 999999) / 1000000;
+			if(remaining <= 0)
+				return false;
+			InetSocketAddress from = this.transport.receive(this.buffer,(int)remaining);
+			if(from == null)
+				return false;
+			if(this.fromServer(from)) {
+				this.received = this.buffer;
+				return true;
+			}
+		}
+	}
+
+	private int receivedOpcode() {
+		return TftpPacket.opcode(this.received);
+	}
+
+	private int receivedBlock() {
+		return TftpPacket.block(this.received);
+	}
+
+	/**
+	 * response method
+	 * This method handles the response to the request. An OACK is accepted; for a
+	 * RRQ it is acknowledged with block 0 and the first data packet follows, for
+	 * a WRQ it stands for the acknowledgement of block 0
+	 *
+	 * @throws IOException
+	 */
+	private void response() throws IOException {
+		if(this.sentTime != 0)
+			this.rtt.sample(System.nanoTime() - this.sentTime);
+		this.timeouts = 0;
+		int opcode = this.receivedOpcode();
+
+		if(this.opcode == 1) {
+			if(opcode == 6) {
+				// The server acknowledged our options, use them and acknowledge the OACK
+				// with block 0, the first data packet follows
+				this.acceptOptions();
+				this.checkResume();
+				this.checkSpace(this.localFile);
+				if(this.group != null) {
+					this.state = MULTICAST;
+					return;
+				}
+				this.openData();
+				this.sendAck(0);
+				this.sentTime = System.nanoTime();
+				this.arm();
+			} else if(opcode == 3) {
+				// Without options the size is unknown, no checkpoint is kept
+				this.checkResume();
+				this.openData();
+				this.receiveData();
+			} else {
+				this.sendError(4,"Illegal TFTP operation");
+				throw new IOException("Unexpected packet from server");
+			}
+			return;
+		}
+
+		if(opcode == 6) {
+			// The OACK stands for the acknowledgement of block 0
+			this.acceptOptions();
+		} else if((opcode != 4) || (this.receivedBlock() != 0)) {
+			this.sendError(4,"Illegal TFTP operation");
+			throw new IOException("Unexpected packet from server");
+		}
+		this.state = SENDING;
+		this.lastBlock = this.transferSize / this.blockSize + 1;
+		this.block = 1;
+		this.sendData = ByteBuffer.allocate(4 + this.blockSize);
+		this.sendWindow();
+		this.arm();
+	}
+
+	/**
+	 * acceptOptions method
+	 * This method reads the options of the OACK packet received and applies them
+	 * An unacceptable option is answered with ERROR 8 and thrown
+	 *
+	 * @throws IOException
+	 */
+	private void acceptOptions() throws IOException {
+		for(Map.Entry<String,String> option : TftpPacket.parseOptions(this.received).entrySet()) {
+			if(!this.acceptOption(option.getKey(),option.getValue())) {
+				this.sendError(8,"Unacceptable option value");
+				throw new IOException("Option negotiation failed");
+			}
+		}
+	}
+
+	private boolean acceptOption(String name, String value) {
+		try {
+			if(name.equals("blksize")) {
+				// The server may only lower the block size we asked for
+				int size = Integer.parseInt(value);
+				if((this.requestedBlockSize == 0) || (size < 8) || (size > this.requestedBlockSize))
+					return false;
+				this.blockSize = size;
+			} else if(name.equals("windowsize")) {
+				// The server may only lower the window size we asked for
+				int size = Integer.parseInt(value);
+				if((this.requestedWindowSize == 0) || (size < 1) || (size > this.requestedWindowSize))
+					return false;
+				this.windowSize = size;
+			} else if(name.equals("timeout")) {
+				// The server must agree with the timeout we asked for, it is used as is
+				if((this.requestedTimeout == 0) || !value.equals(Integer.toString(this.requestedTimeout)))
+					return false;
+				this.rtt.setFixed(this.requestedTimeout * 1000);
+			} else if(name.equals("tsize")) {
+				// The server reports the size of the file we get, or repeats the size we put
+				long size = Long.parseLong(value);
+				if(!this.requestSize || (size < 0) || ((this.transferSize >= 0) && (size != this.transferSize)))
+					return false;
+				this.transferSize = size;
+			} else if(name.equals("rollover")) {
+				// The server must agree with the rollover we asked for
+				if(!this.requestRollover || !value.equals(Integer.toString(this.rollover)))
+					return false;
+			} else if(name.equals("offset")) {
+				// The server resumes at the offset we asked for
+				if((this.checkpoint == null) || !value.equals(Long.toString(this.checkpoint.offset)))
+					return false;
+				this.offset = this.checkpoint.offset;
+			} else if(name.equals("multicast")) {
+				// The value is "address,port,mc", later OACKs may leave out the group
+				String[] fields = value.split(",",-1);
+				if(!this.requestMulticast || (fields.length != 3))
+					return false;
+				if((this.group == null) && !fields[0].isEmpty()) {
+					InetAddress address = InetAddress.getByName(fields[0]);
+					if(!address.isMulticastAddress())
+						return false;
+					this.group = new InetSocketAddress(address,Integer.parseInt(fields[1]));
+				}
+				if(this.group == null)
+					return false;
+				this.master = fields[2].equals("1");
+			} else
+				return false;	// We never ask for any other option
+		} catch(NumberFormatException | UnknownHostException e) {
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * checkResume method
+	 * This method keeps the checkpoint of an earlier attempt only if it was taken
+	 * for a file of the size the server reports now. A server that resumes at the
+	 * offset of a stale checkpoint is sent an error, the checkpoint is dropped and
+	 * the next attempt starts over; otherwise the download starts over right away.
+	 * A server that does not report the size gets no checkpoint at all, the next
+	 * attempt could not resume from it
+	 *
+	 * @throws IOException
+	 */
+	private void checkResume() throws IOException {
+		if((this.checkpoint == null) || this.checkpoint.matches(this.transferSize))
+			return;
+		if(this.offset > 0) {
+			this.checkpoint.delete();
+			this.sendError(8,"File changed since the checkpoint");
+			throw new IOException("File changed on the server since the checkpoint");
+		}
+		if(this.transferSize < 0) {
+			this.checkpoint.delete();
+			this.checkpoint = null;
+			return;
+		}
+		this.checkpoint.reset(this.transferSize);
+	}
+
+	/**
+	 * checkError method
+	 * This method throws the error of an ERROR packet received
+	 *
+	 * @throws IOException
+	 */
+	private void checkError() throws IOException {
+		if(this.receivedOpcode() != TftpPacket.ERROR)
+			return;
+		throw new IOException(this.receivedBlock() + ": " + TftpPacket.errorMessage(this.received));
+	}
+
+	/**
+	 * checkSpace method
+	 * This method refuses a download the server reported too large for the free
+	 * space of the target file system, before any data is sent
+	 *
+	 * @param file The filename the file is stored under
+	 *
+	 * @throws IOException
+	 */
+	private void checkSpace(String file) throws IOException {
+		if(this.transferSize <= 0)
+			return;
+		Path directory = Paths.get(file).toAbsolutePath().getParent();
+		if(this.transferSize > Files.getFileStore(directory).getUsableSpace()) {
+			this.sendError(3,"Disk full or allocation exceeded");
+			throw new IOException("Not enough space for " + this.transferSize + " bytes");
+		}
+	}
+
+	/**
+	 * openData method
+	 * This method opens the file of a download and extends it to the size reported
+	 * by the server, so the file system can allocate it at once. The received
+	 * data is collected in a buffer, no larger than the file, and written with
+	 * positional writes. When resuming, the data starts at the offset the server
+	 * accepted, or blocks the checkpoint covers are skipped
+	 *
+	 * @throws IOException
+	 */
+	private void openData() throws IOException {
+		this.state = RECEIVING;
+		this.fileChannel = this.openFile(this.localFile);
+		long size = (this.transferSize >= 0) ? this.transferSize - this.offset + 1 : this.writeBufferSize;
+		this.writeBuffer = ByteBuffer.allocateDirect((int)Math.max(this.blockSize,Math.min(this.writeBufferSize,size)));
+		this.position = this.offset;
+		this.skip = (this.checkpoint == null) ? 0 : this.checkpoint.offset;
+		if(this.netascii)
+			this.decoder = new NetasciiDecoder();
+		if(this.transferSize > 0)
+			this.fileChannel.write(ByteBuffer.allocate(1),this.transferSize - 1);
+	}
+
+	/**
+	 * receiveData method
+	 * This method handles a packet of a download. The next block in order is
+	 * stored, and the last block of a window and the last block of the file are
+	 * acknowledged; the file is cut to the bytes received at the end. The checkpoint
+	 * of a resumed download is saved as the data is written
+	 *
+	 * @throws IOException
+	 */
+	private void receiveData() throws IOException {
+		int blockNum = this.receivedBlock();
+		this.timeouts = 0;
+
+		// If this block number is previous block number + 1, store the data
+		// Block numbers are 16 bits, after 65535 they continue at the rollover value
+		int nextBlockNum = (this.prevBlockNum == 65535) ? this.rollover : this.prevBlockNum + 1;
+		if((this.receivedOpcode() == 3) && (blockNum == nextBlockNum)) {
+			// The first block of a window measures the round trip time of the ack before it
+			if(this.sentTime != 0) {
+				this.rtt.sample(System.nanoTime() - this.sentTime);
+				this.sentTime = 0;
+			}
+			int length = this.received.limit() - 4;
+			if((this.writeBuffer.position() == 0) && (this.position + length <= this.skip)) {
+				// The server started over, the block is in the file already
+				this.position += length;
+			} else if(this.decoder != null) {
+				// A CR held from the block before can add a byte, the buffer is written before it runs out
+				this.received.position(4);
+				while(this.received.hasRemaining()) {
+					if(this.writeBuffer.remaining() < 2)
+						this.position = this.flush(this.fileChannel,this.writeBuffer,this.position);
+					this.decoder.decode(this.received,this.writeBuffer);
+				}
+			} else {
+				if(this.writeBuffer.remaining() < length) {
+					this.position = this.flush(this.fileChannel,this.writeBuffer,this.position);
+					this.saveCheckpoint(this.fileChannel,this.position,false);
+				}
+				this.writeBuffer.put(this.received.position(4));
+			}
+			this.numBytes += length;
+			this.prevBlockNum = blockNum;
+			++this.windowCount;
+			this.lossReported = false;
+			boolean lastBlock = length < this.blockSize;
+			// Only the last block of a window, and the last block of the file, is acknowledged
+			if(lastBlock || (this.windowCount == this.windowSize)) {
+				this.sendAck(blockNum);		// Send ack for the the current data packet
+				this.sentTime = System.nanoTime();
+				this.windowCount = 0;
+			}
+			if(lastBlock) {
+				if(this.decoder != null) {
+					if(!this.writeBuffer.hasRemaining())
+						this.position = this.flush(this.fileChannel,this.writeBuffer,this.position);
+					this.decoder.finish(this.writeBuffer);
+				}
+				this.position = this.flush(this.fileChannel,this.writeBuffer,this.position);
+				this.fileChannel.truncate(this.position);
+				this.finish();
+				return;
+			}
+		} else if((this.windowSize == 1) || !this.lossReported) {
+			// If this block number is not previous block number + 1, send an ack
+			// packet with previous block number, the server resends the window after it.
+			// Within a window this is done once, the rest of the window is dropped
+			this.sendAck(this.prevBlockNum);
+			this.sentTime = 0;
+			this.windowCount = 0;
+			this.lossReported = true;
+		}
+		this.arm();
+	}
+
+	/**
+	 * getMulticast method
+	 * This method receives the blocks sent to the multicast group and writes each
+	 * one at its place in the file, the blocks received are kept in a bitmap. The
+	 * master acknowledges the block before the first one missing whenever a new
+	 * block arrives, so the server sends that one next. While the group is quiet
+	 * the OACKs and errors sent to our TID are read; an OACK can make us master.
+	 * Once every block is there the last one is acknowledged, which takes us out
+	 * of the session. A resumed download starts with the blocks of its checkpoint,
+	 * if the size of the file is known
+	 *
+	 * @param file The filename
+	 *
+	 * @throws IOException
+	 */
+	private void getMulticast(String file) throws IOException {
+		NetworkInterface networkInterface = this.multicastInterface;
+		if(networkInterface == null)
+			networkInterface = this.localInterface();
+		BitSet blocks = new BitSet();		// The blocks received
+		if((this.checkpoint != null) && (this.transferSize >= 0))
+			blocks = this.checkpoint.blocks(this.blockSize);
+		long count = blocks.cardinality();	// The number of blocks received
+		long lastBlock = (this.transferSize >= 0) ? this.transferSize / this.blockSize + 1 : 0;	// 0 until known
+		long size = this.transferSize;		// The size of the file, -1 until the last block arrives
+		long unsaved = 0;			// The bytes written since the last checkpoint
+		ByteBuffer data = ByteBuffer.allocate(4 + this.blockSize);
+
+		try(Transport groupTransport = ChannelTransport.multicastReceiver(this.group,networkInterface);
+				FileChannel fileChannel = this.openFile(file)) {
+			try {
+				if(this.transferSize > 0)
+					fileChannel.write(ByteBuffer.allocate(1),this.transferSize - 1);
+				if(this.master)
+					this.sendAck(blocks.nextClearBit(1) - 1);
+
+				int timeouts = 0;
+				while((lastBlock == 0) || (count < lastBlock)) {
+					InetSocketAddress from = groupTransport.receive(data,this.rtt.getTimeout());
+					if(from == null) {
+						// Nothing from the group, look for an OACK or an error, a master asks again.
+						// Others wait for the server to drop a master that is gone, the
+						// retries only count once the timeout has backed off to its limit
+						if((this.master || (this.rtt.getTimeout() >= this.rtt.maxTimeout)) && (++timeouts > this.maxRetries))
+							throw new IOException("Transfer timed out");
+						this.rtt.backoff();
+						if(this.pollServer(blocks))
+							timeouts = 0;
+						else if(this.master) {
+							++this.retransmits;
+							this.sendAck(blocks.nextClearBit(1) - 1);
+						}
+						continue;
+					}
+
+					// Blocks of the session come from its TID, blocks of a file with a known size are ignored past its end
+					int blockNum = TftpPacket.block(data);
+					if(!from.equals(this.tid) || (TftpPacket.opcode(data) != 3) || (blockNum < 1) ||
+							((lastBlock != 0) && (blockNum > lastBlock)))
+						continue;
+					timeouts = 0;
+					if(blocks.get(blockNum))
+						continue;
+
+					int length = data.limit() - 4;
+					long position = (long)(blockNum - 1) * this.blockSize;
+					data.position(4);
+					while(data.hasRemaining())
+						position += fileChannel.write(data,position);
+					blocks.set(blockNum);
+					++count;
+					this.numBytes += length;
+					if(length < this.blockSize) {
+						lastBlock = blockNum;
+						size = position;
+					}
+					if(this.master && ((lastBlock == 0) || (count < lastBlock)))
+						this.sendAck(blocks.nextClearBit(1) - 1);
+					if((this.checkpoint != null) && ((unsaved += length) >= this.checkpointInterval)) {
+						this.saveCheckpoint(fileChannel,blocks);
+						unsaved = 0;
+					}
+				}
+				fileChannel.truncate(size);
+			} catch(IOException e) {
+				// Keep the blocks received for the next attempt
+				if(this.checkpoint != null) {
+					try {
+						this.saveCheckpoint(fileChannel,blocks);
+					} catch(IOException x) {
+						e.addSuppressed(x);
+					}
+				}
+				throw e;
+			}
+
+			// The last block acknowledged takes us out of the session, the master
+			// acknowledges it again if the server sends it again
+			this.sendAck((int)lastBlock);
+			if(this.master) {
+				InetSocketAddress from;
+				while((from = groupTransport.receive(data,this.rtt.getTimeout())) != null) {
+					if(from.equals(this.tid) && (TftpPacket.opcode(data) == 3) && (TftpPacket.block(data) == lastBlock))
+						this.sendAck((int)lastBlock);
+					else
+						break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * openFile method
+	 * This method opens the file a download is stored in. A resumed download keeps
+	 * the data of the file, any other download truncates it
+	 *
+	 * @param file The filename
+	 *
+	 * @return The file
+	 *
+	 * @throws IOException
+	 */
+	private FileChannel openFile(String file) throws IOException {
+		if(this.checkpoint != null)
+			return FileChannel.open(Paths.get(file),StandardOpenOption.CREATE,StandardOpenOption.WRITE);
+		return FileChannel.open(Paths.get(file),StandardOpenOption.CREATE,StandardOpenOption.WRITE,
+			StandardOpenOption.TRUNCATE_EXISTING);
+	}
+
+	/**
+	 * saveCheckpoint method
+	 * This method saves the bytes written in order from the start of the file once
+	 * a checkpoint interval has passed since the last checkpoint, or always if
+	 * asked to. The data is forced to the file first
+	 *
+	 * @param fileChannel The file
+	 * @param written     The bytes written in order
+	 * @param always      True to save it before the interval has passed
+	 *
+	 * @throws IOException
+	 */
+	private void saveCheckpoint(FileChannel fileChannel, long written, boolean always) throws IOException {
+		if((this.checkpoint == null) || (written <= this.checkpoint.offset) ||
+				(!always && (written - this.checkpoint.offset < this.checkpointInterval)))
+			return;
+		fileChannel.force(false);
+		this.checkpoint.offset = written;
+		this.checkpoint.save();
+	}
+
+	/**
+	 * saveCheckpoint method
+	 * This method saves the blocks a multicast download has written, the data is
+	 * forced to the file first
+	 *
+	 * @param fileChannel The file
+	 * @param blocks      The blocks written
+	 *
+	 * @throws IOException
+	 */
+	private void saveCheckpoint(FileChannel fileChannel, BitSet blocks) throws IOException {
+		fileChannel.force(false);
+		this.checkpoint.blockSize = this.blockSize;
+		this.checkpoint.blocks = blocks;
+		this.checkpoint.offset = (long)(blocks.nextClearBit(1) - 1) * this.blockSize;
+		this.checkpoint.save();
+	}
+
+	/**
+	 * pollServer method
+	 * This method reads the packets the server sent to our TID. An OACK can make
+	 * us master, then we acknowledge it with the block before the first one missing
+	 *
+	 * @param blocks The blocks received
+	 *
+	 * @return true if a packet was read
+	 *
+	 * @throws IOException if the server sent an error
+	 */
+	private boolean pollServer(BitSet blocks) throws IOException {
+		boolean polled = false;
+		while(this.receive(1)) {
+			polled = true;
+			this.checkError();
+			if(this.receivedOpcode() != 6)
+				continue;
+			this.acceptOptions();
+			if(this.master)
+				this.sendAck(blocks.nextClearBit(1) - 1);
+		}
+		return polled;
+	}
+
+	/**
+	 * localInterface method
+	 * This method finds the network interface of the local address toward the server
+	 *
+	 * @return The interface
+	 *
+	 * @throws IOException
+	 */
+	private NetworkInterface localInterface() throws IOException {
+		try(DatagramSocket probe = new DatagramSocket()) {
+			probe.connect(this.ipAddress,this.serverPort);
+			NetworkInterface networkInterface = NetworkInterface.getByInetAddress(probe.getLocalAddress());
+			if(networkInterface == null)
+				throw new IOException("No network interface to join " + this.group.getAddress().getHostAddress());
+			return networkInterface;
+		}
+	}
+
+	/**
+	 * flush method
+	 * This method writes the write buffer to the file at the given position
+	 *
+	 * @param fileChannel The file
+	 * @param writeBuffer The buffer
+	 * @param position    The file position of the buffer
+	 *
+	 * @return The file position after the data written
+	 *
+	 * @throws IOException
+	 */
+	private long flush(FileChannel fileChannel, ByteBuffer writeBuffer, long position) throws IOException {
+		writeBuffer.flip();
+		while(writeBuffer.hasRemaining())
+			position += fileChannel.write(writeBuffer,position);
+		writeBuffer.clear();
+		return position;
+	}
+
+	/**
+	 * receiveAck method
+	 * This method handles a packet of an upload, it moves on after the last block
+	 * the server acknowledged
+	 *
+	 * @throws IOException
+	 */
+	private void receiveAck() throws IOException {
+		if(this.receivedOpcode() != 4)
+			return;
+
+		// Find the acknowledged block among the block before the window and the blocks of the window
+		int modulus = (this.rollover == 0) ? 65536 : 65535;
+		int distance = Math.floorMod(this.receivedBlock() - this.wireBlock(this.block - 1),modulus);
+		if((distance > this.windowSize) || ((distance == 0) && (this.windowSize == 1)))
+			return;		// Stray or duplicate ack, the timer takes care of losses
+		long acked = this.block - 1 + distance;
+
+		if(!this.retransmitted)
+			this.rtt.sample(System.nanoTime() - this.sentTime);
+		this.timeouts = 0;
+
+		// The last block is shorter than the block size, once it is acknowledged we are done
+		if(acked == this.lastBlock) {
+			this.numBytes = this.source.size();
+			this.finish();
+			return;
+		}
+
+		// Continue after the acknowledged block, blocks of the window after it were lost
+		this.block = acked + 1;
+		this.sendWindow();
+		this.retransmitted = false;
+		this.arm();
+	}
+
+	/**
+	 * sendWindow method
+	 * This method sends the blocks of the window
+	 *
+	 * @throws IOException
+	 */
+	private void sendWindow() throws IOException {
+		long end = Math.min(this.block + this.windowSize - 1,this.lastBlock);
+		for(long next = this.block; next <= end; ++next) {
+			TftpPacket.putDataHeader(this.sendData,this.wireBlock(next));
+
+			// Fill the data block with file data, a short read only happens at the end of the file
+			long position = (next - 1) * this.blockSize;
+			int n;
+			while(this.sendData.hasRemaining() && (n = this.source.read(this.sendData,position)) > 0)
+				position += n;
+
+			this.sender.send(this.sendData.flip(),this.tid);
+		}
+		this.sentTime = System.nanoTime();
+	}
+
+	/**
+	 * wireBlock method
+	 * This method maps a block count to the 16 bit block number sent on the wire
+	 *
+	 * @param block The block count, block 1 is the first block of the file
+	 *
+	 * @return The block number of the packet
+	 */
+	private int wireBlock(long block) {
+		if(this.rollover == 0)
+			return (int)(block & 0xFFFF);
+		return (int)Math.floorMod(block - 1,65535L) + 1;
+	}
+
+	/**
+	 * sendAck method
+	 * This method sends an ack packet for the received data packets
+	 *
+ 	 * @param blockNum The block number that is being acknowledged
+	 *
+	 * @throws IOException
+	 */
+	private void sendAck(int blockNum) throws IOException {
+		// Fill the ack buffer and send it
+		this.sender.send(TftpPacket.putAck(this.ackData,blockNum),this.tid);
+	}
+
+	/**
+	 * sendError method
+	 * This method sends an error packet to the server of the transfer
+	 *
+	 * @param errorCode The TFTP error code
+	 * @param errorMsg  The error message
+	 *
+	 * @throws IOException
+	 */
+	private void sendError(int errorCode, String errorMsg) throws IOException {
+		this.sender.send(TftpPacket.error(errorCode,errorMsg),this.tid);
+	}
+}
@@ -0,0 +1,264 @@
+/*
+ * TftpLoadTest.java
+ *
+ * Author: Shreyas Jayanna
+ *
+ */
+
+// import Statements
+import java.net.*;
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Class TftpLoadTest
+ * This class generates load on a server through an ImpairmentProxy, so the
+ * retransmission and windowing paths can be tuned against a reproducible bad
+ * network on one machine. Many clients download (and optionally upload) a file
+ * at the same time; every download is compared with the original, so a transfer
+ * that completes with wrong data is reported as a failure.
+ * It reports goodput, the p50/p90/p99/max latency of a transfer, the retransmits
+ * of the clients, the DATA blocks the proxy saw sent again and what the proxy did
+ * to the traffic. Without -server an in-process server of the chosen engine is used,
+ * with the rate limits given
+ * Usage: java TftpLoadTest [-server host:port] [-engine blocking|nio] [-clients n]
+ *        [-transfers n] [-size bytes] [-blksize n] [-windowsize n] [-put]
+ *        [-loss %] [-dup %] [-reorder %] [-delay ms] [-jitter ms] [-seed n]
+ *        [-ratelimit kB/s] [-clientlimit kB/s] [-transferlimit kB/s]
+ */
+class TftpLoadTest {
+
+	String serverAddress;			// The server under test as host:port, null for an in-process server
+	String engine = "blocking";		// The engine of the in-process server
+	int clients = 16;			// Clients running at the same time
+	int transfers = 10;			// Transfers per client
+	int size = 1024 * 1024;			// The size of the file transferred
+	int blockSize;				// The blksize option requested, 0 to send none
+	int windowSize;				// The windowsize option requested, 0 to send none
+	boolean put;				// True to alternate downloads with uploads
+	List<String> serverArgs = new ArrayList<String>();	// The settings of the in-process server
+
+	ImpairmentProxy proxy;			// The bad network between the clients and the server
+	Path directory;				// Holds the file served and the files transferred
+
+	AtomicLong retransmits = new AtomicLong();	// Packets the clients sent again after a timeout
+	AtomicLong goodBytes = new AtomicLong();	// Bytes of the transfers that completed with the right data
+	Queue<String> failures = new ConcurrentLinkedQueue<String>();	// Why transfers failed
+
+	/**
+	 * run method
+	 * This method starts the server and the proxy if needed, runs the clients and
+	 * prints the report
+	 *
+	 * @throws Exception
+	 */
+	void run() throws Exception {
+		this.directory = Files.createTempDirectory("tftp-load");
+		Path file = this.directory.resolve("load.bin");
+		byte[] original = new byte[this.size];
+		new Random(this.size).nextBytes(original);
+		Files.write(file,original);
+
+		InetSocketAddress server;
+		if(this.serverAddress == null) {
+			server = new InetSocketAddress(InetAddress.getLoopbackAddress(),this.startServer());
+		} else {
+			String[] parts = this.serverAddress.split(":");
+			server = new InetSocketAddress(parts[0],parts.length > 1 ? Integer.parseInt(parts[1]) : 69);
+		}
+		Thread proxyThread = new Thread(this.proxy,"impairment-proxy");
+		this.proxy.server = server;
+		proxyThread.start();
+
+		ExecutorService pool = Executors.newFixedThreadPool(this.clients);
+		List<Future<long[]>> results = new ArrayList<Future<long[]>>();
+		long start = System.nanoTime();
+		for(int c = 0; c < this.clients; ++c) {
+			int client = c;
+			results.add(pool.submit(() -> this.client(client,file,original)));
+		}
+
+		List<Long> latencies = new ArrayList<Long>();
+		for(Future<long[]> result : results)
+			for(long latency : result.get())
+				if(latency >= 0)
+					latencies.add(latency);
+		long elapsed = System.nanoTime() - start;
+		pool.shutdown();
+		this.proxy.close();
+		proxyThread.join();
+
+		this.report(latencies,elapsed);
+	}
+
+	/**
+	 * startServer method
+	 * This method starts an in-process server of the chosen engine on an ephemeral port
+	 *
+	 * @return The port of the server
+	 *
+	 * @throws Exception
+	 */
+	private int startServer() throws Exception {
+		TftpServerConfig config = TftpServerConfig.parse(this.serverArgs.toArray(new String[0]));
+		Thread thread;
+		int port;
+		if(this.engine.equals("nio")) {
+			TftpNioServer server = new TftpNioServer(0,Runtime.getRuntime().availableProcessors(),config);
+			port = server.channel.socket().getLocalPort();
+			thread = new Thread(() -> {
+				try {
+					server.serve();
+				} catch(IOException e) {
+					System.out.println("Server error: " + e.getMessage());
+				}
+			},"load-server");
+		} else {
+			TftpServer server = new TftpServer(0,config);
+			port = server.socket.getLocalPort();
+			thread = new Thread(() -> {
+				try {
+					server.serve();
+				} catch(Exception e) {
+					System.out.println("Server error: " + e.getMessage());
+				}
+			},"load-server");
+		}
+		thread.setDaemon(true);
+		thread.start();
+		return port;
+	}
+
+	/**
+	 * client method
+	 * This method runs the transfers of one client and checks their data
+	 *
+	 * @param client   The number of the client
+	 * @param file     The file served
+	 * @param original The contents of the file
+	 *
+	 * @return The latency of every transfer in ns, -1 for a failed transfer
+	 */
+	private long[] client(int client, Path file, byte[] original) throws IOException {
+		long[] latencies = new long[this.transfers];
+		for(int i = 0; i < this.transfers; ++i) {
+			// Every transfer gets a new TID, late packets of the one before cannot be mistaken for its own
+			try(DatagramSocket socket = new DatagramSocket()) {
+				TftpClientTransfer transfer = new TftpClientTransfer(socket,InetAddress.getLoopbackAddress());
+				transfer.serverPort = this.proxy.getPort();
+				transfer.requestedBlockSize = this.blockSize;
+				transfer.requestedWindowSize = this.windowSize;
+
+				boolean upload = this.put && (i % 2 == 1);
+				Path copy = this.directory.resolve("client-" + client + "-" + i + ".bin");
+				long start = System.nanoTime();
+				try {
+					if(upload)
+						transfer.put(copy.toString(),file.toString());
+					else
+						transfer.get(file.toString(),copy.toString());
+					latencies[i] = System.nanoTime() - start;
+
+					if(Arrays.equals(Files.readAllBytes(copy),original))
+						this.goodBytes.addAndGet(original.length);
+					else
+						this.failures.add((upload ? "put " : "get ") + copy.getFileName() + ": data differs");
+				} catch(IOException e) {
+					latencies[i] = -1;
+					this.failures.add((upload ? "put " : "get ") + copy.getFileName() + ": " + e.getMessage());
+				}
+				this.retransmits.addAndGet(transfer.retransmits);
+				Files.deleteIfExists(copy);
+			}
+		}
+		return latencies;
+	}
+
+	/**
+	 * report method
+	 * This method prints the results of the run
+	 */
+	private void report(List<Long> latencies, long elapsed) {
+		Collections.sort(latencies);
+		int total = this.clients * this.transfers;
+		System.out.println(String.format("transfers      %d ok, %d failed",total - this.failures.size(),
+			this.failures.size()));
+		System.out.println(String.format("goodput        %.2f MB/s",this.goodBytes.get() * 1e3 / elapsed));
+		if(!latencies.isEmpty())
+			System.out.println(String.format("latency ms     p50 %.1f  p90 %.1f  p99 %.1f  max %.1f",
+				percentile(latencies,0.50) / 1e6,percentile(latencies,0.90) / 1e6,
+				percentile(latencies,0.99) / 1e6,latencies.get(latencies.size() - 1) / 1e6));
+		System.out.println(String.format("retransmits    clients %d (timeouts), DATA blocks resent: server %d, clients %d",
+			this.retransmits.get(),this.proxy.dataRetransmits[1],this.proxy.dataRetransmits[0]));
+		System.out.println(String.format("network        %d relayed, %d dropped, %d duplicated, %d reordered",
+			this.proxy.relayed,this.proxy.dropped,this.proxy.duplicated,this.proxy.reordered));
+
+		int shown = 0;
+		for(String failure : this.failures) {
+			if(++shown > 10) {
+				System.out.println("  ...");
+				break;
+			}
+			System.out.println("  " + failure);
+		}
+	}
+
+	private static long percentile(List<Long> sorted, double fraction) {
+		int index = (int)Math.ceil(fraction * sorted.size()) - 1;
+		return sorted.get(Math.max(0,Math.min(index,sorted.size() - 1)));
+	}
+
+	public static void main(String[] args) throws Exception {
+		TftpLoadTest test = new TftpLoadTest();
+		double loss = 0, duplicate = 0, reorder = 0;
+		long delay = 0, jitter = 0, seed = 1;
+		for(int i = 0; i < args.length; ++i) {
+			if(args[i].equals("-put")) {
+				test.put = true;
+				continue;
+			}
+			if(i + 1 >= args.length) {
+				System.out.println("Missing value for " + args[i]);
+				System.exit(1);
+			}
+			String value = args[++i];
+			switch(args[i-1]) {
+				case "-server": test.serverAddress = value; break;
+				case "-engine": test.engine = value; break;
+				case "-clients": test.clients = Integer.parseInt(value); break;
+				case "-transfers": test.transfers = Integer.parseInt(value); break;
+				case "-size": test.size = Integer.parseInt(value); break;
+				case "-blksize": test.blockSize = Integer.parseInt(value); break;
+				case "-windowsize": test.windowSize = Integer.parseInt(value); break;
+				case "-loss": loss = Double.parseDouble(value) / 100; break;
+				case "-dup": duplicate = Double.parseDouble(value) / 100; break;
+				case "-reorder": reorder = Double.parseDouble(value) / 100; break;
+				case "-delay": delay = Long.parseLong(value); break;
+				case "-jitter": jitter = Long.parseLong(value); break;
+				case "-seed": seed = Long.parseLong(value); break;
+				case "-ratelimit":
+				case "-clientlimit":
+				case "-transferlimit":
+					test.serverArgs.add(args[i-1]);
+					test.serverArgs.add(value);
+					break;
+				default:
+					System.out.println("Unknown option " + args[i-1]);
+					System.exit(1);
+			}
+		}
+
+		// The server address is filled in once the server is up
+		test.proxy = new ImpairmentProxy(0,null,seed);
+		test.proxy.loss = loss;
+		test.proxy.duplicate = duplicate;
+		test.proxy.reorder = reorder;
+		test.proxy.delay = delay;
+		test.proxy.jitter = jitter;
+		test.run();
+		System.exit(test.failures.isEmpty() ? 0 : 1);
+	}
+}
@@ -0,0 +1,380 @@
+/*
+ * TftpMetrics.java
+ *
+ * Author: Shreyas Jayanna
+ *
+ */
+
+// import Statements
+import java.net.*;
+import java.io.*;
+import java.lang.management.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import javax.management.*;
+import com.sun.net.httpserver.*;
+
+/**
+ * Class TftpMetrics
+ * This class counts what a server does: requests by opcode, active sessions,
+ * requests waiting for a session and requests turned away, packets and bytes,
+ * retransmits and timeouts, windows held back by the rate limits, error packets
+ * by code, and the duration and throughput of every transfer in histograms.
+ * The counters are LongAdders, so recording from many session threads costs an
+ * uncontended add on the hot path. The metrics are read through JMX, as text in
+ * the Prometheus exposition format over HTTP, or from a file dumped periodically
+ */
+class TftpMetrics implements TftpMetricsMBean {
+
+	/**
+	 * Class Histogram
+	 * Counts observations into buckets with fixed upper bounds
+	 */
+	static class Histogram {
+		double[] bounds;			// The upper bounds of the buckets, ascending
+		LongAdder[] buckets;			// Observations per bucket, the last one is unbounded
+		DoubleAdder sum;			// The sum of the observations
+
+		Histogram(double... bounds) {
+			this.bounds = bounds;
+			this.buckets = new LongAdder[bounds.length + 1];
+			for(int i = 0; i < this.buckets.length; ++i)
+				this.buckets[i] = new LongAdder();
+			this.sum = new DoubleAdder();
+		}
+
+		void observe(double value) {
+			int i = 0;
+			while((i < this.bounds.length) && (value > this.bounds[i]))
+				++i;
+			this.buckets[i].increment();
+			this.sum.add(value);
+		}
+
+		long count() {
+			long count = 0;
+			for(LongAdder bucket : this.buckets)
+				count += bucket.sum();
+			return count;
+		}
+	}
+
+	static final int MAX_ERROR_CODE = 8;	// The highest error code of RFC 1350 and RFC 2347
+
+	LongAdder[] requests;			// Requests received by opcode, 0 counts illegal opcodes
+	LongAdder active;			// Transfers running
+	LongAdder queued;			// Requests waiting for a session
+	LongAdder rejected;			// Requests turned away by the admission control
+	LongAdder completed;			// Transfers that completed
+	LongAdder failed;			// Transfers that failed
+	LongAdder bytesSent;			// File bytes sent to clients
+	LongAdder bytesReceived;		// File bytes received from clients
+	LongAdder packetsSent;			// Packets sent by the sessions
+	LongAdder packetsReceived;		// Packets received by the sessions
+	LongAdder retransmits;			// Packets sent again
+	LongAdder timeouts;			// Retransmit timers that expired
+	LongAdder throttled;			// Windows held back by the rate limits
+	LongAdder[] errors;			// Error packets sent by code
+
+	Histogram duration;			// Transfer duration in seconds
+	Histogram throughput;			// Transfer throughput in bytes per second
+
+	TftpMetrics() {
+		this.requests = adders(TftpPacket.OACK + 1);
+		this.errors = adders(MAX_ERROR_CODE + 1);
+		this.active = new LongAdder();
+		this.queued = new LongAdder();
+		this.rejected = new LongAdder();
+		this.completed = new LongAdder();
+		this.failed = new LongAdder();
+		this.bytesSent = new LongAdder();
+		this.bytesReceived = new LongAdder();
+		this.packetsSent = new LongAdder();
+		this.packetsReceived = new LongAdder();
+		this.retransmits = new LongAdder();
+		this.timeouts = new LongAdder();
+		this.throttled = new LongAdder();
+		this.duration = new Histogram(0.01,0.05,0.1,0.5,1,5,10,30,60,300);
+		this.throughput = new Histogram(16e3,64e3,256e3,1e6,4e6,16e6,64e6,256e6,1e9);
+	}
+
+	private static LongAdder[] adders(int count) {
+		LongAdder[] adders = new LongAdder[count];
+		for(int i = 0; i < count; ++i)
+			adders[i] = new LongAdder();
+		return adders;
+	}
+
+	/**
+	 * request method
+	 * This method counts a packet received on the listening port
+	 *
+	 * @param opcode The opcode of the packet
+	 */
+	void request(int opcode) {
+		this.requests[(opcode == TftpPacket.RRQ || opcode == TftpPacket.WRQ) ? opcode : 0].increment();
+	}
+
+	/**
+	 * error method
+	 * This method counts an error packet sent
+	 *
+	 * @param code The error code
+	 */
+	void error(int code) {
+		this.errors[(code >= 0 && code <= MAX_ERROR_CODE) ? code : 0].increment();
+	}
+
+	void packetSent() {
+		this.packetsSent.increment();
+	}
+
+	void packetReceived() {
+		this.packetsReceived.increment();
+	}
+
+	/**
+	 * transferStarted method
+	 * This method is called by an engine before it starts a transfer
+	 */
+	void transferStarted() {
+		this.active.increment();
+	}
+
+	/**
+	 * queued method
+	 * This method counts requests entering or leaving the admission queue
+	 *
+	 * @param delta 1 for a request entering, -1 for one leaving
+	 */
+	void queued(int delta) {
+		this.queued.add(delta);
+	}
+
+	void rejected() {
+		this.rejected.increment();
+	}
+
+	/**
+	 * transferFinished method
+	 * This method is called by an engine once a transfer is closed, it records
+	 * its outcome, file bytes, duration and throughput
+	 *
+	 * @param transfer The transfer
+	 */
+	void transferFinished(TftpTransfer transfer) {
+		this.active.decrement();
+		if(transfer instanceof TftpWriteTransfer)
+			this.bytesReceived.add(transfer.bytes);
+		else
+			this.bytesSent.add(transfer.bytes);
+		if(transfer.failure != null) {
+			this.failed.increment();
+			return;
+		}
+		this.completed.increment();
+		double seconds = (System.nanoTime() - transfer.startTime) / 1e9;
+		this.duration.observe(seconds);
+		if(seconds > 0)
+			this.throughput.observe(transfer.bytes / seconds);
+	}
+
+	public long getActiveSessions() {
+		return this.active.sum();
+	}
+
+	public long getQueuedRequests() {
+		return this.queued.sum();
+	}
+
+	public long getRejectedRequests() {
+		return this.rejected.sum();
+	}
+
+	public long getReadRequests() {
+		return this.requests[TftpPacket.RRQ].sum();
+	}
+
+	public long getWriteRequests() {
+		return this.requests[TftpPacket.WRQ].sum();
+	}
+
+	public long getIllegalRequests() {
+		return this.requests[0].sum();
+	}
+
+	public long getTransfersCompleted() {
+		return this.completed.sum();
+	}
+
+	public long getTransfersFailed() {
+		return this.failed.sum();
+	}
+
+	public long getBytesSent() {
+		return this.bytesSent.sum();
+	}
+
+	public long getBytesReceived() {
+		return this.bytesReceived.sum();
+	}
+
+	public long getPacketsSent() {
+		return this.packetsSent.sum();
+	}
+
+	public long getPacketsReceived() {
+		return this.packetsReceived.sum();
+	}
+
+	public long getRetransmits() {
+		return this.retransmits.sum();
+	}
+
+	public long getTimeouts() {
+		return this.timeouts.sum();
+	}
+
+	public long getThrottled() {
+		return this.throttled.sum();
+	}
+
+	public long getErrorsSent() {
+		long count = 0;
+		for(LongAdder error : this.errors)
+			count += error.sum();
+		return count;
+	}
+
+	public double getMeanTransferSeconds() {
+		long count = this.duration.count();
+		return (count == 0) ? 0 : this.duration.sum.sum() / count;
+	}
+
+	/**
+	 * getPrometheusText method
+	 * This method formats the metrics in the Prometheus text exposition format
+	 *
+	 * @return The metrics
+	 */
+	public String getPrometheusText() {
+		StringBuilder text = new StringBuilder();
+		counter(text,"tftp_requests_total","Requests received on the listening port");
+		sample(text,"tftp_requests_total{opcode=\"rrq\"}",this.getReadRequests());
+		sample(text,"tftp_requests_total{opcode=\"wrq\"}",this.getWriteRequests());
+		sample(text,"tftp_requests_total{opcode=\"illegal\"}",this.getIllegalRequests());
+		text.append("# HELP tftp_active_sessions Transfers running\n# TYPE tftp_active_sessions gauge\n");
+		sample(text,"tftp_active_sessions",this.getActiveSessions());
+		text.append("# HELP tftp_queued_requests Requests waiting for a session\n# TYPE tftp_queued_requests gauge\n");
+		sample(text,"tftp_queued_requests",this.getQueuedRequests());
+		counter(text,"tftp_rejected_requests_total","Requests turned away by the admission control");
+		sample(text,"tftp_rejected_requests_total",this.getRejectedRequests());
+		counter(text,"tftp_transfers_total","Transfers finished");
+		sample(text,"tftp_transfers_total{result=\"completed\"}",this.getTransfersCompleted());
+		sample(text,"tftp_transfers_total{result=\"failed\"}",this.getTransfersFailed());
+		counter(text,"tftp_bytes_total","File bytes transferred");
+		sample(text,"tftp_bytes_total{direction=\"sent\"}",this.getBytesSent());
+		sample(text,"tftp_bytes_total{direction=\"received\"}",this.getBytesReceived());
+		counter(text,"tftp_packets_total","Packets of the sessions");
+		sample(text,"tftp_packets_total{direction=\"sent\"}",this.getPacketsSent());
+		sample(text,"tftp_packets_total{direction=\"received\"}",this.getPacketsReceived());
+		counter(text,"tftp_retransmits_total","Packets sent again");
+		sample(text,"tftp_retransmits_total",this.getRetransmits());
+		counter(text,"tftp_timeouts_total","Retransmit timers that expired");
+		sample(text,"tftp_timeouts_total",this.getTimeouts());
+		counter(text,"tftp_throttled_total","Windows held back by the rate limits");
+		sample(text,"tftp_throttled_total",this.getThrottled());
+		counter(text,"tftp_errors_sent_total","Error packets sent");
+		for(int code = 0; code <= MAX_ERROR_CODE; ++code)
+			sample(text,"tftp_errors_sent_total{code=\"" + code + "\"}",this.errors[code].sum());
+		histogram(text,"tftp_transfer_duration_seconds","Duration of completed transfers",this.duration);
+		histogram(text,"tftp_transfer_throughput_bytes_per_second","Throughput of completed transfers",
+			this.throughput);
+		return text.toString();
+	}
+
+	private static void counter(StringBuilder text, String name, String help) {
+		text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		text.append("# TYPE ").append(name).append(" counter\n");
+	}
+
+	private static void sample(StringBuilder text, String name, double value) {
+		text.append(name).append(' ');
+		if(value == Math.rint(value))
+			text.append((long)value);
+		else
+			text.append(value);
+		text.append('\n');
+	}
+
+	private static void histogram(StringBuilder text, String name, String help, Histogram histogram) {
+		text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		text.append("# TYPE ").append(name).append(" histogram\n");
+		long cumulative = 0;
+		for(int i = 0; i < histogram.buckets.length; ++i) {
+			cumulative += histogram.buckets[i].sum();
+			String bound = (i < histogram.bounds.length) ? Double.toString(histogram.bounds[i]) : "+Inf";
+			sample(text,name + "_bucket{le=\"" + bound + "\"}",cumulative);
+		}
+		sample(text,name + "_sum",histogram.sum.sum());
+		sample(text,name + "_count",cumulative);
+	}
+
+	/**
+	 * registerMBean method
+	 * This method registers the metrics with the platform MBean server
+	 *
+	 * @throws JMException
+	 */
+	void registerMBean() throws JMException {
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this,new ObjectName("TftpServer:type=Metrics"));
+	}
+
+	/**
+	 * startHttp method
+	 * This method serves the metrics in the Prometheus format at /metrics
+	 *
+	 * @param port The port of the HTTP endpoint
+	 *
+	 * @throws IOException
+	 */
+	void startHttp(int port) throws IOException {
+		HttpServer server = HttpServer.create(new InetSocketAddress(port),0);
+		server.createContext("/metrics",exchange -> {
+			byte[] body = this.getPrometheusText().getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type","text/plain; version=0.0.4");
+			exchange.sendResponseHeaders(200,body.length);
+			try(OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		});
+		server.start();
+	}
+
+	/**
+	 * startDump method
+	 * This method writes the metrics in the Prometheus format to a file every interval,
+	 * through a temporary file so readers never see a partial dump
+	 *
+	 * @param file     The file
+	 * @param interval The interval in seconds
+	 */
+	void startDump(Path file, long interval) {
+		ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(task -> {
+			Thread thread = new Thread(task,"tftp-metrics");
+			thread.setDaemon(true);
+			return thread;
+		});
+		timer.scheduleAtFixedRate(() -> {
+			try {
+				Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+				Files.write(temp,this.getPrometheusText().getBytes(StandardCharsets.UTF_8));
+				Files.move(temp,file,StandardCopyOption.REPLACE_EXISTING,StandardCopyOption.ATOMIC_MOVE);
+			} catch(IOException e) {
+				System.out.println("Metrics dump failed: " + e.getMessage());
+			}
+		},interval,interval,TimeUnit.SECONDS);
+	}
+}
@@ -0,0 +1,50 @@
+/*
+ * TftpMetricsMBean.java
+ *
+ * Author: Shreyas Jayanna
+ *
+ */
+
+/**
+ * Interface TftpMetricsMBean
+ * The management interface of TftpMetrics, as seen by JMX clients such as jconsole
+ * JMX only accepts a public interface, which is why this one is public
+ */
+public interface TftpMetricsMBean {
+
+	long getActiveSessions();
+
+	long getQueuedRequests();
+
+	long getRejectedRequests();
+
+	long getReadRequests();
+
+	long getWriteRequests();
+
+	long getIllegalRequests();
+
+	long getTransfersCompleted();
+
+	long getTransfersFailed();
+
+	long getBytesSent();
+
+	long getBytesReceived();
+
+	long getPacketsSent();
+
+	long getPacketsReceived();
+
+	long getRetransmits();
+
+	long getTimeouts();
+
+	long getThrottled();
+
+	long getErrorsSent();
+
+	double getMeanTransferSeconds();
+
+	String getPrometheusText();
+}
@@ -0,0 +1,387 @@
+/*
+ * TftpMulticastTransfer.java
+ *
+ * Author: Shreyas Jayanna
+ *
+ */
+
+// import Statements
+import java.net.*;
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+
+/**
+ * Class TftpMulticastTransfer
+ * This class serves one file to many clients at once with the multicast option
+ * (RFC 2090). The DATA blocks are framed like any read transfer but sent once to
+ * a multicast group, and every client that asked for the same file with the same
+ * block size while the session runs joins it. The first client is the master
+ * client: it acknowledges the blocks and the next block is sent to the group.
+ * Clients that joined later receive what is sent from then on and keep track of
+ * the blocks they miss. Once the master has the whole file it leaves, the next
+ * client becomes master with a new OACK and asks for the blocks it is missing by
+ * acknowledging the block before the first of them.
+ * A master that stops answering is dropped after the retries and the next one
+ * takes over; the session ends when no client is left.
+ * RFC 2090 block numbers do not roll over, so files of more than 65535 blocks
+ * are served unicast. The session runs on its own thread with its own TID, for
+ * both engines, and takes a slot of the AdmissionControl for its whole run; only
+ * clients joining a running session skip admission.
+ * The session is not rate limited: it sends one block at a time, paced by the
+ * acknowledgements of the master, and a block reaches the whole group at once,
+ * so it belongs to no single client's bucket
+ */
+class TftpMulticastTransfer extends TftpReadTransfer implements Runnable, TftpTransfer.PacketSender {
+
+	static final int MAX_BLOCKS = 65535;	// Block numbers of RFC 2090 do not roll over
+
+	String key;				// The file and block size the session is registered under
+	InetSocketAddress group;		// The multicast group the blocks are sent to
+	Transport transport;			// The session transport, its port is the TID for every client
+	LinkedHashMap<InetSocketAddress,Map<String,String>> clients;	// The clients in join order, with the options they asked for
+	boolean oackPending;			// True until the master acknowledges the OACK that made it master
+	long sentBlock;				// The block last sent to the group, 0 before the first
+	TftpTransfer admitted;			// The request the session was admitted for, released when it ends
+
+	/**
+	 * TftpMulticastTransfer method
+	 * This is the constructor of the class, the first client is the first master
+	 *
+	 * @param request The transfer of the first client
+	 * @param key     The file and block size the session is registered under
+	 * @param group   The multicast group of the session
+	 */
+	TftpMulticastTransfer(TftpTransfer request, String key, InetSocketAddress group) {
+		super(request.config,request.filename,request.mode,request.address,request.port);
+		this.key = key;
+		this.group = group;
+		this.clients = new LinkedHashMap<InetSocketAddress,Map<String,String>>();
+
+		// The group runs in lock step, only the block size and the size apply to it
+		this.options.putAll(request.options);
+		this.options.keySet().retainAll(Arrays.asList("blksize","tsize"));
+		this.sender = this;
+	}
+
+	/**
+	 * rateLimited method
+	 * The blocks sent to the group do not go through the RateLimiter
+	 */
+	boolean rateLimited() {
+		return false;
+	}
+
+	/**
+	 * join method
+	 * This method adds the client of a RRQ with the multicast option to the running
+	 * session of its file. A request for a file without a session goes through
+	 * the AdmissionControl like any other, and create starts the session once it
+	 * is admitted
+	 *
+	 * @param request The transfer created for the request
+	 *
+	 * @return false if there is no session to join
+	 */
+	static boolean join(TftpTransfer request) {
+		String key = key(request);
+		if(key == null)
+			return false;
+		synchronized(request.config.multicastSessions) {
+			TftpMulticastTransfer session = request.config.multicastSessions.get(key);
+			if(session == null)
+				return false;
+			session.add(request);
+			return true;
+		}
+	}
+
+	/**
+	 * create method
+	 * This method starts the session of an admitted RRQ with the multicast option.
+	 * The session holds the admitted slot until it ends; if a session of the file
+	 * was started while the request waited, the client joins it and the slot is
+	 * released at once, as it is when the request is answered with an error
+	 *
+	 * @param request The admitted transfer
+	 *
+	 * @return false if the request is served unicast instead, it keeps its slot
+	 */
+	static boolean create(TftpTransfer request) {
+		String key = key(request);
+		if(key == null)
+			return false;
+		TftpServerConfig config = request.config;
+		synchronized(config.multicastSessions) {
+			TftpMulticastTransfer session = config.multicastSessions.get(key);
+			if(session != null) {
+				session.add(request);
+			} else {
+				session = new TftpMulticastTransfer(request,key,nextGroup(config));
+				try {
+					session.transport = ChannelTransport.multicastSender(config.multicastInterface,config.multicastTtl);
+					session.open();
+				} catch(IOException e) {
+					session.close();
+					return false;
+				}
+				if((session.lastBlock > MAX_BLOCKS) && !session.done) {
+					session.close();
+					return false;
+				}
+				if(!session.done) {
+					session.admitted = request;
+					config.multicastSessions.put(key,session);
+					session.clients.put(new InetSocketAddress(request.address,request.port),request.options);
+					Thread thread = new Thread(session,"tftp-multicast-" + session.group.getPort());
+					thread.setDaemon(true);
+					thread.start();
+					return true;
+				}
+				// The error was sent to the client already
+				session.close();
+			}
+		}
+		config.admission.release(request);
+		return true;
+	}
+
+	/**
+	 * key method
+	 * This method returns the key of the session a request is served by
+	 *
+	 * @param request The transfer created for the request
+	 *
+	 * @return The file, mode and block size, or null if the request is served unicast
+	 */
+	private static String key(TftpTransfer request) {
+		TftpServerConfig config = request.config;
+		if((config.multicastGroup == null) || !(request instanceof TftpReadTransfer) ||
+				!request.options.containsKey("multicast") || !config.storage.shared(request.filename))
+			return null;
+		return request.filename + "\0" + request.mode + "\0" + request.options.getOrDefault("blksize","");
+	}
+
+	/**
+	 * add method
+	 * This method adds the client of a request to the session, a client already in
+	 * it repeated its request because its OACK was lost. The caller holds the lock
+	 * of the sessions
+	 *
+	 * @param request The transfer created for the request
+	 */
+	private void add(TftpTransfer request) {
+		InetSocketAddress client = new InetSocketAddress(request.address,request.port);
+		boolean known = this.clients.containsKey(client);
+		if(!known)
+			this.clients.put(client,request.options);
+		try {
+			if(!known || !this.isMaster(client))
+				this.sendOack(client,false);
+		} catch(IOException e) {
+			// The client asks again
+		}
+	}
+
+	/**
+	 * nextGroup method
+	 * This method picks the group of a new session, the configured address with
+	 * the first port from the configured one not used by a running session
+	 */
+	private static InetSocketAddress nextGroup(TftpServerConfig config) {
+		int port = config.multicastGroup.getPort();
+		while(true) {
+			boolean used = false;
+			for(TftpMulticastTransfer session : config.multicastSessions.values())
+				used |= session.group.getPort() == port;
+			if(!used)
+				return new InetSocketAddress(config.multicastGroup.getAddress(),port);
+			++port;
+		}
+	}
+
+	/**
+	 * run method
+	 * This method serves the session until no client is left
+	 */
+	public void run() {
+		TftpMetrics metrics = this.config.metrics;
+		metrics.transferStarted();
+		try {
+			synchronized(this.config.multicastSessions) {
+				this.promote();
+			}
+
+			ByteBuffer received = ByteBuffer.allocate(4 + BLOCK_SIZE);
+			while(!this.isDone()) {
+				InetSocketAddress from = this.transport.receive(received,this.getTimeout());
+				synchronized(this.config.multicastSessions) {
+					if(from == null) {
+						this.timeout();
+					} else if(!this.clients.containsKey(from)) {
+						// Packets from any other TID are answered with an error packet and ignored
+						this.transport.send(TftpPacket.error(5,"Unknown transfer ID"),from);
+						metrics.error(5);
+					} else {
+						metrics.packetReceived();
+						this.receive(from,received);
+					}
+				}
+			}
+		} catch(Exception e) {
+			this.fail(e.getMessage());
+			synchronized(this.config.multicastSessions) {
+				this.config.multicastSessions.remove(this.key);
+			}
+		} finally {
+			this.bytes = Math.min(this.highestSent * this.blockSize,this.size);
+			this.close();
+			metrics.transferFinished(this);
+			this.config.admission.release(this.admitted);
+		}
+		if(this.failure != null)
+			System.out.println("Multicast transfer of " + this.filename + " failed: " + this.failure);
+	}
+
+	/**
+	 * receive method
+	 * This method handles an ACK or ERROR packet of a client of the session
+	 *
+	 * @param from   The client
+	 * @param packet The packet
+	 *
+	 * @throws IOException
+	 */
+	private void receive(InetSocketAddress from, ByteBuffer packet) throws IOException {
+		int op = TftpPacket.opcode(packet);
+		int ack = TftpPacket.block(packet);
+		if(op == TftpPacket.ERROR) {
+			this.leave(from);
+			return;
+		}
+		if((op != TftpPacket.ACK) || (ack < 0) || (ack > this.lastBlock))
+			return;
+
+		// A client with the whole file acknowledges the last block and leaves
+		if(ack == this.lastBlock) {
+			this.leave(from);
+			return;
+		}
+		if(!this.isMaster(from))
+			return;		// Only the master asks for blocks
+
+		// The block asked for is in flight already unless the OACK was just answered, the timer takes care of losses
+		if(!this.oackPending && (ack + 1 == this.sentBlock))
+			return;
+		this.oackPending = false;
+		this.acknowledged();
+		this.sentBlock = ack + 1;
+		this.sendBlock(this.sentBlock);
+		this.transmitted(false);
+	}
+
+	/**
+	 * timeout method
+	 * This method sends the OACK to the master or the last block to the group again,
+	 * a master that does not answer after the retries is dropped
+	 */
+	void timeout() throws IOException {
+		this.config.metrics.timeouts.increment();
+		if(++this.retries > this.config.maxRetries) {
+			this.leave(this.master());
+			return;
+		}
+		this.rtt.backoff();
+		if(this.oackPending)
+			this.sendOack(this.master(),true);
+		else
+			this.sendBlock(this.sentBlock);
+		this.transmitted(true);
+	}
+
+	/**
+	 * leave method
+	 * This method removes a client from the session, the next client becomes
+	 * master if it was the master
+	 */
+	private void leave(InetSocketAddress client) throws IOException {
+		boolean master = this.isMaster(client);
+		this.clients.remove(client);
+		if(master)
+			this.promote();
+	}
+
+	/**
+	 * promote method
+	 * This method makes the first client the master with an OACK, or ends the
+	 * session if no client is left
+	 */
+	private void promote() throws IOException {
+		InetSocketAddress master = this.master();
+		if(master == null) {
+			this.config.multicastSessions.remove(this.key);
+			this.done = true;
+			return;
+		}
+		this.address = master.getAddress();
+		this.port = master.getPort();
+		this.oackPending = true;
+		this.retries = 0;
+		this.sendOack(master,true);
+		this.transmitted(false);
+	}
+
+	private InetSocketAddress master() {
+		return this.clients.isEmpty() ? null : this.clients.keySet().iterator().next();
+	}
+
+	private boolean isMaster(InetSocketAddress client) {
+		return client.equals(this.master());
+	}
+
+	/**
+	 * sendOack method
+	 * This method sends a client the OACK with the group and its role, and the
+	 * block size and size if it asked for them
+	 *
+	 * @param client The client
+	 * @param master True if the client is the master client
+	 */
+	private void sendOack(InetSocketAddress client, boolean master) throws IOException {
+		Map<String,String> requested = this.clients.get(client);
+		Map<String,String> accepted = new LinkedHashMap<String,String>();
+		if(requested.containsKey("blksize"))
+			accepted.put("blksize",Integer.toString(this.blockSize));
+		if(requested.containsKey("tsize"))
+			accepted.put("tsize",Long.toString(this.size));
+		accepted.put("multicast",this.group.getAddress().getHostAddress() + "," + this.group.getPort() + "," +
+			(master ? "1" : "0"));
+		this.transport.send(TftpPacket.oack(accepted),client);
+		this.config.metrics.packetSent();
+	}
+
+	/**
+	 * send method
+	 * This method sends DATA packets to the group and any other packet to the master
+	 */
+	public void send(ByteBuffer packet) throws IOException {
+		InetSocketAddress target = (TftpPacket.opcode(packet) == TftpPacket.DATA) ? this.group :
+			new InetSocketAddress(this.address,this.port);
+		this.transport.send(packet,target);
+		this.config.metrics.packetSent();
+	}
+
+	public void send(ByteBuffer header, ByteBuffer data) throws IOException {
+		this.transport.send(header,data,this.group);
+		this.config.metrics.packetSent();
+	}
+
+	void close() {
+		super.close();
+		try {
+			if(this.transport != null)
+				this.transport.close();
+		} catch(IOException e) {
+		}
+	}
+}
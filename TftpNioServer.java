@@ -0,0 +1,292 @@
+/*
+ * TftpNioServer.java
+ *
+ * Author: Shreyas Jayanna
+ *
+ */
+
+// import Statements
+import java.net.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Class TftpNioServer
+ * This class is the event driven server engine. The listening channel hands every
+ * request to one of a few SessionLoop threads. Each loop multiplexes the
+ * non-blocking session channels of its transfers with a Selector and keeps their
+ * retransmit timers in a TimerWheel, so a handful of threads serve any number
+ * of concurrent transfers
+ */
+class TftpNioServer implements AdmissionControl.Listener {
+
+	static final long TICK = 10;		// Timer wheel resolution in ms
+	static final int WHEEL_SIZE = 512;	// Timer wheel buckets
+
+	DatagramChannel channel;		// The listening channel
+	TftpServerConfig config;		// The server settings
+	SessionLoop[] loops;			// The selector loops
+	AtomicInteger next;			// The loop the next session is given to, sessions are started by any thread
+
+	int port;
+
+	/**
+	 * TftpNioServer method
+	 * This is the constructor of the class, it binds the listening channel and starts the loops
+	 *
+	 * @param localPort The port to listen at
+	 * @param threads   The number of selector loops
+	 * @param config    The server settings
+	 *
+	 * @throws IOException
+	 */
+	TftpNioServer(int localPort, int threads, TftpServerConfig config) throws IOException {
+		this.port = localPort;
+		this.config = config;
+		this.channel = DatagramChannel.open();
+		this.channel.bind(new InetSocketAddress(localPort));
+		this.next = new AtomicInteger();
+		this.config.admission.listener = this;
+
+		this.loops = new SessionLoop[threads];
+		for(int i = 0; i < threads; ++i) {
+			this.loops[i] = new SessionLoop();
+			Thread thread = new Thread(this.loops[i],"tftp-loop-" + i);
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	/**
+	 * serve method
+	 * This method receives requests on the listening channel and hands them to the loops
+	 *
+	 * @throws IOException
+	 */
+	public void serve() throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(516);
+
+		while(true) {
+			buffer.clear();
+			InetSocketAddress client = (InetSocketAddress)this.channel.receive(buffer);
+			buffer.flip();
+			this.config.metrics.request(TftpPacket.opcode(buffer));
+
+			TftpTransfer transfer = TftpServer.createTransfer(this.config,buffer,client.getAddress(),client.getPort());
+			if(transfer == null) {
+				this.channel.send(TftpPacket.error(4,"Illegal TFTP operation"),client);
+				this.config.metrics.error(4);
+				continue;
+			}
+
+			// A RRQ with the multicast option joins the running session of its file, which has its own thread
+			if(TftpMulticastTransfer.join(transfer))
+				continue;
+			this.config.admission.admit(transfer);
+		}
+	}
+
+	public void start(TftpTransfer transfer) {
+		this.loops[Math.floorMod(this.next.getAndIncrement(),this.loops.length)].register(transfer);
+	}
+
+	public void reject(TftpTransfer transfer, String message) throws IOException {
+		this.channel.send(TftpPacket.error(0,message),new InetSocketAddress(transfer.address,transfer.port));
+		this.config.metrics.error(0);
+	}
+
+	/**
+	 * Class NioSession
+	 * One transfer and its session channel, which it sends the packets of the transfer to.
+	 * A DATA header and a view of the block are gathered into one datagram
+	 */
+	static class NioSession implements Runnable, TftpTransfer.PacketSender {
+		TftpTransfer transfer;
+		DatagramChannel channel;		// Connected to the client TID
+		SelectionKey key;
+		TimerWheel.Timeout timer;		// The retransmit timer, rearmed for every packet
+		SessionLoop loop;
+		ByteBuffer[] gather;			// The header and data of a gathered packet
+
+		NioSession() {
+			this.gather = new ByteBuffer[2];
+			this.timer = new TimerWheel.Timeout();
+			this.timer.task = this;
+		}
+
+		/**
+		 * run method
+		 * This method is the retransmit timer task
+		 */
+		public void run() {
+			try {
+				this.transfer.timeout();
+			} catch(IOException e) {
+				this.transfer.fail(e.getMessage());
+			} catch(RuntimeException e) {
+				this.abort(e);
+			}
+			this.loop.update(this);
+		}
+
+		/**
+		 * abort method
+		 * This method ends a transfer that threw an unexpected exception, the client
+		 * is told with an error packet if the transfer was still running
+		 *
+		 * @param e The exception
+		 */
+		void abort(RuntimeException e) {
+			if(!this.transfer.isDone() && (this.transfer.sender != null)) {
+				try {
+					this.transfer.sendError(0,"Internal server error");
+				} catch(IOException | RuntimeException x) {
+				}
+			}
+			this.transfer.fail("Internal error: " + e);
+		}
+
+		public void send(ByteBuffer packet) throws IOException {
+			this.channel.write(packet);
+			this.transfer.config.metrics.packetSent();
+		}
+
+		public void send(ByteBuffer header, ByteBuffer data) throws IOException {
+			this.gather[0] = header;
+			this.gather[1] = data;
+			this.channel.write(this.gather);
+			this.transfer.config.metrics.packetSent();
+		}
+	}
+
+	/**
+	 * Class SessionLoop
+	 * A selector thread with its sessions and their timers
+	 */
+	static class SessionLoop implements Runnable {
+		Selector selector;
+		TimerWheel wheel;
+		Queue<TftpTransfer> pending;		// Transfers handed over by the listener
+		ByteBuffer buffer;			// The receive buffer, shared by the sessions of the loop
+		java.util.function.Consumer<SelectionKey> reader;	// Reads the sessions selected, kept to select without allocating
+
+		SessionLoop() throws IOException {
+			this.selector = Selector.open();
+			this.wheel = new TimerWheel(TICK,WHEEL_SIZE,System.currentTimeMillis());
+			this.pending = new ConcurrentLinkedQueue<TftpTransfer>();
+			this.buffer = ByteBuffer.allocateDirect(4 + TftpTransfer.MAX_BLOCK_SIZE);
+			this.reader = key -> this.read((NioSession)key.attachment());
+		}
+
+		/**
+		 * register method
+		 * This method hands a transfer to the loop, it may be called from any thread
+		 *
+		 * @param transfer The transfer to start
+		 */
+		void register(TftpTransfer transfer) {
+			this.pending.add(transfer);
+			this.selector.wakeup();
+		}
+
+		public void run() {
+			while(true) {
+				try {
+					this.selector.select(this.reader,this.wheel.nextDelay(System.currentTimeMillis()));
+
+					TftpTransfer transfer;
+					while((transfer = this.pending.poll()) != null)
+						this.open(transfer);
+
+					this.wheel.advance(System.currentTimeMillis());
+				} catch(IOException e) {
+					System.out.println("Selector loop error: " + e.getMessage());
+				} catch(RuntimeException e) {
+					// The sessions catch their own errors, the loop keeps running whatever escapes them
+					System.out.println("Selector loop error: " + e);
+				}
+			}
+		}
+
+		/**
+		 * open method
+		 * This method opens the session channel (the TID) of a transfer and starts it
+		 */
+		private void open(TftpTransfer transfer) {
+			NioSession session = new NioSession();
+			session.transfer = transfer;
+			session.loop = this;
+			transfer.config.metrics.transferStarted();
+			try {
+				session.channel = DatagramChannel.open();
+				session.channel.bind(new InetSocketAddress(0));
+				// Once connected, packets from any other TID are dropped by the channel
+				session.channel.connect(new InetSocketAddress(transfer.address,transfer.port));
+				session.channel.configureBlocking(false);
+				session.key = session.channel.register(this.selector,SelectionKey.OP_READ,session);
+
+				transfer.sender = session;
+				transfer.start();
+			} catch(IOException e) {
+				transfer.fail(e.getMessage());
+			} catch(RuntimeException e) {
+				session.abort(e);
+			}
+			this.update(session);
+		}
+
+		/**
+		 * read method
+		 * This method passes every packet waiting on a session channel to its transfer
+		 */
+		private void read(NioSession session) {
+			try {
+				while(!session.transfer.isDone()) {
+					this.buffer.clear();
+					if(session.channel.read(this.buffer) <= 0)
+						break;
+					this.buffer.flip();
+					session.transfer.config.metrics.packetReceived();
+					session.transfer.receive(this.buffer);
+				}
+			} catch(IOException e) {
+				// ICMP port unreachable shows up here once the client is gone
+				session.transfer.fail(e.getMessage());
+			} catch(RuntimeException e) {
+				// A bug in one transfer fails that session, not the loop and the others on it
+				session.abort(e);
+			}
+			this.update(session);
+		}
+
+		/**
+		 * update method
+		 * This method rearms the retransmit timer of a session, or closes it once it is done
+		 */
+		void update(NioSession session) {
+			if(!session.transfer.isDone()) {
+				this.wheel.schedule(session.timer,session.transfer.getTimeout(),System.currentTimeMillis());
+				return;
+			}
+			session.timer.cancel();
+
+			session.transfer.close();
+			session.transfer.config.metrics.transferFinished(session.transfer);
+			session.transfer.config.admission.release(session.transfer);
+			if(session.key != null)
+				session.key.cancel();
+			try {
+				if(session.channel != null)
+					session.channel.close();
+			} catch(IOException e) {
+			}
+			if(session.transfer.failure != null)
+				System.out.println("Transfer of " + session.transfer.filename + " to " +
+					session.transfer.address.getHostAddress() + " failed: " + session.transfer.failure);
+		}
+	}
+}
@@ -0,0 +1,290 @@
+/*
+ * TftpPacket.java
+ *
+ * Author: Shreyas Jayanna
+ *
+ */
+
+// import Statements
+import java.nio.*;
+import java.util.*;
+
+/**
+ * Class TftpPacket
+ * This class encodes and decodes TFTP packets (RFC 1350 and the option extension
+ * of RFC 2347) in place, on ByteBuffers owned by the caller. The DATA, ACK and
+ * decoding methods used during a transfer allocate nothing, so a transfer can
+ * reuse one buffer per packet kind from start to end.
+ * It is shared by the client and the server
+ */
+class TftpPacket {
+
+	static final int RRQ = 1;		// Read request
+	static final int WRQ = 2;		// Write request
+	static final int DATA = 3;		// Data
+	static final int ACK = 4;		// Acknowledgement
+	static final int ERROR = 5;		// Error
+	static final int OACK = 6;		// Option acknowledgement
+
+	// The options the server understands, any other option of a request is skipped
+	// without being decoded
+	static final String[] OPTIONS = { "blksize", "timeout", "tsize", "windowsize", "rollover", "multicast", "offset" };
+
+	/**
+	 * Class Request
+	 * A decoded RRQ or WRQ
+	 */
+	static class Request {
+		int opcode;			// RRQ or WRQ
+		String filename;		// The requested filename
+		String mode;			// The transfer mode, in upper case
+		Map<String,String> options;	// The known options of the request, names in lower case
+	}
+
+	/**
+	 * opcode method
+	 *
+	 * @param packet The packet, starting at its position
+	 *
+	 * @return The opcode, or 0 if the packet is too short
+	 */
+	static int opcode(ByteBuffer packet) {
+		if(packet.remaining() < 2)
+			return 0;
+		return packet.getShort(packet.position()) & 0xFFFF;
+	}
+
+	/**
+	 * block method
+	 * This method reads the block number of a DATA or ACK packet, which is also
+	 * the error code of an ERROR packet
+	 *
+	 * @param packet The packet, starting at its position
+	 *
+	 * @return The block number, or -1 if the packet is too short
+	 */
+	static int block(ByteBuffer packet) {
+		if(packet.remaining() < 4)
+			return -1;
+		return packet.getShort(packet.position() + 2) & 0xFFFF;
+	}
+
+	/**
+	 * errorMessage method
+	 *
+	 * @param packet The ERROR packet, starting at its position
+	 *
+	 * @return The error message
+	 */
+	static String errorMessage(ByteBuffer packet) {
+		int start = packet.position() + 4;
+		return string(packet,start,end(packet,start));
+	}
+
+	/**
+	 * putDataHeader method
+	 * This method clears a buffer and writes the header of a DATA packet,
+	 * the data follows at the position of the buffer
+	 *
+	 * @param dst      The buffer
+	 * @param blockNum The block number
+	 */
+	static void putDataHeader(ByteBuffer dst, int blockNum) {
+		dst.clear();
+		dst.putShort((short)DATA);			// 2 bytes - opcode : 3
+		dst.putShort((short)blockNum);			// 2 bytes - block number
+	}
+
+	/**
+	 * putAck method
+	 * This method fills a buffer with an ACK packet
+	 *
+	 * @param dst      The buffer, at least 4 bytes
+	 * @param blockNum The block number to acknowledge
+	 *
+	 * @return The buffer, ready to be sent
+	 */
+	static ByteBuffer putAck(ByteBuffer dst, int blockNum) {
+		dst.clear();
+		dst.putShort((short)ACK);			// Op code 04 = ACK
+		dst.putShort((short)blockNum);			// Block number
+		dst.flip();
+		return dst;
+	}
+
+	/**
+	 * error method
+	 * This method builds an ERROR packet
+	 *
+	 * @param errorCode The TFTP error code
+	 * @param errorMsg  The error message
+	 *
+	 * @return ByteBuffer containing the packet, ready to be sent
+	 */
+	static ByteBuffer error(int errorCode, String errorMsg) {
+		ByteBuffer buffer = ByteBuffer.allocate(5 + errorMsg.length());
+		buffer.putShort((short)ERROR);			// Op code 05 = ERROR
+		buffer.putShort((short)errorCode);		// Error code
+		putString(buffer,errorMsg);			// Error message, terminated by a 0 byte
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * oack method
+	 * This method builds an OACK packet
+	 *
+	 * @param accepted The accepted options and their values
+	 *
+	 * @return ByteBuffer containing the packet, ready to be sent
+	 */
+	static ByteBuffer oack(Map<String,String> accepted) {
+		int length = 2;
+		for(Map.Entry<String,String> option : accepted.entrySet())
+			length += option.getKey().length() + option.getValue().length() + 2;
+
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		buffer.putShort((short)OACK);			// Op code 06 = OACK
+		putOptions(buffer,accepted);
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * request method
+	 * This method builds a RRQ or WRQ packet
+	 *
+	 * @param opcode   RRQ or WRQ
+	 * @param filename The filename
+	 * @param mode     The transfer mode
+	 * @param options  The options to request, may be empty
+	 *
+	 * @return ByteBuffer containing the packet, ready to be sent
+	 */
+	static ByteBuffer request(int opcode, String filename, String mode, Map<String,String> options) {
+		int length = 4 + filename.length() + mode.length();
+		for(Map.Entry<String,String> option : options.entrySet())
+			length += option.getKey().length() + option.getValue().length() + 2;
+
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		buffer.putShort((short)opcode);
+		putString(buffer,filename);
+		putString(buffer,mode);
+		putOptions(buffer,options);
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * parseRequest method
+	 * This method decodes a RRQ or WRQ packet. Only the strings that are kept are
+	 * created, options the server does not know are skipped in place
+	 *
+	 * @param packet The packet, starting at its position
+	 *
+	 * @return The request, or null if the packet is not a well formed request
+	 */
+	static Request parseRequest(ByteBuffer packet) {
+		int opcode = opcode(packet);
+		if((opcode != RRQ) && (opcode != WRQ))
+			return null;
+
+		Request request = new Request();
+		request.opcode = opcode;
+
+		// Extract filename and mode
+		int start = packet.position() + 2;
+		int end = end(packet,start);
+		request.filename = string(packet,start,end);
+		start = end + 1;
+		end = end(packet,start);
+		request.mode = string(packet,start,end).toUpperCase(Locale.ROOT);
+		if(request.filename.isEmpty())
+			return null;
+
+		// Extract options (RFC 2347), pairs of name and value
+		request.options = new LinkedHashMap<String,String>();
+		start = end + 1;
+		while(start < packet.limit()) {
+			int nameEnd = end(packet,start);
+			int valueEnd = end(packet,nameEnd + 1);
+			for(String option : OPTIONS) {
+				if(equalsIgnoreCase(packet,start,nameEnd,option)) {
+					request.options.put(option,string(packet,nameEnd + 1,valueEnd));
+					break;
+				}
+			}
+			start = valueEnd + 1;
+		}
+		return request;
+	}
+
+	/**
+	 * parseOptions method
+	 * This method decodes the options of an OACK packet
+	 *
+	 * @param packet The OACK packet, starting at its position
+	 *
+	 * @return The options, names in lower case
+	 */
+	static Map<String,String> parseOptions(ByteBuffer packet) {
+		Map<String,String> options = new LinkedHashMap<String,String>();
+		int start = packet.position() + 2;
+		while(start < packet.limit()) {
+			int nameEnd = end(packet,start);
+			int valueEnd = end(packet,nameEnd + 1);
+			options.put(string(packet,start,nameEnd).toLowerCase(Locale.ROOT),string(packet,nameEnd + 1,valueEnd));
+			start = valueEnd + 1;
+		}
+		return options;
+	}
+
+	private static void putOptions(ByteBuffer dst, Map<String,String> options) {
+		for(Map.Entry<String,String> option : options.entrySet()) {
+			putString(dst,option.getKey());
+			putString(dst,option.getValue());
+		}
+	}
+
+	/**
+	 * putString method
+	 * This method writes a string as bytes followed by a 0 byte
+	 */
+	private static void putString(ByteBuffer dst, String value) {
+		for(int i = 0; i < value.length(); ++i)
+			dst.put((byte)value.charAt(i));
+		dst.put((byte)0);
+	}
+
+	/**
+	 * end method
+	 *
+	 * @return The index of the 0 byte ending the string at start, or the limit
+	 *         of the packet if the string is not terminated
+	 */
+	private static int end(ByteBuffer packet, int start) {
+		int index = start;
+		while((index < packet.limit()) && (packet.get(index) != 0))
+			++index;
+		return index;
+	}
+
+	private static String string(ByteBuffer packet, int start, int end) {
+		if(start >= end)
+			return "";
+		char[] chars = new char[end - start];
+		for(int i = 0; i < chars.length; ++i)
+			chars[i] = (char)(packet.get(start + i) & 0xFF);
+		return new String(chars);
+	}
+
+	private static boolean equalsIgnoreCase(ByteBuffer packet, int start, int end, String value) {
+		if(end - start != value.length())
+			return false;
+		for(int i = 0; i < value.length(); ++i) {
+			if(Character.toLowerCase((char)(packet.get(start + i) & 0xFF)) != value.charAt(i))
+				return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,291 @@
+/*
+ * TftpReadTransfer.java
+ *
+ * Author: Shreyas Jayanna
+ *
+ */
+
+// import Statements
+import java.net.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.file.*;
+
+/**
+ * Class TftpReadTransfer
+ * This class serves a RRQ: it sends the file in DATA blocks of the negotiated
+ * block size. With the windowsize option (RFC 7440) a window of blocks is sent
+ * back to back and the next window starts after the last block acknowledged,
+ * so a lost block restarts the window from there.
+ * The file is opened in the Storage of the server and streamed with positional
+ * reads straight into a direct buffer taken from the buffer pool of the server,
+ * so a transfer holds one block in memory whatever the size of the file. Blocks
+ * the storage holds in memory (the FileCache, a mapping, the memory store or the
+ * inflated blocks of an archive) are sent as views, the DATA header is gathered
+ * with them so the file bytes are never copied.
+ * With rate limits configured every block takes its bytes from the RateLimiter
+ * first; a block that has to wait stops the window, and the rest of it is sent
+ * when the timer of the transfer fires, so both engines pace without a thread
+ * sleeping.
+ * A client resuming a download can ask for an offset, the blocks are then
+ * counted from that byte of the file.
+ * In netascii mode the file is read through a NetasciiBlockSource, the blocks,
+ * the offset and the tsize option are then counted in the translated contents
+ */
+class TftpReadTransfer extends TftpTransfer {
+
+	BlockSource source;			// The contents of the file being sent
+	ByteBuffer sendData;			// The DATA packet being framed, reused for every block
+	ByteBuffer header;			// The DATA header sent with a view of the block
+	long size;				// The size of the file past the offset
+	long offset;				// The byte of the file block 1 starts at, from the offset option
+	long lastBlock;				// The number of the last (short) block of the file
+	long block;				// The first block of the window, 0 while the OACK is pending
+	long highestSent;			// The highest block sent so far, blocks up to it are sent again
+
+	RateLimiter.Flow flow;			// The rate limiting state, null without limits
+	long next;				// The next block of the window to send
+	long windowEnd;				// The last block of the window being sent
+	boolean resend;				// True if the window being sent was sent before
+	boolean paced;				// True while the window waits for the rate limits
+
+	TftpReadTransfer(TftpServerConfig config, String filename, String mode, InetAddress address, int port) {
+		super(config,filename,mode,address,port);
+	}
+
+	void start() throws IOException {
+		ByteBuffer oack = this.open();
+		if(this.done)
+			return;
+		if(oack != null) {
+			this.block = 0;
+			this.send(oack);
+			return;
+		}
+
+		this.block = 1;
+		this.sendWindow(false);
+	}
+
+	/**
+	 * open method
+	 * This method opens the file and negotiates the options, a missing or
+	 * unreadable file is answered with an error packet and ends the transfer,
+	 * as is a file the storage fails to open or size for any other reason
+	 *
+	 * @return The OACK packet, or null if no option was accepted
+	 *
+	 * @throws IOException if the error packet cannot be sent
+	 */
+	ByteBuffer open() throws IOException {
+		try {
+			this.source = this.config.storage.open(this.filename,this.address);
+			if(this.netascii)
+				this.source = new NetasciiBlockSource(this.source);
+			this.size = this.source.size();
+		} catch(NoSuchFileException e) {
+			// If file doesn't exist, send error packet to client
+			this.sendError(1,"File not Found");
+			return null;
+		} catch(AccessDeniedException e) {
+			// If file is not accessible, send an error packet
+			this.sendError(2,"Not enough access permission for file");
+			return null;
+		} catch(IOException e) {
+			// The client would otherwise wait for a first block that never comes
+			this.sendError(0,(e.getMessage() != null) ? e.getMessage() : "Cannot read file");
+			return null;
+		}
+
+		// If options were accepted the OACK is sent first, it is acknowledged as block 0
+		ByteBuffer oack = this.negotiate();
+		this.size -= this.offset;
+		this.sendData = this.config.buffers.acquire(4 + this.blockSize);
+		this.header = ByteBuffer.allocateDirect(4);
+		this.lastBlock = this.size / this.blockSize + 1;
+		if(this.rateLimited())
+			this.flow = this.config.limiter.register(this.address);
+		return oack;
+	}
+
+	/**
+	 * rateLimited method
+	 * A transfer to one client takes its blocks from the rate limits, if any are configured
+	 *
+	 * @return true if the blocks of the transfer go through the RateLimiter
+	 */
+	boolean rateLimited() {
+		return this.config.limiter != null;
+	}
+
+	/**
+	 * sizeOption method
+	 * The size reported for a RRQ is the size of the file
+	 */
+	long sizeOption(long requested) {
+		try {
+			return this.source.size();
+		} catch(IOException e) {
+			return requested;
+		}
+	}
+
+	/**
+	 * offsetOption method
+	 * An offset within the file is accepted, the blocks are counted from it
+	 */
+	long offsetOption(long requested) {
+		if((requested < 0) || (requested > this.size))
+			return -1;
+		this.offset = requested;
+		return requested;
+	}
+
+	void receive(ByteBuffer packet) throws IOException {
+		int op = TftpPacket.opcode(packet);
+		if(op == TftpPacket.ERROR) {
+			this.fail("transfer aborted by client");
+			return;
+		}
+		int ack = TftpPacket.block(packet);
+		if(op != TftpPacket.ACK || ack < 0)
+			return;
+
+		if(this.block == 0) {
+			// The OACK was acknowledged, start sending the file
+			if(ack == 0) {
+				this.acknowledged();
+				this.block = 1;
+				this.sendWindow(false);
+			}
+			return;
+		}
+
+		// Find the acknowledged block among the block before the window and the blocks of the window
+		int distance = this.blockDistance(ack,this.block - 1);
+		if((distance > this.windowSize) || (this.block - 1 + distance > this.highestSent))
+			return;		// Stray packet, or an ACK of a block not sent yet
+		if(distance == 0 && this.windowSize == 1)
+			return;		// Duplicate, the timer takes care of losses
+		long acked = this.block - 1 + distance;
+		this.acknowledged();
+		this.bytes = Math.min(acked * this.blockSize,this.size);
+
+		// The last block is shorter than the block size, once it is acknowledged we are done
+		if(acked == this.lastBlock) {
+			this.done = true;
+			return;
+		}
+
+		// Continue after the acknowledged block, blocks of the window after it were lost
+		this.block = acked + 1;
+		this.sendWindow(false);
+	}
+
+	/**
+	 * timeout method
+	 * This method sends the OACK or the current window again, or the rest of a
+	 * window that waited for the rate limits
+	 */
+	void timeout() throws IOException {
+		if(this.paced) {
+			this.sendPaced();
+			return;
+		}
+		if(this.block == 0) {
+			super.timeout();
+			return;
+		}
+		if(!this.retry())
+			return;
+		this.sendWindow(true);
+	}
+
+	void close() {
+		try {
+			if(this.source != null)
+				this.source.close();
+		} catch(IOException e) {
+		}
+		this.config.buffers.release(this.sendData);
+		this.sendData = null;
+		if(this.flow != null)
+			this.config.limiter.unregister(this.flow);
+	}
+
+	/**
+	 * sendWindow method
+	 * This method sends the blocks of the window, starting at the first unacknowledged block
+	 *
+	 * @param retransmission True if the window was sent before
+	 */
+	private void sendWindow(boolean retransmission) throws IOException {
+		this.next = this.block;
+		this.windowEnd = Math.min(this.block + this.windowSize - 1,this.lastBlock);
+		this.resend = retransmission;
+		this.sendPaced();
+	}
+
+	/**
+	 * sendPaced method
+	 * This method sends the blocks of the window left to send as long as the rate
+	 * limits allow, then arms the retransmit timer. A block that has to wait sets
+	 * the timer to the time its bytes are available instead
+	 */
+	private void sendPaced() throws IOException {
+		while(this.next <= this.windowEnd) {
+			if(this.flow != null) {
+				long position = (this.next - 1) * this.blockSize;
+				int length = (int)Math.min(this.blockSize,this.size - position);
+				long now = System.nanoTime();
+				long wait = this.config.limiter.acquire(this.flow,4 + length,this.size - position,now);
+				if(wait > 0) {
+					if(!this.paced)
+						this.config.metrics.throttled.increment();
+					this.paced = true;
+					this.deadline = now + wait;
+					return;
+				}
+			}
+			this.sendBlock(this.next++);
+		}
+		this.paced = false;
+		this.transmitted(this.resend);
+	}
+
+	/**
+	 * sendBlock method
+	 * This method frames a block as a DATA packet and sends it
+	 *
+	 * @param blockNum The number of the block
+	 */
+	void sendBlock(long blockNum) throws IOException {
+		if(blockNum <= this.highestSent)
+			this.config.metrics.retransmits.increment();
+		else
+			this.highestSent = blockNum;
+
+		// A block held in memory is sent as a view behind the header
+		long position = (blockNum - 1) * this.blockSize;
+		int length = (int)Math.min(this.blockSize,this.size - position);
+		position += this.offset;
+		ByteBuffer view = this.source.view(position,length);
+		if(view != null) {
+			TftpPacket.putDataHeader(this.header,this.wireBlock(blockNum));
+			this.header.flip();
+			this.sender.send(this.header,view);
+			return;
+		}
+
+		// Fill the data block with file data, a short read only happens at the end of the file
+		TftpPacket.putDataHeader(this.sendData,this.wireBlock(blockNum));
+		int n;
+		while(this.sendData.hasRemaining() &&
+				(n = this.source.read(this.sendData,position)) > 0)
+			position += n;
+
+		this.sendData.flip();
+
+		this.sender.send(this.sendData);
+	}
+}
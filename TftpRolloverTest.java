@@ -0,0 +1,194 @@
+/*
+ * TftpRolloverTest.java
+ *
+ * Author: Shreyas Jayanna
+ *
+ */
+
+// import Statements
+import java.net.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Class TftpRolloverTest
+ * This class tests the 16 bit block numbers of transfers longer than 65535
+ * blocks, with both rollover values. It checks that the block counts of several
+ * wraps encode into the numbers the rollover prescribes and decode back with
+ * blockDistance, and that the distance across a wrap is the same as anywhere
+ * else. It then downloads and uploads a file of more than 2 x 65536 blocks of
+ * 8 bytes through a loopback server of each engine, asking for each rollover,
+ * and compares the files. Every check that fails is printed, the exit status is
+ * the number of failures
+ * Usage: java TftpRolloverTest
+ */
+class TftpRolloverTest {
+
+	static final int WRAPS = 5;		// Wraps of the block numbers crossed by the encoding checks
+	static final int BLOCK_SIZE = 8;	// The blksize of the loopback transfers, the smallest of RFC 2348
+
+	int failures;				// The checks that failed
+
+	/**
+	 * check method
+	 * This method counts and prints a check that failed
+	 *
+	 * @param ok      The outcome of the check
+	 * @param message What was checked
+	 */
+	void check(boolean ok, String message) {
+		if(ok)
+			return;
+		++this.failures;
+		System.out.println("FAILED: " + message);
+	}
+
+	/**
+	 * testEncoding method
+	 * This method encodes the block counts of several wraps, checks each number
+	 * follows the one before as the rollover prescribes, and decodes them back by
+	 * adding the distance from the block before, the way a receiver keeps count
+	 *
+	 * @param rollover The block number following block 65535, 0 or 1
+	 */
+	void testEncoding(int rollover) throws Exception {
+		TftpTransfer transfer = this.transfer(rollover);
+		long blocks = WRAPS * 65536L + 3;
+		int wraps = 0;
+		int previous = transfer.wireBlock(1);
+		long decoded = 1;
+		this.check(previous == 1,"rollover " + rollover + ": block 1 is sent as " + previous);
+		for(long block = 2; block <= blocks; ++block) {
+			int wire = transfer.wireBlock(block);
+			int expected = (previous == 65535) ? rollover : previous + 1;
+			if(wire != expected) {
+				this.check(false,"rollover " + rollover + ": block " + block + " is sent as " + wire + ", not " + expected);
+				return;
+			}
+			if(wire < previous)
+				++wraps;
+
+			// The receiver only knows the count of the block before
+			decoded += transfer.blockDistance(wire,decoded);
+			if(decoded != block) {
+				this.check(false,"rollover " + rollover + ": block " + block + " decoded as " + decoded);
+				return;
+			}
+			previous = wire;
+		}
+		this.check(wraps >= WRAPS,"rollover " + rollover + ": only " + wraps + " wraps crossed");
+		this.check((rollover == 0) || (transfer.wireBlock(65536) == 1),"rollover 1 sends block 0");
+	}
+
+	/**
+	 * testDistance method
+	 * This method checks the distances of the blocks of a window that straddles
+	 * each wrap, as an ack of the window is matched against the block before it
+	 *
+	 * @param rollover The block number following block 65535, 0 or 1
+	 */
+	void testDistance(int rollover) throws Exception {
+		TftpTransfer transfer = this.transfer(rollover);
+		int modulus = (rollover == 0) ? 65536 : 65535;
+		for(int wrap = 1; wrap <= WRAPS; ++wrap) {
+			long first = (long)wrap * modulus - 32 + rollover;
+			for(int distance = 0; distance <= TftpTransfer.MAX_WINDOW_SIZE; ++distance) {
+				int wire = transfer.wireBlock(first + distance);
+				int measured = transfer.blockDistance(wire,first);
+				this.check(measured == distance,"rollover " + rollover + ": block " + (first + distance) +
+					" is " + measured + " blocks past block " + first + ", not " + distance);
+			}
+
+			// A block just before the window is far ahead, so it is never taken for an ack of the window
+			int behind = transfer.blockDistance(transfer.wireBlock(first - 1),first);
+			this.check(behind == modulus - 1,"rollover " + rollover + ": the block before block " + first +
+				" is " + behind + " blocks past it");
+		}
+	}
+
+	/**
+	 * testTransfer method
+	 * This method downloads and uploads a file of more than two wraps of blocks
+	 * through a loopback server
+	 *
+	 * @param engine   The engine of the server, blocking or nio
+	 * @param rollover The rollover asked for
+	 */
+	void testTransfer(String engine, int rollover) throws Exception {
+		Path directory = Files.createTempDirectory("tftp-rollover");
+		Path file = directory.resolve("wrap.bin");
+		byte[] original = new byte[(2 * 65536 + 100) * BLOCK_SIZE + 3];
+		new Random(rollover).nextBytes(original);
+		Files.write(file,original);
+
+		TftpServerConfig config = TftpServerConfig.parse(new String[]{"-storage","dir:" + directory});
+		int port;
+		if(engine.equals("nio")) {
+			TftpNioServer server = new TftpNioServer(0,1,config);
+			port = server.channel.socket().getLocalPort();
+			this.serve(() -> server.serve());
+		} else {
+			TftpServer server = new TftpServer(0,config);
+			port = server.socket.getLocalPort();
+			this.serve(() -> server.serve());
+		}
+
+		TransferOptions options = new TransferOptions();
+		options.blockSize = BLOCK_SIZE;
+		options.windowSize = 32;
+		options.rollover = rollover;
+		options.requestRollover = true;
+		String host = InetAddress.getLoopbackAddress().getHostAddress() + ":" + port;
+		TftpClientEngine client = new TftpClientEngine(1);
+		try {
+			Path copy = directory.resolve("copy.bin");
+			client.get(host,"wrap.bin",copy.toString(),options).join();
+			this.check(Arrays.equals(Files.readAllBytes(copy),original),
+				engine + " rollover " + rollover + ": downloaded file differs");
+			client.put(host,"uploaded.bin",file.toString(),options).join();
+			this.check(Arrays.equals(Files.readAllBytes(directory.resolve("uploaded.bin")),original),
+				engine + " rollover " + rollover + ": uploaded file differs");
+		} catch(Exception e) {
+			this.check(false,engine + " rollover " + rollover + ": " + e.getMessage());
+		} finally {
+			client.close();
+		}
+	}
+
+	/**
+	 * Interface Server
+	 * The serve method of an engine
+	 */
+	interface Server {
+		void serve() throws Exception;
+	}
+
+	private void serve(Server server) {
+		Thread thread = new Thread(() -> {
+			try {
+				server.serve();
+			} catch(Exception e) {
+			}
+		},"rollover-server");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private TftpTransfer transfer(int rollover) throws Exception {
+		TftpServerConfig config = new TftpServerConfig();
+		config.rollover = rollover;
+		return new TftpReadTransfer(config,"wrap.bin","OCTET",InetAddress.getLoopbackAddress(),69);
+	}
+
+	public static void main(String[] args) throws Exception {
+		TftpRolloverTest test = new TftpRolloverTest();
+		for(int rollover = 0; rollover <= 1; ++rollover) {
+			test.testEncoding(rollover);
+			test.testDistance(rollover);
+		}
+		test.testTransfer("blocking",0);
+		test.testTransfer("nio",1);
+		System.out.println(test.failures == 0 ? "All rollover tests passed" : test.failures + " checks failed");
+		System.exit(test.failures);
+	}
+}
@@ -1,185 +1,103 @@
 import java.net.*;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.nio.*;
 import java.nio.file.*;
 
-class TftpServer {
+class TftpServer implements AdmissionControl.Listener {
 
 	DatagramSocket socket;
 	DatagramPacket packet;
 
+	ExecutorService sessions;		// Runs one TftpSession per transfer
+	TftpServerConfig config;		// The server settings
+
 	int port;
 
-	TftpServer(int localPort) throws Exception{
+	TftpServer(int localPort, TftpServerConfig config) throws Exception{
 		this.port = localPort;
+		this.config = config;
 		this.socket = new DatagramSocket(localPort);
+		this.sessions = Executors.newCachedThreadPool();
+		this.config.admission.listener = this;
 	}
 
+	/**
+	 * serve method
+	 * The listening socket only parses RRQ/WRQ packets; each request is handed to
+	 * a TftpSession with its own socket (TID), so transfers never block each other
+	 */
 	public void serve() throws Exception {
-	
+		// The receive buffer and packet are reused, the request is parsed before the next receive
+		byte[] buffer = new byte[516];
+		ByteBuffer request = ByteBuffer.wrap(buffer);
+		this.packet = new DatagramPacket(buffer,buffer.length);
+
 		while(true) {
-			byte[] buffer = new byte[516];
-			this.packet = new DatagramPacket(buffer,buffer.length);
-
-			this.socket.receive(packet);
-			
-			buffer = packet.getData();
-			
-			int op = buffer[0] << 8 | buffer[1];
-
-			if(op == 1)
-				this.sendFile(buffer);
-			else if(op == 2)
-				this.writeFile(buffer);
+			this.packet.setLength(buffer.length);
+			this.socket.receive(this.packet);
+			request.clear().limit(this.packet.getLength());
+
+			int op = TftpPacket.opcode(request);
+			this.config.metrics.request(op);
+
+			if(op == TftpPacket.RRQ || op == TftpPacket.WRQ)
+				this.dispatch(request);
+			else
+				TftpSession.sendErrorPacket(this.socket,packet.getAddress(),packet.getPort(),
+					4,"Illegal TFTP operation",this.config.metrics);
 		}
 	}
 
-	private void sendFile(byte[] byteData) throws Exception {
-		ByteArrayInputStream buffer = new ByteArrayInputStream(byteData);
-		// No need to read the op code
-		buffer.read(); buffer.read();
-		
-		// Extract filename
-		int c;
-		String filename = "";
-		while((c = buffer.read()) != 0) {
-			filename += Character.toString((char)c);
-		}
+	private void dispatch(ByteBuffer request) throws Exception {
+		TftpTransfer transfer = createTransfer(this.config,request,packet.getAddress(),packet.getPort());
 
-		// Extract mode
-		String mode = "";
-		while((c = buffer.read()) != 0) {
-			mode += Character.toUpperCase((char)c);
+		if(transfer == null) {
+			TftpSession.sendErrorPacket(this.socket,packet.getAddress(),packet.getPort(),
+				4,"Missing filename",this.config.metrics);
+			return;
 		}
 
-		// Create new file object
-		File aFile = new File(filename);
-		// Check if file exists
-		if(!aFile.exists()) {
-			// If file doesn't exist, send error packet to client
-			// and terminate the connection
-			this.sendErrorPacket(1,"File not Found");
-			this.terminateConnection();	
-		}
-
-		// If file is accessible, send the file
-		if(this.checkFileAccessibility(aFile,"READ")) {
-			Path path = Paths.get(filename);		// Get file path
-			byte[] fileData = Files.readAllBytes(path);	// Read file contents into a byte array
-			
-			int iteration = fileData.length;
-			int block = 0;
-
-			// Fill byte array with opcode, block number and file data
-			// Create packet with byte array and send it to client
-			while(iteration > -1) {
-				byte[] sendData;
-				if((iteration / 512) > 0)
-					sendData = new byte[4+512];
-				else
-					sendData = new byte[4+iteration];
-
-				// 2 bytes - opcode : 3
-				Arrays.fill(sendData,0,1,(byte)3);
-				// 2 bytes - block number
-				Arrays.fill(sendData,2,3,(byte)(block+1));
-
-				// Fill the data block with file data 
-				for(int i = 4; i < (sendData.length - 4); ++i) {
-					sendData[i] = fileData[ (block*512) + (i-4) ];
-				}
-
-				InetAddress address = this.packet.getAddress();		// Get client's IP address
-				int toPort = this.packet.getPort();			// Get client's port number
-
-				// Create new packet with file data and send it through the socket
-				this.packet = new DatagramPacket(sendData,sendData.length,address,port);
-				this.socket.send(this.packet);
-
-				wait for an acknowledgement
-				boolean receivedAck = false;
-				this.socket.setSoTimeout(2000);
-				try {
-					byte[] receivedData = new byte[4];
-					this.packet = new DatagramPacket(receivedData,receivedData.length);
-					this.socket.receive(this.packet);
-					
-					
-
-				} catch(SocketTimeoutException e) {
-					receivedAck = false;
-				}
-				
-				if(receivedAck) {
-					++block;			// Increment block number
-					iteration -= 512;
-				}
-			}
-
-			aFile.close();
-
-		} else {
-			// If file is not accessible, send an error packet and terminate the connection
-			this.sendErrorPacket(2,"Not enough access permission for file");
-			this.terminateConnection();
-		}
+		// A RRQ with the multicast option joins the running session of its file
+		if(TftpMulticastTransfer.join(transfer))
+			return;
+		this.config.admission.admit(transfer);
 	}
 
-	private void writeFile(byte[] buffer) throws Exception {
-		ByteArrayInputStream buffer = new ByteArrayInputStream(byteData);
-		// No need to read the op code
-		buffer.read(); buffer.read();
-		
-		// Extract filename
-		int c;
-		String filename = "";
-		while((c = buffer.read()) != 0) {
-			filename += Character.toString((char)c);
-		}
-
-		// Extract mode
-		String mode = "";
-		while((c = buffer.read()) != 0) {
-			mode += Character.toUpperCase((char)c);
-		}
-
-		// Create new file object
-		File aFile = new File(filename);
-		// Check if file exists
-		if(aFile.exists()) {
-			// If file exists, send error packet to client
-			// and terminate the connection
-			this.sendErrorPacket(6,"File Already exists");
-			this.terminateConnection();	
-		}
-		
-		
+	public void start(TftpTransfer transfer) throws IOException {
+		this.sessions.execute(new TftpSession(transfer));
 	}
 
-	private void sendErrorPacket(int errorCode, String errorMsg) throws Exception {
-		InetAddress address = this.packet.getAddress();		// Get client's IP address
-		int toPort = this.packet.getPort();			// Get client's port number
-
-		byte[] buffer = new byte[5 + errorMsg.length()];				// Create new byte array
-
-		Arrays.fill(buffer,0,1,(byte)05);			// Fill byte array with op code 05 = ERROR
-		Arrays.fill(buffer,2,3,(byte)errorCode);		// Fill byte array with error code
-
-		// Fill byte array with error message
-		int msgLen = errorMsg.length();
-		int fromIndex = 4;
-		for(int i = 0; i < msgLen; ++i) {
-			char c = errorMsg.charAt(i);
-			Arrays.fill(buffer,fromIndex,fromIndex+1,(byte)c);
-			++fromIndex;
-		}
+	public void reject(TftpTransfer transfer, String message) throws IOException {
+		TftpSession.sendErrorPacket(this.socket,transfer.address,transfer.port,0,message,this.config.metrics);
+	}
 
-		Arrays.fill(buffer,fromIndex,fromIndex+1,(byte)0);	// Fill last byte with 0's
-		
-		// Create new error packet as datagram packet with client's IP address and port number
-		this.packet = new DatagramPacket(buffer,buffer.length,address,toPort);
-		this.socket.send(this.packet);				// Send the datagram packet to client
-	} // End of sendErrorPacket
+	/**
+	 * createTransfer method
+	 * This method parses a RRQ/WRQ packet with its options and creates the matching transfer
+	 * It is shared by both server engines
+	 *
+	 * @param config  The server settings
+	 * @param request The request packet
+	 * @param address The IP Address of the client
+	 * @param port    The port number of the client
+	 *
+	 * @return The transfer, or null if the request is malformed
+	 */
+	static TftpTransfer createTransfer(TftpServerConfig config, ByteBuffer request, InetAddress address, int port) {
+		TftpPacket.Request parsed = TftpPacket.parseRequest(request);
+		if(parsed == null)
+			return null;
+
+		TftpTransfer transfer;
+		if(parsed.opcode == TftpPacket.RRQ)
+			transfer = new TftpReadTransfer(config,parsed.filename,parsed.mode,address,port);
+		else
+			transfer = new TftpWriteTransfer(config,parsed.filename,parsed.mode,address,port);
+		transfer.options = parsed.options;
+		return transfer;
+	}
 
 	private String getCommand() throws IOException {
 		BufferedReader br = new BufferedReader(new InputStreamReader(System.in));
@@ -187,28 +105,47 @@ class TftpServer {
 		return input;
 	}
 
-	private boolean checkFileAccessibility(File aFile, String accessType) {
-		if(accessType.equals("Read"))				
-			return aFile.canRead();				// Return true if file is readable
-		else if(accessType.equals("Write"))
-			return aFile.canRead() & aFile.canWrite();	// Return true if file is both readable and writable
-		else return false;
-	}
-
-	private void terminateConnection() throws Exception {
-		this.socket.close();				// Close current socket
-		this.socket = new DatagramSocket(this.port);	// Create new socket at the original port
-	}
-
 	public static void main(String[] args) throws Exception{
 
-		int port = Integer.parseInt(args[0]);
+		if(args.length < 1) {
+			System.out.println("Usage: java TftpServer <port> [nio [threads]] [-rollover 0|1]");
+			System.out.println("       [-timeout ms] [-mintimeout ms] [-maxtimeout ms] [-retries n]");
+			System.out.println("       [-sync none|file|MB] [-cache MB [-cachefile MB]] [-mmap off|MB]");
+			System.out.println("       [-storage dir:path|memory[:path]|archive:path [-blockcache MB]]");
+			System.out.println("       [-route regex=template ... [-routettl s]]");
+			System.out.println("       [-transport socket|channel] [-ratelimit kB/s] [-clientlimit kB/s]");
+			System.out.println("       [-transferlimit kB/s] [-multicast group:port [-multicastif name] [-multicastttl n]]");
+			System.out.println("       [-maxsessions n] [-maxperclient n] [-queue n] [-queuewait ms]");
+			System.out.println("       [-metrics port] [-metricsfile path [-metricsinterval s]]");
+			System.exit(1);
+		}
 
-		TftpServer server = new TftpServer(port);
+		int port = Integer.parseInt(args[0]);
+		TftpServerConfig config = TftpServerConfig.parse(args);
 
 		InetAddress address = InetAddress.getLocalHost();
 
-		System.out.println("TFTP server listening at " + address.getHostAddress() + 
+		// The metrics are always in JMX, HTTP and the file dump are optional
+		config.metrics.registerMBean();
+		if(config.metricsPort > 0)
+			config.metrics.startHttp(config.metricsPort);
+		if(config.metricsFile != null)
+			config.metrics.startDump(Paths.get(config.metricsFile),config.metricsInterval);
+
+		// The nio engine multiplexes all sessions over a few selector threads
+		if(args.length > 1 && args[1].equals("nio")) {
+			int threads = (args.length > 2) && !args[2].startsWith("-") ? Integer.parseInt(args[2]) :
+				Runtime.getRuntime().availableProcessors();
+			TftpNioServer server = new TftpNioServer(port,threads,config);
+			System.out.println("TFTP server listening at " + address.getHostAddress() +
+				" : " + port + " (nio, " + threads + " threads)");
+			server.serve();
+			return;
+		}
+
+		TftpServer server = new TftpServer(port,config);
+
+		System.out.println("TFTP server listening at " + address.getHostAddress() +
 			" : " + server.socket.getLocalPort());
 
 		server.serve();
@@ -0,0 +1,181 @@
+/*
+ * TftpServerConfig.java
+ *
+ * Author: Shreyas Jayanna
+ *
+ */
+
+// import Statements
+import java.net.*;
+import java.io.*;
+import java.util.*;
+
+/**
+ * Class TftpServerConfig
+ * This class holds the settings of a server, shared by both engines and all of
+ * their transfers. The defaults are the RFC 1350 behaviour
+ */
+class TftpServerConfig {
+
+	int rollover = 0;			// The block number following block 65535, 0 or 1
+
+	int initialTimeout = 1000;		// Retransmit timeout in ms until the round trip time is measured
+	int minTimeout = 50;			// Lower bound of the adaptive retransmit timeout in ms
+	int maxTimeout = 10000;			// Upper bound of the adaptive retransmit timeout in ms
+	int maxRetries = 5;			// Retransmissions before a transfer is abandoned
+
+	int writeBufferSize = 256 * 1024;	// Uploads are written to disk in chunks of this size
+	boolean syncOnClose = true;		// Sync an upload to disk before it is renamed into place
+	long syncInterval = 0;			// Also sync an upload every this many bytes, 0 to sync only at the end
+
+	Storage storage = new DirectoryStorage(this);	// Where the files are read from and written to
+	long blockCacheSize = 32L * 1024 * 1024;	// The inflated blocks of a compressed archive cached, in bytes
+	FileCache cache;			// The cache of hot files, null if files are always read from disk
+	long mapThreshold = 1024 * 1024;	// Files not cached from this size on are sent from a mapping, -1 for never
+	String transport = "socket";		// The transport of the blocking engine sessions, socket or channel
+	RateLimiter limiter;			// The bandwidth limits of DATA packets, null without limits
+	BufferPool buffers = new BufferPool(64L * 1024 * 1024);	// Recycles the direct buffers of transfers
+
+	InetSocketAddress multicastGroup;	// The group of the first multicast session (RFC 2090), null to serve unicast only
+	NetworkInterface multicastInterface;	// The interface multicast packets are sent from, null for the default route
+	int multicastTtl = 1;			// The time to live of multicast packets
+	Map<String,TftpMulticastTransfer> multicastSessions = new HashMap<String,TftpMulticastTransfer>();	// The running sessions
+
+	TftpMetrics metrics = new TftpMetrics();	// The counters of the server
+	int metricsPort;			// The port of the HTTP metrics endpoint, 0 for none
+	String metricsFile;			// The file the metrics are dumped to, null for none
+	long metricsInterval = 10;		// The interval of the metrics dump in seconds
+
+	AdmissionControl admission = new AdmissionControl(this.metrics);	// Bounds the sessions, created after the metrics it counts in
+
+	/**
+	 * parse method
+	 * This method reads the settings from the command line
+	 * Arguments it does not know are left for the caller
+	 *
+	 * @param args The command line arguments
+	 *
+	 * @return The settings
+	 */
+	static TftpServerConfig parse(String[] args) {
+		TftpServerConfig config = new TftpServerConfig();
+		long cacheSize = 0;
+		long cacheMaxFile = 0;
+		long globalRate = 0;
+		long clientRate = 0;
+		long transferRate = 0;
+		String storage = null;
+		long routeTtl = 10;
+		List<String> routes = new ArrayList<String>();
+		for(int i = 0; i < args.length - 1; ++i) {
+			if(args[i].equals("-rollover")) {
+				config.rollover = Integer.parseInt(args[i+1]);
+				if((config.rollover != 0) && (config.rollover != 1))
+					throw new IllegalArgumentException("-rollover must be 0 or 1");
+			} else if(args[i].equals("-timeout")) {
+				config.initialTimeout = Integer.parseInt(args[i+1]);
+			} else if(args[i].equals("-mintimeout")) {
+				config.minTimeout = Integer.parseInt(args[i+1]);
+			} else if(args[i].equals("-maxtimeout")) {
+				config.maxTimeout = Integer.parseInt(args[i+1]);
+			} else if(args[i].equals("-retries")) {
+				config.maxRetries = Integer.parseInt(args[i+1]);
+			} else if(args[i].equals("-sync")) {
+				// none, file (once per upload) or a number of MB to sync every N MB
+				if(args[i+1].equals("none")) {
+					config.syncOnClose = false;
+				} else if(!args[i+1].equals("file")) {
+					config.syncInterval = Long.parseLong(args[i+1]) * 1024 * 1024;
+				}
+			} else if(args[i].equals("-mmap")) {
+				// off, or the size in MB from which files are mapped
+				config.mapThreshold = args[i+1].equals("off") ? -1 : Long.parseLong(args[i+1]) * 1024 * 1024;
+			} else if(args[i].equals("-transport")) {
+				config.transport = args[i+1];
+				if(!config.transport.equals("socket") && !config.transport.equals("channel"))
+					throw new IllegalArgumentException("-transport must be socket or channel");
+			} else if(args[i].equals("-ratelimit")) {
+				globalRate = Long.parseLong(args[i+1]) * 1000;
+			} else if(args[i].equals("-clientlimit")) {
+				clientRate = Long.parseLong(args[i+1]) * 1000;
+			} else if(args[i].equals("-transferlimit")) {
+				transferRate = Long.parseLong(args[i+1]) * 1000;
+			} else if(args[i].equals("-multicast")) {
+				// The group address and the port of the first session, the next sessions take the next ports
+				String[] group = args[i+1].split(":");
+				config.multicastGroup = new InetSocketAddress(group[0],group.length > 1 ? Integer.parseInt(group[1]) : 1758);
+				if(!config.multicastGroup.getAddress().isMulticastAddress())
+					throw new IllegalArgumentException("-multicast needs a multicast address");
+			} else if(args[i].equals("-multicastif")) {
+				try {
+					config.multicastInterface = NetworkInterface.getByName(args[i+1]);
+				} catch(SocketException e) {
+					config.multicastInterface = null;
+				}
+				if(config.multicastInterface == null)
+					throw new IllegalArgumentException("Unknown interface " + args[i+1]);
+			} else if(args[i].equals("-multicastttl")) {
+				config.multicastTtl = Integer.parseInt(args[i+1]);
+			} else if(args[i].equals("-storage")) {
+				// dir:path, memory, memory:path or archive:path
+				storage = args[i+1];
+			} else if(args[i].equals("-route")) {
+				// A pattern of filenames and the template they are rendered from, may be repeated
+				routes.add(args[i+1]);
+			} else if(args[i].equals("-routettl")) {
+				routeTtl = Long.parseLong(args[i+1]);
+			} else if(args[i].equals("-blockcache")) {
+				config.blockCacheSize = Long.parseLong(args[i+1]) * 1024 * 1024;
+			} else if(args[i].equals("-cache")) {
+				cacheSize = Long.parseLong(args[i+1]) * 1024 * 1024;
+			} else if(args[i].equals("-cachefile")) {
+				cacheMaxFile = Long.parseLong(args[i+1]) * 1024 * 1024;
+			} else if(args[i].equals("-maxsessions")) {
+				config.admission.maxSessions = Integer.parseInt(args[i+1]);
+			} else if(args[i].equals("-maxperclient")) {
+				config.admission.maxPerClient = Integer.parseInt(args[i+1]);
+			} else if(args[i].equals("-queue")) {
+				config.admission.maxQueued = Integer.parseInt(args[i+1]);
+			} else if(args[i].equals("-queuewait")) {
+				config.admission.queueWait = Long.parseLong(args[i+1]);
+			} else if(args[i].equals("-metrics")) {
+				config.metricsPort = Integer.parseInt(args[i+1]);
+			} else if(args[i].equals("-metricsfile")) {
+				config.metricsFile = args[i+1];
+			} else if(args[i].equals("-metricsinterval")) {
+				config.metricsInterval = Long.parseLong(args[i+1]);
+			}
+		}
+
+		// The limits are in kB/s on the command line
+		if((globalRate > 0) || (clientRate > 0) || (transferRate > 0))
+			config.limiter = new RateLimiter(globalRate,clientRate,transferRate);
+
+		// By default a file may take up to a quarter of the cache
+		if(cacheSize > 0)
+			config.cache = new FileCache(cacheSize,cacheMaxFile > 0 ? cacheMaxFile : cacheSize / 4);
+
+		// The store is opened last, an archive needs the size of its block cache
+		if(storage != null) {
+			try {
+				config.storage = Storage.open(storage,config);
+			} catch(IOException e) {
+				throw new IllegalArgumentException("Cannot open storage " + storage + ": " + e.getMessage());
+			}
+		}
+
+		// The routes are in front of the store, their templates are read from it
+		if(!routes.isEmpty()) {
+			ContentRouter router = new ContentRouter(config.storage,routeTtl * 1000);
+			for(String route : routes) {
+				// The pattern may contain =, the template name follows the last one
+				int equals = route.lastIndexOf('=');
+				if(equals <= 0)
+					throw new IllegalArgumentException("-route needs regex=template");
+				router.add(route.substring(0,equals),route.substring(equals + 1),null);
+			}
+			config.storage = router;
+		}
+		return config;
+	}
+}
@@ -0,0 +1,144 @@
+/*
+ * TftpSession.java
+ *
+ * Author: Shreyas Jayanna
+ *
+ */
+
+// import Statements
+import java.net.*;
+import java.io.*;
+import java.nio.*;
+
+/**
+ * Class TftpSession
+ * This class handles a single RRQ or WRQ handed over by the TftpServer listener.
+ * Every session opens its own transport on an ephemeral port, which is the server's
+ * transfer ID (TID) for this transfer as described in RFC 1350, so the listening
+ * port stays free for new requests while the transfer is running.
+ * The session blocks on its transport and drives a TftpTransfer
+ */
+class TftpSession implements Runnable, TftpTransfer.PacketSender {
+
+	Transport transport;			// The session transport, bound to an ephemeral port
+	TftpTransfer transfer;			// The protocol state of the transfer
+	InetSocketAddress client;		// The address and TID of the client
+
+	/**
+	 * TftpSession method
+	 * This is the constructor of the class and it opens the session transport
+	 *
+	 * @param transfer The transfer to drive
+	 *
+	 * @throws IOException
+	 */
+	TftpSession(TftpTransfer transfer) throws IOException {
+		this.transfer = transfer;
+		this.transport = Transport.open(transfer.config.transport,0);	// Bind to any free port, this is our TID
+		this.client = new InetSocketAddress(transfer.address,transfer.port);
+		this.transfer.sender = this;
+	}
+
+	/**
+	 * run method
+	 * This method serves the request and closes the session transport when done
+	 */
+	public void run() {
+		TftpMetrics metrics = this.transfer.config.metrics;
+		metrics.transferStarted();
+		try {
+			this.transfer.start();
+
+			ByteBuffer received = ByteBuffer.allocate(4 + this.transfer.blockSize);
+			while(!this.transfer.isDone()) {
+				InetSocketAddress from = this.transport.receive(received,this.transfer.getTimeout());
+				if(from == null) {
+					this.transfer.timeout();
+					continue;
+				}
+
+				// Packets from any other TID are answered with an error packet and ignored
+				if(!from.equals(this.client)) {
+					this.transport.send(TftpPacket.error(5,"Unknown transfer ID"),from);
+					metrics.error(5);
+					continue;
+				}
+				metrics.packetReceived();
+				this.transfer.receive(received);
+			}
+		} catch(Exception e) {
+			this.transfer.fail(e.getMessage());
+		} finally {
+			this.transfer.close();
+			this.terminateConnection();
+			metrics.transferFinished(this.transfer);
+			this.transfer.config.admission.release(this.transfer);
+		}
+		if(this.transfer.failure != null)
+			System.out.println("Transfer of " + this.transfer.filename + " to " +
+				this.transfer.address.getHostAddress() + " failed: " + this.transfer.failure);
+	}
+
+	/**
+	 * send method
+	 * This method sends a packet of the transfer to the client
+	 *
+	 * @param packet The packet to send
+	 *
+	 * @throws IOException
+	 */
+	public void send(ByteBuffer packet) throws IOException {
+		this.transport.send(packet,this.client);
+		this.transfer.config.metrics.packetSent();
+	}
+
+	/**
+	 * send method
+	 * This method sends a packet made of a header and data
+	 *
+	 * @param header The packet header
+	 * @param data   The packet data
+	 *
+	 * @throws IOException
+	 */
+	public void send(ByteBuffer header, ByteBuffer data) throws IOException {
+		this.transport.send(header,data,this.client);
+		this.transfer.config.metrics.packetSent();
+	}
+
+	/**
+	 * sendErrorPacket method
+	 * This method sends an error packet through the given socket
+	 * It is shared with the TftpServer listener, which has no session to reply from
+	 *
+	 * @param socket    The socket to send the packet through
+	 * @param address   The IP Address of the client
+	 * @param toPort    The port number of the client
+	 * @param errorCode The TFTP error code
+	 * @param errorMsg  The error message
+	 * @param metrics   The metrics of the server, the error is counted
+	 *
+	 * @throws IOException
+	 */
+	static void sendErrorPacket(DatagramSocket socket, InetAddress address, int toPort,
+			int errorCode, String errorMsg, TftpMetrics metrics) throws IOException {
+		ByteBuffer buffer = TftpPacket.error(errorCode,errorMsg);
+
+		// Create new error packet as datagram packet with client's IP address and port number
+		DatagramPacket packet = new DatagramPacket(buffer.array(),buffer.limit(),address,toPort);
+		socket.send(packet);					// Send the datagram packet to client
+		metrics.error(errorCode);
+	} // End of sendErrorPacket
+
+	/**
+	 * terminateConnection method
+	 * This method closes the session transport, which releases the TID
+	 * The listening socket of the server is not touched
+	 */
+	private void terminateConnection() {
+		try {
+			this.transport.close();
+		} catch(IOException e) {
+		}
+	}
+}
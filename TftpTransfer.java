@@ -0,0 +1,385 @@
+/*
+ * TftpTransfer.java
+ *
+ * Author: Shreyas Jayanna
+ *
+ */
+
+// import Statements
+import java.net.*;
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+
+/**
+ * Class TftpTransfer
+ * This class holds the protocol state of one transfer, independent of how packets
+ * are moved. A server engine feeds it the packets received on the session TID and
+ * tells it when the retransmit timer fires; the transfer answers through its
+ * PacketSender. The blocking TftpSession and the selector based TftpNioServer
+ * both drive the same transfers
+ */
+abstract class TftpTransfer {
+
+	/**
+	 * Interface PacketSender
+	 * Sends one packet to the client of the transfer
+	 */
+	interface PacketSender {
+		void send(ByteBuffer packet) throws IOException;
+
+		/**
+		 * send method
+		 * This method sends one packet made of a header and data, engines that can
+		 * gather the two into a datagram send them without copying
+		 *
+		 * @param header The packet header
+		 * @param data   The packet data
+		 *
+		 * @throws IOException
+		 */
+		default void send(ByteBuffer header, ByteBuffer data) throws IOException {
+			ByteBuffer packet = ByteBuffer.allocate(header.remaining() + data.remaining());
+			packet.put(header).put(data).flip();
+			this.send(packet);
+		}
+	}
+
+	static final int BLOCK_SIZE = 512;	// Default block size of RFC 1350
+	static final int MIN_BLOCK_SIZE = 8;	// Smallest blksize of RFC 2348
+	static final int MAX_BLOCK_SIZE = 65464;// Largest blksize of RFC 2348
+	static final int MAX_WINDOW_SIZE = 64;	// Largest windowsize (RFC 7440) the server accepts
+
+	TftpServerConfig config;		// The server settings
+
+	InetAddress address;			// The IP Address of the client
+	int port;				// The port number (TID) of the client
+
+	String filename;			// The requested filename
+	String mode;				// The requested transfer mode
+	boolean netascii;			// True in netascii mode, the data is translated on the way
+	Map<String,String> options;		// The options of the request, names in lower case
+
+	int blockSize = BLOCK_SIZE;		// The negotiated block size
+	int windowSize = 1;			// The negotiated number of blocks sent per acknowledgement
+	int rollover;				// The block number following block 65535, 0 or 1
+	long transferSize = -1;			// The file size of the tsize option (RFC 2349), -1 without it
+
+	PacketSender sender;			// Sends packets to the client
+	ByteBuffer lastPacket;			// The last packet sent, kept for retransmission
+
+	RttEstimator rtt;			// Round trip time and retransmit timeout of the client
+	long sentTime;				// When the packets waiting for an acknowledgement were sent, in ns
+	boolean retransmitted;			// True if they were sent again, their round trip is not measured
+	long deadline;				// When the retransmit timer expires, in ns
+
+	int retries;				// Retransmissions of the last packet so far
+	long startTime;				// When the transfer was created, in ns
+	long bytes;				// File bytes transferred so far
+	boolean done;				// True once the transfer is over
+	String failure;				// Why the transfer failed, null on success
+
+	/**
+	 * TftpTransfer method
+	 * This is the constructor of the class
+	 *
+	 * @param config   The server settings
+	 * @param filename The requested filename
+	 * @param mode     The requested transfer mode
+	 * @param address  The IP Address of the client
+	 * @param port     The port number of the client
+	 */
+	TftpTransfer(TftpServerConfig config, String filename, String mode, InetAddress address, int port) {
+		this.config = config;
+		this.rollover = config.rollover;
+		this.filename = filename;
+		this.mode = mode;
+		this.netascii = "NETASCII".equals(mode);
+		this.address = address;
+		this.port = port;
+		this.options = new LinkedHashMap<String,String>();
+		this.rtt = new RttEstimator(config.initialTimeout,config.minTimeout,config.maxTimeout);
+		this.startTime = System.nanoTime();
+	}
+
+	/**
+	 * start method
+	 * This method is called once the session TID is open and sends the first packet
+	 *
+	 * @throws IOException
+	 */
+	abstract void start() throws IOException;
+
+	/**
+	 * receive method
+	 * This method processes a packet received from the client
+	 *
+	 * @param packet The received packet, only valid for the duration of the call
+	 *
+	 * @throws IOException
+	 */
+	abstract void receive(ByteBuffer packet) throws IOException;
+
+	/**
+	 * timeout method
+	 * This method is called when the retransmit timer expired
+	 * The timeout is backed off and the last packet is sent again, until the
+	 * configured number of retries is exceeded
+	 *
+	 * @throws IOException
+	 */
+	void timeout() throws IOException {
+		if(!this.retry())
+			return;
+		if(this.lastPacket != null) {
+			this.sender.send(this.lastPacket.rewind());
+			this.config.metrics.retransmits.increment();
+		}
+		this.transmitted(true);
+	}
+
+	/**
+	 * retry method
+	 * This method counts a retransmission and backs off the timeout
+	 *
+	 * @return false if the transfer was abandoned
+	 */
+	boolean retry() {
+		this.config.metrics.timeouts.increment();
+		if(++this.retries > this.config.maxRetries) {
+			this.fail("timed out");
+			return false;
+		}
+		this.rtt.backoff();
+		return true;
+	}
+
+	/**
+	 * transmitted method
+	 * This method arms the retransmit timer after packets were sent
+	 *
+	 * @param retransmission True if the packets were sent before
+	 */
+	void transmitted(boolean retransmission) {
+		long now = System.nanoTime();
+		if(retransmission) {
+			this.retransmitted = true;
+		} else {
+			this.sentTime = now;
+			this.retransmitted = false;
+		}
+		this.deadline = now + this.rtt.getTimeout() * 1000000L;
+	}
+
+	/**
+	 * acknowledged method
+	 * This method measures the round trip time of the packets just acknowledged,
+	 * unless they were retransmitted, and resets the retry count
+	 */
+	void acknowledged() {
+		if(!this.retransmitted)
+			this.rtt.sample(System.nanoTime() - this.sentTime);
+		this.retries = 0;
+	}
+
+	/**
+	 * getTimeout method
+	 *
+	 * @return The time in ms until the retransmit timer expires, at least 1
+	 */
+	int getTimeout() {
+		return (int)Math.max(1,(this.deadline - System.nanoTime() + 999999) / 1000000);
+	}
+
+	/**
+	 * negotiate method
+	 * This method accepts the requested options the server supports (RFC 2347)
+	 * and builds the OACK packet listing them
+	 *
+	 * @return The OACK packet, or null if no option was accepted
+	 */
+	ByteBuffer negotiate() {
+		Map<String,String> accepted = new LinkedHashMap<String,String>();
+
+		String blksize = this.options.get("blksize");
+		if(blksize != null) {
+			try {
+				int size = Integer.parseInt(blksize);
+				if(size >= MIN_BLOCK_SIZE) {
+					this.blockSize = Math.min(size,MAX_BLOCK_SIZE);
+					accepted.put("blksize",Integer.toString(this.blockSize));
+				}
+			} catch(NumberFormatException e) {
+				// An unusable option is ignored, the default block size is kept
+			}
+		}
+
+		String windowsize = this.options.get("windowsize");
+		if(windowsize != null) {
+			try {
+				int size = Integer.parseInt(windowsize);
+				if(size >= 1) {
+					this.windowSize = Math.min(size,MAX_WINDOW_SIZE);
+					accepted.put("windowsize",Integer.toString(this.windowSize));
+				}
+			} catch(NumberFormatException e) {
+				// An unusable option is ignored, lock-step transfer is kept
+			}
+		}
+
+		// The timeout option (RFC 2349) replaces the adaptive timeout with a fixed one
+		String timeout = this.options.get("timeout");
+		if(timeout != null) {
+			try {
+				int seconds = Integer.parseInt(timeout);
+				if((seconds >= 1) && (seconds <= 255)) {
+					this.rtt.setFixed(seconds * 1000);
+					accepted.put("timeout",timeout);
+				}
+			} catch(NumberFormatException e) {
+				// An unusable option is ignored, the timeout stays adaptive
+			}
+		}
+
+		// The tsize option (RFC 2349) is 0 in a RRQ and answered with the file size,
+		// in a WRQ it announces the size of the upload
+		String tsize = this.options.get("tsize");
+		if(tsize != null) {
+			try {
+				long size = Long.parseLong(tsize);
+				if(size >= 0) {
+					this.transferSize = this.sizeOption(size);
+					accepted.put("tsize",Long.toString(this.transferSize));
+				}
+			} catch(NumberFormatException e) {
+				// An unusable option is ignored, the size is not reported
+			}
+		}
+
+		// The offset option resumes a RRQ at a byte of the file, DATA block 1 starts there
+		String offset = this.options.get("offset");
+		if(offset != null) {
+			try {
+				long position = this.offsetOption(Long.parseLong(offset));
+				if(position >= 0)
+					accepted.put("offset",Long.toString(position));
+			} catch(NumberFormatException e) {
+				// An unusable option is ignored, the transfer starts at the beginning
+			}
+		}
+
+		// The block number after 65535 is not standardised, clients may ask for 0 or 1
+		String rollover = this.options.get("rollover");
+		if("0".equals(rollover) || "1".equals(rollover)) {
+			this.rollover = Integer.parseInt(rollover);
+			accepted.put("rollover",rollover);
+		}
+
+		if(accepted.isEmpty())
+			return null;
+		return TftpPacket.oack(accepted);
+	}
+
+	/**
+	 * sizeOption method
+	 * This method returns the size to answer a tsize option with
+	 *
+	 * @param requested The size in the request
+	 *
+	 * @return The size for the OACK, the requested size unless overridden
+	 */
+	long sizeOption(long requested) {
+		return requested;
+	}
+
+	/**
+	 * offsetOption method
+	 * This method applies the offset a client asked to resume at
+	 *
+	 * @param requested The offset in the request
+	 *
+	 * @return The offset for the OACK, or -1 if the option is not supported
+	 */
+	long offsetOption(long requested) {
+		return -1;
+	}
+
+	/**
+	 * wireBlock method
+	 * This method maps a block count, which never wraps, to the 16 bit block number
+	 * sent on the wire. With rollover 0 the numbers run 65534, 65535, 0, 1 ... and
+	 * with rollover 1 they run 65534, 65535, 1, 2 ...
+	 *
+	 * @param block The block count, block 1 is the first block of the file
+	 *
+	 * @return The block number of the packet
+	 */
+	int wireBlock(long block) {
+		if(this.rollover == 0)
+			return (int)(block & 0xFFFF);
+		return (int)Math.floorMod(block - 1,65535L) + 1;
+	}
+
+	/**
+	 * blockDistance method
+	 * This method counts how many blocks a block number is past the block number of
+	 * a block count, modulo the block numbers of the rollover in use
+	 *
+	 * @param wire  The block number received
+	 * @param block The block count to measure from
+	 *
+	 * @return The distance, from 0 to 65535 (65534 with rollover 1)
+	 */
+	int blockDistance(int wire, long block) {
+		int modulus = (this.rollover == 0) ? 65536 : 65535;
+		return Math.floorMod(wire - this.wireBlock(block),modulus);
+	}
+
+	boolean isDone() {
+		return this.done;
+	}
+
+	/**
+	 * close method
+	 * This method releases the resources held by the transfer
+	 * It is called by the engine once, after the transfer is done
+	 */
+	void close() {
+	}
+
+	/**
+	 * send method
+	 * This method sends a packet and keeps it for retransmission, the packet is
+	 * rewound to be sent again so it must not be reused until the next send
+	 *
+	 * @param packet The packet to send
+	 *
+	 * @throws IOException
+	 */
+	void send(ByteBuffer packet) throws IOException {
+		this.lastPacket = packet;
+		this.retries = 0;
+		this.sender.send(packet);
+		this.transmitted(false);
+	}
+
+	/**
+	 * sendError method
+	 * This method sends an error packet to the client and ends the transfer
+	 *
+	 * @param errorCode The TFTP error code
+	 * @param errorMsg  The error message
+	 *
+	 * @throws IOException
+	 */
+	void sendError(int errorCode, String errorMsg) throws IOException {
+		this.sender.send(TftpPacket.error(errorCode,errorMsg));
+		this.config.metrics.error(errorCode);
+		this.fail(errorMsg);
+	}
+
+	void fail(String reason) {
+		this.failure = reason;
+		this.done = true;
+	}
+}
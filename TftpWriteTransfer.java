@@ -0,0 +1,219 @@
+/*
+ * TftpWriteTransfer.java
+ *
+ * Author: Shreyas Jayanna
+ *
+ */
+
+// import Statements
+import java.net.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.file.*;
+
+/**
+ * Class TftpWriteTransfer
+ * This class serves a WRQ: it acknowledges the request, receives the DATA blocks
+ * and writes them through a buffer into an upload of the Storage of the server.
+ * Once the last block is in, the upload is synced as configured and committed,
+ * so a failed upload never leaves a partial file under the requested name.
+ * In netascii mode the blocks are decoded as they are put into the buffer
+ */
+class TftpWriteTransfer extends TftpTransfer {
+
+	Storage.Upload upload;			// The file being uploaded
+	ByteBuffer writeBuffer;			// Collects blocks into large writes
+	NetasciiDecoder decoder;		// Decodes the blocks in netascii mode, null in octet mode
+	ByteBuffer ackData;			// The ACK packet, reused for every acknowledgement
+
+	long block;				// The count of the last block received in order
+	long unsynced;				// Bytes written since the last sync
+	int windowCount;			// Blocks received in order since the last ack
+	boolean lossReported;			// True once a gap in the current window was acknowledged
+	boolean complete;			// True once the file is in place, the last ack may still be resent
+
+	TftpWriteTransfer(TftpServerConfig config, String filename, String mode, InetAddress address, int port) {
+		super(config,filename,mode,address,port);
+	}
+
+	void start() throws IOException {
+		try {
+			this.upload = this.config.storage.create(this.filename);
+		} catch(FileAlreadyExistsException e) {
+			// If file exists, send error packet to client
+			this.sendError(6,"File Already exists");
+			return;
+		} catch(IOException e) {
+			this.sendError(2,"Cannot create file");
+			return;
+		}
+		this.writeBuffer = this.config.buffers.acquire(this.config.writeBufferSize);
+		if(this.netascii)
+			this.decoder = new NetasciiDecoder();
+		this.ackData = ByteBuffer.allocate(4);
+
+		// If options were accepted the OACK is sent, otherwise block 0 is acknowledged
+		ByteBuffer oack = this.negotiate();
+
+		// An upload that announced its size is refused at once if it cannot fit
+		if(this.transferSize > 0) {
+			if(this.transferSize > this.upload.usableSpace()) {
+				this.sendError(3,"Disk full or allocation exceeded");
+				return;
+			}
+		}
+
+		if(oack != null)
+			this.send(oack);
+		else
+			this.send(TftpPacket.putAck(this.ackData,0));
+	}
+
+	void receive(ByteBuffer packet) throws IOException {
+		int op = TftpPacket.opcode(packet);
+		if(op == TftpPacket.ERROR) {
+			this.fail("transfer aborted by client");
+			return;
+		}
+		int blockNum = TftpPacket.block(packet);
+		if(op != TftpPacket.DATA || blockNum < 0)
+			return;
+
+		if(this.complete) {
+			// Our last ack was lost, the client sent the last block again
+			if(blockNum == this.wireBlock(this.block)) {
+				this.sender.send(this.lastPacket.rewind());
+				this.config.metrics.retransmits.increment();
+			}
+			return;
+		}
+
+		if(blockNum == this.wireBlock(this.block + 1)) {
+			// The first block after an ack measures the round trip time of the ack
+			if(this.windowCount == 0)
+				this.acknowledged();
+			++this.block;
+			++this.windowCount;
+			this.lossReported = false;
+
+			boolean lastBlock = packet.remaining() - 4 < this.blockSize;
+			try {
+				packet.position(packet.position() + 4);
+				this.bytes += packet.remaining();
+				this.write(packet);
+				if(lastBlock)
+					this.finish();
+			} catch(FileAlreadyExistsException e) {
+				this.sendError(6,"File Already exists");
+				return;
+			} catch(IOException e) {
+				this.sendError(3,"Disk full or allocation exceeded");
+				return;
+			}
+
+			// Only the last block of a window, and the last block of the file, is acknowledged
+			if(lastBlock || (this.windowCount == this.windowSize)) {
+				this.send(TftpPacket.putAck(this.ackData,this.wireBlock(this.block)));
+				this.windowCount = 0;
+			}
+		} else if((this.windowSize == 1) || !this.lossReported) {
+			// A duplicate or a gap, acknowledge the last block received in order so the
+			// client continues after it. Within a window this is done once
+			this.send(TftpPacket.putAck(this.ackData,this.wireBlock(this.block)));
+			this.windowCount = 0;
+			this.lossReported = true;
+		}
+	}
+
+	/**
+	 * timeout method
+	 * This method sends the last ack again, once the file is in place the
+	 * transfer ends instead
+	 */
+	void timeout() throws IOException {
+		if(this.complete) {
+			this.done = true;
+			return;
+		}
+		super.timeout();
+	}
+
+	void close() {
+		try {
+			if(this.upload != null)
+				this.upload.close();
+		} catch(IOException e) {
+		}
+		this.config.buffers.release(this.writeBuffer);
+		this.writeBuffer = null;
+	}
+
+	/**
+	 * write method
+	 * This method adds the data of a block to the write buffer, the buffer is
+	 * written to the file when it is full
+	 *
+	 * @param data The data of the block
+	 *
+	 * @throws IOException
+	 */
+	private void write(ByteBuffer data) throws IOException {
+		if(this.decoder != null) {
+			// A CR held from the block before can add a byte, the buffer is written before it runs out
+			while(data.hasRemaining()) {
+				if(this.writeBuffer.remaining() < 2)
+					this.flush();
+				this.decoder.decode(data,this.writeBuffer);
+			}
+			return;
+		}
+		if(data.remaining() > this.writeBuffer.remaining())
+			this.flush();
+		if(data.remaining() > this.writeBuffer.remaining()) {
+			// The block is larger than the buffer, write it directly
+			this.writeFully(data);
+			return;
+		}
+		this.writeBuffer.put(data);
+	}
+
+	/**
+	 * flush method
+	 * This method writes the write buffer to the file
+	 *
+	 * @throws IOException
+	 */
+	private void flush() throws IOException {
+		this.writeBuffer.flip();
+		this.writeFully(this.writeBuffer);
+		this.writeBuffer.clear();
+	}
+
+	private void writeFully(ByteBuffer data) throws IOException {
+		while(data.hasRemaining())
+			this.unsynced += this.upload.write(data);
+
+		// Sync every syncInterval bytes, if configured
+		if((this.config.syncInterval > 0) && (this.unsynced >= this.config.syncInterval)) {
+			this.upload.force();
+			this.unsynced = 0;
+		}
+	}
+
+	/**
+	 * finish method
+	 * This method writes what is left in the buffer and commits the upload, synced if configured
+	 *
+	 * @throws IOException
+	 */
+	private void finish() throws IOException {
+		if(this.decoder != null) {
+			if(!this.writeBuffer.hasRemaining())
+				this.flush();
+			this.decoder.finish(this.writeBuffer);
+		}
+		this.flush();
+		this.upload.commit(this.config.syncOnClose);
+		this.complete = true;
+	}
+}
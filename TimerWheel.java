@@ -0,0 +1,139 @@
+/*
+ * TimerWheel.java
+ *
+ * Author: Shreyas Jayanna
+ *
+ */
+
+/**
+ * Class TimerWheel
+ * This class is a hashed timer wheel for the retransmit timers of the sessions
+ * owned by one selector loop. Scheduling and cancelling are O(1), so thousands
+ * of sessions can rearm their timer on every packet.
+ * It is not thread safe, it must only be used by the thread of its loop
+ */
+class TimerWheel {
+
+	/**
+	 * Class Timeout
+	 * A scheduled task, linked into the bucket of the tick it expires in
+	 */
+	static class Timeout {
+		Runnable task;			// The task to run on expiry
+		int rounds;			// Full turns of the wheel left before expiry
+		Timeout prev;			// Previous timeout in the bucket
+		Timeout next;			// Next timeout in the bucket
+		TimerWheel wheel;		// The wheel this timeout is scheduled on, null when not scheduled
+		int bucket;			// The bucket index
+
+		/**
+		 * cancel method
+		 * This method removes the timeout from its wheel, it does nothing if it already fired
+		 */
+		void cancel() {
+			if(this.wheel != null)
+				this.wheel.remove(this);
+		}
+	}
+
+	long tickMillis;			// The duration of one tick in ms
+	Timeout[] buckets;			// The head of the timeout list of every bucket
+	long startTime;				// The time in ms the wheel started at
+	long tick;				// The number of ticks processed so far
+	int size;				// The number of scheduled timeouts
+
+	/**
+	 * TimerWheel method
+	 * This is the constructor of the class
+	 *
+	 * @param tickMillis    The duration of one tick in ms
+	 * @param ticksPerWheel The number of buckets
+	 * @param now           The current time in ms
+	 */
+	TimerWheel(long tickMillis, int ticksPerWheel, long now) {
+		this.tickMillis = tickMillis;
+		this.buckets = new Timeout[ticksPerWheel];
+		this.startTime = now;
+	}
+
+	/**
+	 * schedule method
+	 * This method schedules a timeout to run its task after the given delay
+	 * A timeout that is already scheduled is moved, so an owner can rearm the
+	 * same timeout for its whole life without allocating
+	 *
+	 * @param timeout The timeout, its task set
+	 * @param delay   The delay in ms
+	 * @param now     The current time in ms
+	 */
+	void schedule(Timeout timeout, long delay, long now) {
+		timeout.cancel();
+
+		// The timeout expires in the first tick that ends at or after its deadline
+		long expiryTick = (now + delay - this.startTime + this.tickMillis - 1) / this.tickMillis - 1;
+		if(expiryTick < this.tick)
+			expiryTick = this.tick;
+
+		timeout.rounds = (int)((expiryTick - this.tick) / this.buckets.length);
+		timeout.bucket = (int)(expiryTick % this.buckets.length);
+		timeout.wheel = this;
+
+		// Link the timeout in front of its bucket
+		timeout.next = this.buckets[timeout.bucket];
+		if(timeout.next != null)
+			timeout.next.prev = timeout;
+		this.buckets[timeout.bucket] = timeout;
+		++this.size;
+	}
+
+	private void remove(Timeout timeout) {
+		if(timeout.prev != null)
+			timeout.prev.next = timeout.next;
+		else
+			this.buckets[timeout.bucket] = timeout.next;
+		if(timeout.next != null)
+			timeout.next.prev = timeout.prev;
+		timeout.prev = null;
+		timeout.next = null;
+		timeout.wheel = null;
+		--this.size;
+	}
+
+	/**
+	 * nextDelay method
+	 *
+	 * @param now The current time in ms
+	 *
+	 * @return The time in ms until the next tick ends, or 0 if nothing is scheduled
+	 */
+	long nextDelay(long now) {
+		if(this.size == 0)
+			return 0;
+		return Math.max(1,this.startTime + (this.tick + 1) * this.tickMillis - now);
+	}
+
+	/**
+	 * advance method
+	 * This method processes every tick that ended up to now and runs the expired tasks
+	 *
+	 * @param now The current time in ms
+	 */
+	void advance(long now) {
+		while(this.startTime + (this.tick + 1) * this.tickMillis <= now) {
+			int bucket = (int)(this.tick % this.buckets.length);
+			++this.tick;
+
+			Timeout timeout = this.buckets[bucket];
+			while(timeout != null) {
+				Timeout next = timeout.next;
+				if(timeout.rounds > 0) {
+					--timeout.rounds;
+				} else {
+					this.remove(timeout);
+					timeout.task.run();
+				}
+				timeout = next;
+			}
+		}
+	}
+}
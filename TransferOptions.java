@@ -0,0 +1,66 @@
+/*
+ * TransferOptions.java
+ *
+ * Author: Shreyas Jayanna
+ *
+ */
+
+// import Statements
+import java.net.*;
+
+/**
+ * Class TransferOptions
+ * This class holds the options of a transfer started with the TftpClientEngine:
+ * the options requested from the server and how the transfer is run. The values
+ * are copied into the transfer when it starts, so one TransferOptions can be
+ * shared by any number of transfers
+ */
+class TransferOptions implements Cloneable {
+
+	boolean netascii;		// True to transfer in netascii mode, text with its line endings translated
+	int blockSize = 512;		// The block size to request, 512 sends no option
+	int windowSize = 1;		// The window size to request, 1 sends no option
+	int timeout;			// The fixed timeout in seconds to request, 0 for the adaptive timeout
+	int rollover;			// The block number following block 65535, 0 or 1
+	boolean requestRollover;	// True to send the rollover option
+	boolean tsize = true;		// True to send the tsize option
+	boolean multicast;		// True to send the multicast option with a download
+	NetworkInterface multicastInterface;	// The interface to join a group on, null for the one toward the server
+	boolean resume;			// True to resume a download from its checkpoint
+	int maxRetries = 5;		// Retransmissions before a transfer is abandoned
+	String transport = "loop";	// loop to run on the event loops, or socket or channel for a thread of its own
+	int localPort;			// The port transfers are sent from, 0 for any
+
+	/**
+	 * apply method
+	 * This method sets the options of a transfer
+	 *
+	 * @param transfer The transfer
+	 */
+	void apply(TftpClientTransfer transfer) {
+		transfer.netascii = this.netascii;
+		transfer.requestedBlockSize = (this.blockSize == 512) ? 0 : this.blockSize;
+		transfer.requestedWindowSize = (this.windowSize == 1) ? 0 : this.windowSize;
+		transfer.requestedTimeout = this.timeout;
+		transfer.rollover = this.rollover;
+		transfer.requestRollover = this.requestRollover;
+		transfer.requestSize = this.tsize;
+		transfer.requestMulticast = this.multicast;
+		transfer.multicastInterface = this.multicastInterface;
+		transfer.resume = this.resume;
+		transfer.maxRetries = this.maxRetries;
+	}
+
+	/**
+	 * copy method
+	 *
+	 * @return A copy of the options
+	 */
+	TransferOptions copy() {
+		try {
+			return (TransferOptions)super.clone();
+		} catch(CloneNotSupportedException e) {
+			throw new AssertionError(e);
+		}
+	}
+}
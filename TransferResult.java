@@ -0,0 +1,38 @@
+/*
+ * TransferResult.java
+ *
+ * Author: Shreyas Jayanna
+ *
+ */
+
+/**
+ * Class TransferResult
+ * This class is the outcome of a transfer that succeeded, a failed transfer
+ * completes its future with the IOException instead
+ */
+class TransferResult {
+
+	String file;				// The filename on the server
+	long bytes;				// The number of bytes transferred
+	long time;				// The duration of the transfer in ms
+	int retransmits;			// Packets sent again after a timeout
+
+	/**
+	 * TransferResult method
+	 * This is the constructor of the class, it takes the outcome of a finished transfer
+	 *
+	 * @param file     The filename on the server
+	 * @param transfer The transfer
+	 */
+	TransferResult(String file, TftpClientTransfer transfer) {
+		this.file = file;
+		this.bytes = transfer.numBytes;
+		this.time = transfer.totalTime;
+		this.retransmits = transfer.retransmits;
+	}
+
+	public String toString() {
+		return "Transferred " + this.bytes + " bytes in " + this.time + " ms" +
+			(this.retransmits > 0 ? " (" + this.retransmits + " retransmits)" : "");
+	}
+}
@@ -0,0 +1,74 @@
+/*
+ * Transport.java
+ *
+ * Author: Shreyas Jayanna
+ *
+ */
+
+// import Statements
+import java.net.*;
+import java.io.*;
+import java.nio.*;
+
+/**
+ * Interface Transport
+ * This interface moves datagrams for one endpoint, the TID of a server session
+ * or of a client transfer. SocketTransport wraps a DatagramSocket and is the
+ * default; ChannelTransport uses a non-blocking DatagramChannel, sends straight
+ * from direct buffers and drains every datagram waiting after a wakeup, so a
+ * window of blocks costs one poll instead of one per block
+ */
+interface Transport extends DatagramSender, Closeable {
+
+	/**
+	 * send method
+	 * This method sends one datagram made of a header and data
+	 *
+	 * @param header The packet header
+	 * @param data   The packet data
+	 * @param target The address to send to
+	 *
+	 * @throws IOException
+	 */
+	void send(ByteBuffer header, ByteBuffer data, InetSocketAddress target) throws IOException;
+
+	/**
+	 * receive method
+	 * This method receives one datagram, waiting at most the timeout
+	 *
+	 * @param dst     The buffer to receive into, it is cleared first and flipped
+	 *                after, a longer datagram is truncated
+	 * @param timeout The time to wait in ms, at least 1
+	 *
+	 * @return The address of the sender, or null on timeout
+	 *
+	 * @throws IOException
+	 */
+	InetSocketAddress receive(ByteBuffer dst, int timeout) throws IOException;
+
+	/**
+	 * getLocalPort method
+	 *
+	 * @return The local port, the TID
+	 */
+	int getLocalPort();
+
+	/**
+	 * open method
+	 * This method opens a transport
+	 *
+	 * @param kind socket or channel
+	 * @param port The local port, 0 for an ephemeral port
+	 *
+	 * @return The transport
+	 *
+	 * @throws IOException
+	 */
+	static Transport open(String kind, int port) throws IOException {
+		if(kind.equals("channel"))
+			return new ChannelTransport(port);
+		if(kind.equals("socket"))
+			return new SocketTransport(new DatagramSocket(port));
+		throw new IllegalArgumentException("Unknown transport " + kind);
+	}
+}